@@ -0,0 +1,229 @@
+/*
+ * Copyright [2016] [Vincent VAN HOLLEBEKE]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.compuscene.metrics.prometheus;
+
+import org.opensearch.Version;
+import org.opensearch.action.admin.cluster.health.ClusterHealthResponse;
+import org.opensearch.action.admin.cluster.node.stats.NodeStats;
+import org.opensearch.action.admin.indices.stats.CommonStats;
+import org.opensearch.action.admin.indices.stats.CommonStatsFlags;
+import org.opensearch.action.admin.indices.stats.IndicesStatsResponse;
+import org.opensearch.action.admin.indices.stats.PackageAccessHelper;
+import org.opensearch.action.admin.indices.stats.ShardStats;
+import org.opensearch.cluster.ClusterName;
+import org.opensearch.cluster.ClusterState;
+import org.opensearch.cluster.metadata.IndexMetadata;
+import org.opensearch.cluster.metadata.Metadata;
+import org.opensearch.cluster.node.DiscoveryNode;
+import org.opensearch.cluster.node.DiscoveryNodeRole;
+import org.opensearch.cluster.routing.RecoverySource;
+import org.opensearch.cluster.routing.RoutingTable;
+import org.opensearch.cluster.routing.ShardRouting;
+import org.opensearch.cluster.routing.UnassignedInfo;
+import org.opensearch.common.Nullable;
+import org.opensearch.common.settings.ClusterSettings;
+import org.opensearch.common.settings.Setting;
+import org.opensearch.common.settings.Settings;
+import org.opensearch.common.unit.TimeValue;
+import org.opensearch.core.common.transport.TransportAddress;
+import org.opensearch.core.index.Index;
+import org.opensearch.core.index.shard.ShardId;
+import org.opensearch.core.indices.breaker.AllCircuitBreakerStats;
+import org.opensearch.core.indices.breaker.CircuitBreakerStats;
+import org.opensearch.index.shard.ShardPath;
+import org.opensearch.indices.NodeIndicesStats;
+import org.opensearch.monitor.jvm.JvmStats;
+import org.opensearch.monitor.os.OsProbe;
+import org.opensearch.monitor.os.OsStats;
+import org.opensearch.monitor.process.ProcessStats;
+import org.opensearch.plugin.prometheus.PrometheusExporterPlugin;
+import org.opensearch.threadpool.ThreadPool;
+import org.opensearch.threadpool.ThreadPoolStats;
+
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Synthetic responses used as input of the benchmarks.
+ * <p>
+ * The stats are built through public constructors and factories only, stats the collector does not read are left
+ * null. When OpenSearch changes a constructor the benchmarks stop compiling instead of running with bogus input.
+ */
+final class BenchmarkFixtures {
+
+    static final String CLUSTER_NAME = "benchmark";
+
+    private static final String[] BREAKERS = {"accounting", "fielddata", "in_flight_requests", "parent", "request"};
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * @return Settings of the plugin with default values
+     */
+    static PrometheusSettings prometheusSettings() {
+        Set<Setting<?>> settings = new HashSet<>(new PrometheusExporterPlugin().getSettings());
+        return new PrometheusSettings(Settings.EMPTY, new ClusterSettings(Settings.EMPTY, settings));
+    }
+
+    /**
+     * @param executor Executor populating and rendering shards of the catalog, null if the calling thread does it all
+     * @param threads Number of threads of the executor
+     * @return Collector with registered metrics, its catalog has a shard for every thread of the executor and one
+     *         for the calling thread like the catalog of the plugin
+     */
+    static PrometheusMetricsCollector collector(@Nullable Executor executor, int threads) {
+        PrometheusMetricsCollector collector = new PrometheusMetricsCollector(
+                new PrometheusMetricsCatalog(CLUSTER_NAME, "opensearch_", threads + 1), prometheusSettings(), executor);
+        collector.registerMetrics();
+        return collector;
+    }
+
+    /**
+     * @param nodes Number of nodes
+     * @return Stats of given number of nodes
+     */
+    static NodeStats[] nodeStats(int nodes) {
+        JvmStats jvmStats = JvmStats.jvmStats();
+        OsStats osStats = OsProbe.getInstance().osStats();
+        ProcessStats processStats = new ProcessStats(System.currentTimeMillis(), 1024, 65536,
+                new ProcessStats.Cpu((short) 5, 123456), new ProcessStats.Mem(4L << 30));
+        ThreadPoolStats threadPoolStats = threadPoolStats();
+        CircuitBreakerStats[] breakers = new CircuitBreakerStats[BREAKERS.length];
+        for (int i = 0; i < BREAKERS.length; i++) {
+            breakers[i] = new CircuitBreakerStats(BREAKERS[i], 1L << 30, 1L << 20, 1.0, 0);
+        }
+        AllCircuitBreakerStats breakerStats = new AllCircuitBreakerStats(breakers);
+        NodeIndicesStats indicesStats = new NodeIndicesStats(new CommonStats(CommonStatsFlags.ALL),
+                Collections.emptyMap(), null);
+
+        NodeStats[] stats = new NodeStats[nodes];
+        for (int i = 0; i < nodes; i++) {
+            DiscoveryNode node = new DiscoveryNode("node-" + i, "node-id-" + i,
+                    new TransportAddress(InetAddress.getLoopbackAddress(), 9300 + i),
+                    Collections.emptyMap(), DiscoveryNodeRole.BUILT_IN_ROLES, Version.CURRENT);
+            stats[i] = new NodeStats(node, System.currentTimeMillis(),
+                    indicesStats,
+                    osStats,
+                    processStats,
+                    jvmStats,
+                    threadPoolStats,
+                    null, // fs
+                    null, // transport
+                    null, // http
+                    breakerStats,
+                    null, // script
+                    null, // discovery
+                    null, // ingest
+                    null, // adaptive selection
+                    null, // resource usage
+                    null, // script cache
+                    null, // indexing pressure
+                    null, // shard indexing pressure
+                    null, // search backpressure
+                    null, // cluster manager throttling
+                    null, // weighted routing
+                    null, // file cache
+                    null, // task cancellation
+                    null, // search pipeline
+                    null, // segment replication rejection
+                    null, // repositories
+                    null, // admission control
+                    null  // node cache
+            );
+        }
+        return stats;
+    }
+
+    // Stats of the thread pools of a node, taken from a real (idle) thread pool
+    private static ThreadPoolStats threadPoolStats() {
+        ThreadPool threadPool = new ThreadPool(Settings.builder().put("node.name", CLUSTER_NAME).build());
+        try {
+            return threadPool.stats();
+        } finally {
+            ThreadPool.terminate(threadPool, 10, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * @param indices Number of indices, each of them has single primary shard
+     * @return Cluster state holding given number of indices
+     */
+    static ClusterState clusterState(int indices) {
+        Metadata.Builder metadata = Metadata.builder();
+        RoutingTable.Builder routingTable = RoutingTable.builder();
+        for (int i = 0; i < indices; i++) {
+            IndexMetadata indexMetadata = IndexMetadata.builder(indexName(i))
+                    .settings(Settings.builder()
+                            .put(IndexMetadata.SETTING_VERSION_CREATED, Version.CURRENT)
+                            .put(IndexMetadata.SETTING_INDEX_UUID, indexUuid(i)))
+                    .numberOfShards(1)
+                    .numberOfReplicas(0)
+                    .build();
+            metadata.put(indexMetadata, false);
+            routingTable.addAsNew(indexMetadata);
+        }
+        return ClusterState.builder(new ClusterName(CLUSTER_NAME))
+                .metadata(metadata)
+                .routingTable(routingTable.build())
+                .build();
+    }
+
+    /**
+     * @param clusterState Cluster state from {@link #clusterState(int)}
+     * @return Shards level cluster health
+     */
+    static ClusterHealthResponse clusterHealth(ClusterState clusterState) {
+        String[] concreteIndices = clusterState.metadata().getConcreteAllIndices();
+        return new ClusterHealthResponse(CLUSTER_NAME, concreteIndices, clusterState, 0, 0, 0, TimeValue.ZERO);
+    }
+
+    /**
+     * @param indices Number of indices
+     * @return Indices stats with single started primary shard per index
+     */
+    static IndicesStatsResponse indicesStats(int indices) {
+        ShardStats[] shards = new ShardStats[indices];
+        for (int i = 0; i < indices; i++) {
+            ShardId shardId = new ShardId(new Index(indexName(i), indexUuid(i)), 0);
+            ShardRouting routing = ShardRouting.newUnassigned(shardId, true,
+                    RecoverySource.EmptyStoreRecoverySource.INSTANCE,
+                    new UnassignedInfo(UnassignedInfo.Reason.INDEX_CREATED, null))
+                    .initialize("node-id-0", null, -1)
+                    .moveToStarted();
+            Path path = Paths.get("data", "indices", indexUuid(i), "0");
+            shards[i] = new ShardStats(routing, new ShardPath(false, path, path, shardId),
+                    new CommonStats(CommonStatsFlags.ALL), null, null, null);
+        }
+        return PackageAccessHelper.createIndicesStatsResponse(shards, indices, indices, 0, Collections.emptyList());
+    }
+
+    private static String indexName(int i) {
+        return "index-" + i;
+    }
+
+    private static String indexUuid(int i) {
+        return "uuid-" + i;
+    }
+}
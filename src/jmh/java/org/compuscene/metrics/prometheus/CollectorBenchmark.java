@@ -0,0 +1,91 @@
+/*
+ * Copyright [2016] [Vincent VAN HOLLEBEKE]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.compuscene.metrics.prometheus;
+
+import org.opensearch.action.admin.cluster.health.ClusterHealthResponse;
+import org.opensearch.action.admin.cluster.node.stats.NodeStats;
+import org.opensearch.action.admin.indices.stats.IndicesStatsResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of {@link PrometheusMetricsCollector#updateMetrics}, i.e. population of the catalog from the responses
+ * gathered by a single scrape. Run with GC profiler ({@code -prof gc}) to see allocation rate per scrape.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class CollectorBenchmark {
+
+    @Param({"1", "50", "200"})
+    public int nodes;
+
+    @Param({"100", "5000", "50000"})
+    public int indices;
+
+    // Threads of the executor populating and rendering shards of the catalog, 0 if the calling thread does it all.
+    // Small catalogs are populated and rendered by the calling thread anyway, the same way as in the plugin.
+    @Param({"0", "4"})
+    public int threads;
+
+    private ExecutorService executor;
+    private PrometheusMetricsCollector collector;
+    private NodeStats[] nodeStats;
+    private ClusterHealthResponse clusterHealth;
+    private IndicesStatsResponse indicesStats;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        executor = threads > 0 ? Executors.newFixedThreadPool(threads) : null;
+        collector = BenchmarkFixtures.collector(executor, threads);
+        nodeStats = BenchmarkFixtures.nodeStats(nodes);
+        clusterHealth = BenchmarkFixtures.clusterHealth(BenchmarkFixtures.clusterState(indices));
+        indicesStats = BenchmarkFixtures.indicesStats(indices);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public PrometheusMetricsCollector updateMetrics() {
+        collector.updateMetrics("node-0", "node-id-0", clusterHealth, nodeStats, indicesStats, null);
+        return collector;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright [2016] [Vincent VAN HOLLEBEKE]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.compuscene.metrics.prometheus;
+
+import org.opensearch.common.io.stream.BytesStreamOutput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of {@link PrometheusMetricsCatalog#write}, i.e. rendering of already populated catalog into
+ * the response buffer. Run with GC profiler ({@code -prof gc}) to see allocation rate per scrape.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class RenderBenchmark {
+
+    @Param({"1", "50", "200"})
+    public int nodes;
+
+    @Param({"100", "5000", "50000"})
+    public int indices;
+
+    // Threads of the executor populating and rendering shards of the catalog, 0 if the calling thread does it all.
+    // Small catalogs are populated and rendered by the calling thread anyway, the same way as in the plugin.
+    @Param({"0", "4"})
+    public int threads;
+
+    @Param({"TEXT_004", "OPENMETRICS_100", "PROTOBUF_DELIMITED"})
+    public ExpositionFormat format;
+
+    private ExecutorService executor;
+    private PrometheusMetricsCollector collector;
+    private BytesStreamOutput out;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        executor = threads > 0 ? Executors.newFixedThreadPool(threads) : null;
+        collector = BenchmarkFixtures.collector(executor, threads);
+        collector.updateMetrics("node-0", "node-id-0",
+                BenchmarkFixtures.clusterHealth(BenchmarkFixtures.clusterState(indices)),
+                BenchmarkFixtures.nodeStats(nodes),
+                BenchmarkFixtures.indicesStats(indices),
+                null);
+        out = new BytesStreamOutput();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public BytesStreamOutput write() throws IOException {
+        // The buffer is reused the same way the REST channel recycles its buffer.
+        out.reset();
+        collector.writeContent(format, out);
+        return out;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright [2016] [Vincent VAN HOLLEBEKE]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.compuscene.metrics.prometheus;
+
+import org.opensearch.common.Nullable;
+
+import java.util.Locale;
+
+import io.prometheus.client.exporter.common.TextFormat;
+
+/**
+ * Exposition formats supported by {@link PrometheusMetricsCatalog}.
+ * <p>
+ * See <a href="https://prometheus.io/docs/instrumenting/exposition_formats/">Prometheus exposition formats</a>.
+ */
+public enum ExpositionFormat {
+
+    /**
+     * Prometheus text format version 0.0.4. This is the default format.
+     * The content type does not carry the version parameter to stay backward compatible with previous releases,
+     * Prometheus treats plain text without version as 0.0.4.
+     */
+    TEXT_004("text/plain; charset=UTF-8"),
+
+    /**
+     * OpenMetrics text format version 1.0.0.
+     */
+    OPENMETRICS_100(TextFormat.CONTENT_TYPE_OPENMETRICS_100),
+
+    /**
+     * Length delimited stream of {@code io.prometheus.client.MetricFamily} protocol buffer messages.
+     */
+    PROTOBUF_DELIMITED("application/vnd.google.protobuf; proto=io.prometheus.client.MetricFamily; encoding=delimited");
+
+    private static final String PROTOBUF_MEDIA_TYPE = "application/vnd.google.protobuf";
+    private static final String PROTOBUF_PROTO = "io.prometheus.client.MetricFamily";
+    private static final String OPENMETRICS_MEDIA_TYPE = "application/openmetrics-text";
+
+    private final String contentType;
+
+    ExpositionFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    /**
+     * @return Value of the Content-Type header of the response carrying this format
+     */
+    public String contentType() {
+        return contentType;
+    }
+
+    /**
+     * Pick the exposition format based on the value of HTTP {@code Accept} request header.
+     * <p>
+     * Media ranges are weighted by their quality ({@code q}) parameter. Protocol buffer format is picked only if the
+     * client asks for delimited {@code io.prometheus.client.MetricFamily} messages. If the header is missing or none
+     * of the accepted media ranges is supported then {@link #TEXT_004} is used.
+     * @param accept Value of the Accept header
+     * @return Negotiated exposition format
+     */
+    public static ExpositionFormat fromAcceptHeader(@Nullable String accept) {
+        if (accept == null || accept.isEmpty()) {
+            return TEXT_004;
+        }
+        ExpositionFormat best = TEXT_004;
+        double bestQuality = -1;
+        for (String mediaRange : accept.split(",")) {
+            String[] parts = mediaRange.split(";");
+            String mediaType = parts[0].trim().toLowerCase(Locale.ROOT);
+            double quality = 1.0;
+            String proto = null;
+            String encoding = null;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                int eq = param.indexOf('=');
+                if (eq < 0) {
+                    continue;
+                }
+                String key = param.substring(0, eq).trim().toLowerCase(Locale.ROOT);
+                String value = param.substring(eq + 1).trim();
+                switch (key) {
+                    case "q":
+                        try {
+                            quality = Double.parseDouble(value);
+                        } catch (NumberFormatException e) {
+                            quality = 0;
+                        }
+                        break;
+                    case "proto":
+                        proto = value;
+                        break;
+                    case "encoding":
+                        encoding = value;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            ExpositionFormat format;
+            if (PROTOBUF_MEDIA_TYPE.equals(mediaType)) {
+                format = PROTOBUF_PROTO.equals(proto) && "delimited".equals(encoding) ? PROTOBUF_DELIMITED : null;
+            } else if (OPENMETRICS_MEDIA_TYPE.equals(mediaType)) {
+                format = OPENMETRICS_100;
+            } else if ("text/plain".equals(mediaType) || "text/*".equals(mediaType) || "*/*".equals(mediaType)) {
+                format = TEXT_004;
+            } else {
+                format = null;
+            }
+            // the first media range wins when qualities are equal
+            if (format != null && quality > 0 && quality > bestQuality) {
+                best = format;
+                bestQuality = quality;
+            }
+        }
+        return best;
+    }
+}
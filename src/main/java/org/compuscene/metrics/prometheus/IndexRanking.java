@@ -0,0 +1,111 @@
+/*
+ * Copyright [2016] [Vincent VAN HOLLEBEKE]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.compuscene.metrics.prometheus;
+
+import org.opensearch.action.admin.indices.stats.CommonStats;
+import org.opensearch.action.admin.indices.stats.CommonStatsFlags;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * Rankings of indices used to select the top indices exporting per-index metrics,
+ * see {@link PrometheusSettings#PROMETHEUS_INDICES_STATS_TOP_K}.
+ */
+public enum IndexRanking {
+
+    /**
+     * Store size of all the shards.
+     */
+    STORE_SIZE("store_size", CommonStatsFlags.Flag.Store, false),
+
+    /**
+     * Number of indexed documents since the previous collection.
+     */
+    INDEXING_RATE("indexing_rate", CommonStatsFlags.Flag.Indexing, true),
+
+    /**
+     * Number of search queries since the previous collection.
+     */
+    SEARCH_RATE("search_rate", CommonStatsFlags.Flag.Search, true);
+
+    private final String rankingName;
+    private final CommonStatsFlags.Flag flag;
+    private final boolean rate;
+
+    IndexRanking(String rankingName, CommonStatsFlags.Flag flag, boolean rate) {
+        this.rankingName = rankingName;
+        this.flag = flag;
+        this.rate = rate;
+    }
+
+    /**
+     * @return Name of the ranking used in the settings
+     */
+    public String rankingName() {
+        return rankingName;
+    }
+
+    /**
+     * @return Group of index level stats the ranking is computed from
+     */
+    public CommonStatsFlags.Flag flag() {
+        return flag;
+    }
+
+    /**
+     * @return True if the ranking is computed from the increase of the value between collections
+     */
+    public boolean isRate() {
+        return rate;
+    }
+
+    /**
+     * @param stats Stats of all the shards of the index
+     * @return Value the ranking is computed from, 0 if the stats group was not requested
+     */
+    public long value(CommonStats stats) {
+        switch (this) {
+            case STORE_SIZE:
+                return stats.getStore() != null ? stats.getStore().getSizeInBytes() : 0;
+            case INDEXING_RATE:
+                return stats.getIndexing() != null ? stats.getIndexing().getTotal().getIndexCount() : 0;
+            case SEARCH_RATE:
+                return stats.getSearch() != null ? stats.getSearch().getTotal().getQueryCount() : 0;
+            default:
+                throw new IllegalStateException("Unknown index ranking [" + this + "]");
+        }
+    }
+
+    /**
+     * @param rankingName Name of the ranking
+     * @return The ranking of given name
+     * @throws IllegalArgumentException If there is no such ranking
+     */
+    public static IndexRanking fromRankingName(String rankingName) {
+        String name = rankingName.trim().toLowerCase(Locale.ROOT);
+        for (IndexRanking ranking : values()) {
+            if (ranking.rankingName.equals(name)) {
+                return ranking;
+            }
+        }
+        throw new IllegalArgumentException("Unknown index ranking [" + rankingName + "], expected one of "
+                + Arrays.stream(values()).map(IndexRanking::rankingName).collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,452 @@
+/*
+ * Copyright [2016] [Vincent VAN HOLLEBEKE]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.compuscene.metrics.prometheus;
+
+import java.util.Arrays;
+
+/**
+ * Storage of all series of a single metric family registered in {@link PrometheusMetricsCatalog}.
+ * <p>
+ * Every distinct combination of label values is interned into a label tuple exactly once and assigned a slot.
+ * Sample values live in flat primitive columns indexed by the slot, hence updating value of already known series
+ * does not allocate. Lookup of the slot is done using open addressing hash table over the label tuples.
+ * <p>
+ * The "cluster" label value is the same for all series of the catalog, it is not part of the tuple. For node level
+ * families the tuple starts with the node name and node ID followed by the family specific label values.
+ * <p>
+ * Node level gauge families can be split into shards, each shard is a separate store of the same family that
+ * can be populated by different thread, see {@link #store(int)}. The family itself is always the first store.
+ * <p>
+ * This class is not thread safe, access must be guarded by the owner of the catalog.
+ */
+final class MetricFamily {
+
+    /**
+     * Supported metric types.
+     */
+    enum Type {
+        GAUGE("gauge"),
+        SUMMARY("summary");
+
+        private final String typeName;
+
+        Type(String typeName) {
+            this.typeName = typeName;
+        }
+
+        String typeName() {
+            return typeName;
+        }
+    }
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final int ordinal;
+    private final String name;
+    private final String help;
+    private final Type type;
+    // All label names including the leading "cluster" label
+    private final String[] labelNames;
+    // Number of label values provided by scope (node name and node ID for node level families)
+    private final int scopeLabels;
+    // Length of the label tuple (label names without the "cluster" label)
+    private final int tupleLength;
+
+    // Gauge families are subject to the series limits of the catalog unless excluded
+    private boolean limited;
+    // Number of series that were not stored because of the series limits, summed over population rounds
+    private long dropped = 0;
+
+    private int size = 0;
+    private String[][] tuples;
+    private int[] hashes;
+    private int[] generations;
+    // Gauge value or summary sum
+    private double[] values;
+    // Summary only columns
+    private double[] counts;
+    private double[] created;
+    // Labels of the series encoded by TextEncoder, null until the series is rendered
+    private byte[][] encodedLabels;
+
+    // Header lines and sample name prefixes encoded by TextEncoder, they never change
+    private final byte[][] encodedHeaders = new byte[TextEncoder.HEADER_VARIANTS][];
+    private final byte[][] encodedNames = new byte[TextEncoder.Suffix.values().length][];
+
+    // Open addressing hash table, holds slot + 1 (zero means empty bucket)
+    private int[] table;
+
+    // Shard stores, null if the family is not sharded
+    private MetricFamily[] shards;
+
+    MetricFamily(int ordinal, String name, String help, Type type, String[] labelNames, int scopeLabels) {
+        this.ordinal = ordinal;
+        this.name = name;
+        this.help = help;
+        this.type = type;
+        this.labelNames = labelNames;
+        this.scopeLabels = scopeLabels;
+        this.tupleLength = labelNames.length - 1;
+        this.limited = type == Type.GAUGE;
+
+        this.tuples = new String[INITIAL_CAPACITY][];
+        this.hashes = new int[INITIAL_CAPACITY];
+        this.generations = new int[INITIAL_CAPACITY];
+        this.values = new double[INITIAL_CAPACITY];
+        this.encodedLabels = new byte[INITIAL_CAPACITY][];
+        if (type == Type.SUMMARY) {
+            this.counts = new double[INITIAL_CAPACITY];
+            this.created = new double[INITIAL_CAPACITY];
+        }
+        this.table = new int[INITIAL_CAPACITY * 2];
+    }
+
+    int ordinal() {
+        return ordinal;
+    }
+
+    String name() {
+        return name;
+    }
+
+    String help() {
+        return help;
+    }
+
+    Type type() {
+        return type;
+    }
+
+    String[] labelNames() {
+        return labelNames;
+    }
+
+    /**
+     * @param variant Variant of the header, see {@link TextEncoder#HEADER_TEXT}
+     * @return Encoded header lines, null if not encoded yet
+     */
+    byte[] encodedHeader(int variant) {
+        return encodedHeaders[variant];
+    }
+
+    void encodedHeader(int variant, byte[] header) {
+        encodedHeaders[variant] = header;
+    }
+
+    /**
+     * @param suffix Ordinal of the sample name suffix
+     * @return Encoded sample name followed by the "cluster" label, null if not encoded yet
+     */
+    byte[] encodedName(int suffix) {
+        return encodedNames[suffix];
+    }
+
+    void encodedName(int suffix, byte[] name) {
+        encodedNames[suffix] = name;
+    }
+
+    /**
+     * @param slot Slot of the series
+     * @return Encoded labels of the series following the "cluster" label, null if not encoded yet
+     */
+    byte[] encodedLabels(int slot) {
+        return encodedLabels[slot];
+    }
+
+    void encodedLabels(int slot, byte[] labels) {
+        encodedLabels[slot] = labels;
+    }
+
+    /**
+     * Split the family into given number of shards.
+     * @param shardCount Number of shards
+     */
+    void createShards(int shardCount) {
+        shards = new MetricFamily[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new MetricFamily(ordinal, name, help, type, labelNames, scopeLabels);
+        }
+    }
+
+    /**
+     * @param shard Index of the shard
+     * @return Store of the shard, the family itself if it is not sharded
+     */
+    MetricFamily shard(int shard) {
+        return shards == null ? this : shards[shard];
+    }
+
+    /**
+     * @return Number of stores holding series of this family, the family itself and its shards
+     */
+    int storeCount() {
+        return shards == null ? 1 : 1 + shards.length;
+    }
+
+    /**
+     * Stores are rendered in order, the family itself first and then the shards.
+     * @param store Index of the store
+     * @return The store
+     */
+    MetricFamily store(int store) {
+        return store == 0 ? this : shards[store - 1];
+    }
+
+    /**
+     * @return Number of slots in all the stores of this family
+     */
+    int totalSize() {
+        int total = size;
+        if (shards != null) {
+            for (MetricFamily shard : shards) {
+                total += shard.size;
+            }
+        }
+        return total;
+    }
+
+    boolean isLimited() {
+        return limited;
+    }
+
+    void excludeFromLimits() {
+        limited = false;
+    }
+
+    long dropped() {
+        return dropped;
+    }
+
+    void drop() {
+        dropped++;
+    }
+
+    /**
+     * @return Number of slots, including slots of series that were not updated in the last population round
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param slot Slot of the series
+     * @return Label values of the series without the "cluster" label value
+     */
+    String[] tuple(int slot) {
+        return tuples[slot];
+    }
+
+    double value(int slot) {
+        return values[slot];
+    }
+
+    double count(int slot) {
+        return counts[slot];
+    }
+
+    double created(int slot) {
+        return created[slot];
+    }
+
+    /**
+     * Gauge series are live only if they were updated in given population round (generation).
+     * Summaries accumulate observations over the lifetime of the catalog, hence they are always live.
+     * @param slot Slot of the series
+     * @param generation Current generation of the catalog
+     * @return true if the series is meant to be exposed
+     */
+    boolean isLive(int slot, int generation) {
+        return type == Type.SUMMARY || generations[slot] == generation;
+    }
+
+    void set(int slot, double value, int generation) {
+        values[slot] = value;
+        generations[slot] = generation;
+    }
+
+    void observe(int slot, double amount, int generation) {
+        counts[slot] += 1;
+        values[slot] += amount;
+        generations[slot] = generation;
+    }
+
+    /**
+     * Find the slot of the series identified by given label values. If there is no such series yet then
+     * the label values are interned into a new tuple and new slot is allocated.
+     * @param scope0 Node name if this is node level family, ignored otherwise
+     * @param scope1 Node ID if this is node level family, ignored otherwise
+     * @param labelValues Family specific label values
+     * @return Slot of the series
+     */
+    int slot(String scope0, String scope1, String[] labelValues) {
+        return slot(scope0, scope1, labelValues, true);
+    }
+
+    /**
+     * Find the slot of the series identified by given label values.
+     * @param scope0 Node name if this is node level family, ignored otherwise
+     * @param scope1 Node ID if this is node level family, ignored otherwise
+     * @param labelValues Family specific label values
+     * @return Slot of the series, -1 if there is no such series
+     */
+    int find(String scope0, String scope1, String[] labelValues) {
+        return slot(scope0, scope1, labelValues, false);
+    }
+
+    private int slot(String scope0, String scope1, String[] labelValues, boolean create) {
+        if (scopeLabels + labelValues.length != tupleLength) {
+            throw new IllegalArgumentException("Incorrect number of labels for metric " + name);
+        }
+        int hash = hash(scope0, scope1, labelValues);
+        int mask = table.length - 1;
+        for (int bucket = mix(hash) & mask; ; bucket = (bucket + 1) & mask) {
+            int entry = table[bucket];
+            if (entry == 0) {
+                return create ? add(bucket, hash, scope0, scope1, labelValues) : -1;
+            }
+            int slot = entry - 1;
+            if (hashes[slot] == hash && matches(tuples[slot], scope0, scope1, labelValues)) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * Drop all gauge series that were not updated in given generation. The remaining series keep their tuples
+     * but they can be moved to different slots. This does not allocate.
+     * <p>
+     * At most given number of series is kept, the series stored first are kept (if the limit was lowered).
+     * @param liveGeneration The last generation that populated the catalog
+     * @param maxSeries Maximum number of series to keep
+     * @return Number of dropped series
+     */
+    int compact(int liveGeneration, int maxSeries) {
+        if (type == Type.SUMMARY) {
+            return 0;
+        }
+        int live = 0;
+        for (int slot = 0; slot < size; slot++) {
+            if (generations[slot] == liveGeneration && live < maxSeries) {
+                if (live != slot) {
+                    tuples[live] = tuples[slot];
+                    hashes[live] = hashes[slot];
+                    generations[live] = generations[slot];
+                    values[live] = values[slot];
+                    encodedLabels[live] = encodedLabels[slot];
+                }
+                live++;
+            }
+        }
+        int dropped = size - live;
+        if (dropped > 0) {
+            Arrays.fill(tuples, live, size, null);
+            Arrays.fill(encodedLabels, live, size, null);
+            size = live;
+            rehash(table.length);
+        }
+        return dropped;
+    }
+
+    private int add(int bucket, int hash, String scope0, String scope1, String[] labelValues) {
+        if (size == tuples.length) {
+            grow();
+        }
+        String[] tuple = new String[tupleLength];
+        if (scopeLabels > 0) {
+            tuple[0] = scope0;
+            tuple[1] = scope1;
+        }
+        System.arraycopy(labelValues, 0, tuple, scopeLabels, labelValues.length);
+
+        int slot = size++;
+        tuples[slot] = tuple;
+        hashes[slot] = hash;
+        values[slot] = 0;
+        encodedLabels[slot] = null;
+        if (type == Type.SUMMARY) {
+            counts[slot] = 0;
+            created[slot] = System.currentTimeMillis() / 1000.0;
+        }
+        table[bucket] = slot + 1;
+        // keep the load factor of the hash table at most 0.5
+        if (size * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return slot;
+    }
+
+    private void grow() {
+        int capacity = tuples.length * 2;
+        tuples = Arrays.copyOf(tuples, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        generations = Arrays.copyOf(generations, capacity);
+        values = Arrays.copyOf(values, capacity);
+        encodedLabels = Arrays.copyOf(encodedLabels, capacity);
+        if (type == Type.SUMMARY) {
+            counts = Arrays.copyOf(counts, capacity);
+            created = Arrays.copyOf(created, capacity);
+        }
+    }
+
+    private void rehash(int tableLength) {
+        if (tableLength == table.length) {
+            Arrays.fill(table, 0);
+        } else {
+            table = new int[tableLength];
+        }
+        int mask = table.length - 1;
+        for (int slot = 0; slot < size; slot++) {
+            int bucket = mix(hashes[slot]) & mask;
+            while (table[bucket] != 0) {
+                bucket = (bucket + 1) & mask;
+            }
+            table[bucket] = slot + 1;
+        }
+    }
+
+    private int hash(String scope0, String scope1, String[] labelValues) {
+        int hash = 1;
+        if (scopeLabels > 0) {
+            hash = 31 * hash + scope0.hashCode();
+            hash = 31 * hash + scope1.hashCode();
+        }
+        for (String value : labelValues) {
+            if (value == null) {
+                throw new IllegalArgumentException("Label cannot be null for metric " + name);
+            }
+            hash = 31 * hash + value.hashCode();
+        }
+        return hash;
+    }
+
+    private boolean matches(String[] tuple, String scope0, String scope1, String[] labelValues) {
+        if (scopeLabels > 0 && (!scope0.equals(tuple[0]) || !scope1.equals(tuple[1]))) {
+            return false;
+        }
+        for (int i = 0; i < labelValues.length; i++) {
+            if (!labelValues[i].equals(tuple[scopeLabels + i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
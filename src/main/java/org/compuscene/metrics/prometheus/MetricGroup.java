@@ -0,0 +1,162 @@
+/*
+ * Copyright [2016] [Vincent VAN HOLLEBEKE]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.compuscene.metrics.prometheus;
+
+import org.opensearch.action.admin.cluster.node.stats.NodesStatsRequest;
+import org.opensearch.action.admin.indices.stats.CommonStatsFlags;
+import org.opensearch.common.Nullable;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * Groups of node level metrics that can be exported, see {@link PrometheusSettings#PROMETHEUS_METRIC_GROUPS}.
+ * <p>
+ * Every group maps to a section of the nodes stats response. Only the sections of enabled groups are requested
+ * from the nodes, hence the nodes do not compute and serialize stats that are not exported.
+ */
+public enum MetricGroup {
+
+    /**
+     * Indices stats aggregated per node, see {@link #nodeIndicesStatsFlags()}.
+     */
+    INDICES("indices", "indices_", null),
+
+    /**
+     * Transport stats.
+     */
+    TRANSPORT("transport", "transport_", NodesStatsRequest.Metric.TRANSPORT),
+
+    /**
+     * HTTP stats.
+     */
+    HTTP("http", "http_", NodesStatsRequest.Metric.HTTP),
+
+    /**
+     * Thread pools stats.
+     */
+    THREAD_POOL("thread_pool", "threadpool_", NodesStatsRequest.Metric.THREAD_POOL),
+
+    /**
+     * Ingest pipelines stats.
+     */
+    INGEST("ingest", "ingest_", NodesStatsRequest.Metric.INGEST),
+
+    /**
+     * Circuit breakers stats.
+     */
+    BREAKER("breaker", "circuitbreaker_", NodesStatsRequest.Metric.BREAKER),
+
+    /**
+     * Scripts stats.
+     */
+    SCRIPT("script", "script_", NodesStatsRequest.Metric.SCRIPT),
+
+    /**
+     * Process stats.
+     */
+    PROCESS("process", "process_", NodesStatsRequest.Metric.PROCESS),
+
+    /**
+     * JVM stats.
+     */
+    JVM("jvm", "jvm_", NodesStatsRequest.Metric.JVM),
+
+    /**
+     * Operating system stats.
+     */
+    OS("os", "os_", NodesStatsRequest.Metric.OS),
+
+    /**
+     * File system stats.
+     */
+    FS("fs", "fs_", NodesStatsRequest.Metric.FS);
+
+    private final String groupName;
+    private final String metricNamePrefix;
+    private final NodesStatsRequest.Metric nodesStatsMetric;
+
+    MetricGroup(String groupName, String metricNamePrefix, @Nullable NodesStatsRequest.Metric nodesStatsMetric) {
+        this.groupName = groupName;
+        this.metricNamePrefix = metricNamePrefix;
+        this.nodesStatsMetric = nodesStatsMetric;
+    }
+
+    /**
+     * @return Name of the group used in the settings
+     */
+    public String groupName() {
+        return groupName;
+    }
+
+    /**
+     * @return Common prefix of the names of metrics in this group (without the metric prefix of the catalog)
+     */
+    public String metricNamePrefix() {
+        return metricNamePrefix;
+    }
+
+    /**
+     * @return Nodes stats metric holding stats of this group, null for {@link #INDICES} which is requested
+     * using {@link #nodeIndicesStatsFlags()}
+     */
+    @Nullable
+    public NodesStatsRequest.Metric nodesStatsMetric() {
+        return nodesStatsMetric;
+    }
+
+    /**
+     * Flags of the indices stats aggregated per node that are exported by the {@link #INDICES} group.
+     * Other (possibly expensive) indices stats are not requested.
+     * @return New instance of the flags
+     */
+    public static CommonStatsFlags nodeIndicesStatsFlags() {
+        return new CommonStatsFlags(
+                CommonStatsFlags.Flag.Docs,
+                CommonStatsFlags.Flag.Store,
+                CommonStatsFlags.Flag.Indexing,
+                CommonStatsFlags.Flag.Get,
+                CommonStatsFlags.Flag.Search,
+                CommonStatsFlags.Flag.Merge,
+                CommonStatsFlags.Flag.Refresh,
+                CommonStatsFlags.Flag.Flush,
+                CommonStatsFlags.Flag.QueryCache,
+                CommonStatsFlags.Flag.FieldData,
+                CommonStatsFlags.Flag.Completion,
+                CommonStatsFlags.Flag.Segments,
+                CommonStatsFlags.Flag.RequestCache,
+                CommonStatsFlags.Flag.Recovery);
+    }
+
+    /**
+     * @param groupName Name of the group
+     * @return The group of given name
+     * @throws IllegalArgumentException If there is no such group
+     */
+    public static MetricGroup fromGroupName(String groupName) {
+        String name = groupName.trim().toLowerCase(Locale.ROOT);
+        for (MetricGroup group : values()) {
+            if (group.groupName.equals(name)) {
+                return group;
+            }
+        }
+        throw new IllegalArgumentException("Unknown metric group [" + groupName + "], expected one of "
+                + Arrays.stream(values()).map(MetricGroup::groupName).collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright [2016] [Vincent VAN HOLLEBEKE]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.compuscene.metrics.prometheus;
+
+import org.opensearch.common.regex.Regex;
+import org.opensearch.core.common.io.stream.StreamInput;
+import org.opensearch.core.common.io.stream.StreamOutput;
+import org.opensearch.core.common.io.stream.Writeable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Sections of metrics selected by a single request for metrics (see "include" and "exclude" request parameters).
+ * <p>
+ * A section is either a group of node level metrics (see {@link MetricGroup}) or one of {@link #CLUSTER},
+ * {@link #INDEX} and {@link #CLUSTER_SETTINGS}. Sections which are not selected are neither requested from
+ * the cluster nor registered and updated in the catalog. Metrics of the exporter itself are always exposed.
+ * <p>
+ * Sections are also grouped into scopes: {@link #SCOPE_CLUSTER}, {@link #SCOPE_NODE} and {@link #SCOPE_INDICES},
+ * see {@link #ofScope(String)}.
+ */
+public final class MetricSelection implements Writeable {
+
+    /**
+     * Cluster health metrics.
+     */
+    public static final String CLUSTER = "cluster";
+
+    /**
+     * Index level metrics, see {@link PrometheusSettings#PROMETHEUS_INDICES}.
+     */
+    public static final String INDEX = "index";
+
+    /**
+     * Cluster settings metrics, see {@link PrometheusSettings#PROMETHEUS_CLUSTER_SETTINGS}.
+     */
+    public static final String CLUSTER_SETTINGS = "cluster_settings";
+
+    /**
+     * Scope of cluster wide metrics: cluster health and cluster settings.
+     */
+    public static final String SCOPE_CLUSTER = "cluster";
+
+    /**
+     * Scope of node level metrics: all the groups of node level metrics.
+     */
+    public static final String SCOPE_NODE = "node";
+
+    /**
+     * Scope of index level metrics.
+     */
+    public static final String SCOPE_INDICES = "indices";
+
+    /**
+     * Selection of all the sections.
+     */
+    public static final MetricSelection ALL = new MetricSelection(sectionNames());
+
+    private final Set<String> sections;
+
+    private MetricSelection(Set<String> sections) {
+        this.sections = Collections.unmodifiableSet(sections);
+    }
+
+    /**
+     * A constructor that utilizes the inputStream.
+     * @param in inputStream
+     * @throws IOException if there is an exception reading from inputStream
+     */
+    public MetricSelection(StreamInput in) throws IOException {
+        this(new TreeSet<>(in.readStringList()));
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeStringCollection(sections);
+    }
+
+    /**
+     * @return Names of all the sections
+     */
+    public static Set<String> sectionNames() {
+        Set<String> names = new TreeSet<>();
+        names.add(CLUSTER);
+        names.add(INDEX);
+        names.add(CLUSTER_SETTINGS);
+        for (MetricGroup group : MetricGroup.values()) {
+            names.add(group.groupName());
+        }
+        return names;
+    }
+
+    /**
+     * @param section Name of the section
+     * @return Common prefix of the names of metrics in the section (without the metric prefix of the catalog)
+     */
+    static String metricNamePrefix(String section) {
+        switch (section) {
+            case CLUSTER:
+                return "cluster_";
+            case INDEX:
+                return "index_";
+            case CLUSTER_SETTINGS:
+                return "cluster_routing_";
+            default:
+                return MetricGroup.fromGroupName(section).metricNamePrefix();
+        }
+    }
+
+    /**
+     * Select sections matching any of the include patterns and none of the exclude patterns.
+     * The patterns are section names which can contain "*" wildcards. A pattern also selects the sections whose
+     * metric name prefix it matches, e.g. "index_*" selects the {@link #INDEX} section.
+     * @param include Patterns of the included sections, all the sections are included if empty
+     * @param exclude Patterns of the excluded sections
+     * @return The selection
+     * @throws IllegalArgumentException If any pattern does not match any section
+     */
+    public static MetricSelection of(String[] include, String[] exclude) {
+        Set<String> sections = include.length == 0 ? sectionNames() : matching("include", include);
+        sections.removeAll(matching("exclude", exclude));
+        return new MetricSelection(sections);
+    }
+
+    /**
+     * Select all the sections of given scope.
+     * @param scope Name of the scope
+     * @return The selection
+     * @throws IllegalArgumentException If there is no such scope
+     */
+    public static MetricSelection ofScope(String scope) {
+        Set<String> sections = new TreeSet<>();
+        switch (scope) {
+            case SCOPE_CLUSTER:
+                sections.add(CLUSTER);
+                sections.add(CLUSTER_SETTINGS);
+                break;
+            case SCOPE_NODE:
+                for (MetricGroup group : MetricGroup.values()) {
+                    sections.add(group.groupName());
+                }
+                break;
+            case SCOPE_INDICES:
+                sections.add(INDEX);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown metrics scope [" + scope + "], expected one of ["
+                        + SCOPE_CLUSTER + ", " + SCOPE_NODE + ", " + SCOPE_INDICES + "]");
+        }
+        return new MetricSelection(sections);
+    }
+
+    /**
+     * @param other Another selection
+     * @return Selection of the sections selected by both this and the other selection
+     */
+    public MetricSelection intersect(MetricSelection other) {
+        Set<String> sections = new TreeSet<>(this.sections);
+        sections.retainAll(other.sections);
+        return new MetricSelection(sections);
+    }
+
+    private static Set<String> matching(String parameter, String[] patterns) {
+        Set<String> names = sectionNames();
+        Set<String> matching = new TreeSet<>();
+        for (String pattern : patterns) {
+            List<String> matched = new ArrayList<>();
+            for (String name : names) {
+                if (Regex.simpleMatch(pattern.trim(), name) || Regex.simpleMatch(pattern.trim(), metricNamePrefix(name))) {
+                    matched.add(name);
+                }
+            }
+            if (matched.isEmpty()) {
+                throw new IllegalArgumentException("No metric section matches [" + pattern + "] of [" + parameter
+                        + "] parameter, expected one of " + names);
+            }
+            matching.addAll(matched);
+        }
+        return matching;
+    }
+
+    /**
+     * @return True if all the sections are selected
+     */
+    public boolean isAll() {
+        return sections.size() == ALL.sections.size();
+    }
+
+    /**
+     * @param section Name of the section
+     * @return True if the section is selected
+     */
+    public boolean includes(String section) {
+        return sections.contains(section);
+    }
+
+    /**
+     * @return True if any group of node level metrics is selected
+     */
+    public boolean includesNodeGroups() {
+        for (MetricGroup group : MetricGroup.values()) {
+            if (sections.contains(group.groupName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param groups Groups of node level metrics enabled by the settings
+     * @return New set of the enabled groups which are selected
+     */
+    public Set<MetricGroup> nodeGroups(Set<MetricGroup> groups) {
+        Set<MetricGroup> selected = EnumSet.noneOf(MetricGroup.class);
+        for (MetricGroup group : groups) {
+            if (sections.contains(group.groupName())) {
+                selected.add(group);
+            }
+        }
+        return selected;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        return sections.equals(((MetricSelection) o).sections);
+    }
+
+    @Override
+    public int hashCode() {
+        return sections.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return sections.toString();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright [2016] [Vincent VAN HOLLEBEKE]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.compuscene.metrics.prometheus;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs independent tasks over the catalog in parallel and waits for all of them.
+ * <p>
+ * The first task is run by the calling thread, the others are submitted to a bounded executor
+ * (or run by the calling thread too if the executor rejects them). The calling thread always waits
+ * for all the tasks, hence the catalog is not touched by any worker once {@link #runAll} returns.
+ */
+final class ParallelTasks {
+
+    /**
+     * A task that can fail with checked exception.
+     * @param <E> Type of the checked exception
+     */
+    @FunctionalInterface
+    interface Task<E extends Exception> {
+        void run() throws E;
+    }
+
+    private ParallelTasks() {
+    }
+
+    /**
+     * Run given tasks and wait for all of them.
+     * @param executor Executor running the tasks except the first one
+     * @param tasks Tasks to run
+     * @param <E> Type of the checked exception thrown by the tasks
+     * @throws E The first failure of any of the tasks, rethrown once all the tasks are done
+     */
+    @SuppressWarnings("unchecked")
+    static <E extends Exception> void runAll(Executor executor, List<? extends Task<E>> tasks) throws E {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        CountDownLatch done = new CountDownLatch(tasks.size() - 1);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        for (int i = 1; i < tasks.size(); i++) {
+            Task<E> task = tasks.get(i);
+            Runnable runnable = () -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    done.countDown();
+                }
+            };
+            try {
+                executor.execute(runnable);
+            } catch (RejectedExecutionException e) {
+                runnable.run();
+            }
+        }
+        try {
+            tasks.get(0).run();
+        } catch (Exception e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            // Wait even if interrupted, the caller owns the catalog again once this method returns.
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Exception e = failure.get();
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e != null) {
+            throw (E) e;
+        }
+    }
+}
@@ -19,42 +19,104 @@ package org.compuscene.metrics.prometheus;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.opensearch.common.Nullable;
 import org.opensearch.common.collect.Tuple;
 import org.opensearch.rest.prometheus.RestPrometheusMetricsAction;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.StringWriter;
-import java.io.Writer;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.regex.Pattern;
 
-import io.prometheus.client.CollectorRegistry;
-import io.prometheus.client.Gauge;
-import io.prometheus.client.Summary;
 import io.prometheus.client.exporter.common.TextFormat;
 
 /**
  * A class that describes a Prometheus metrics catalog.
+ * <p>
+ * The catalog is a specialized metric store. Every registered metric family gets an ordinal (its position
+ * in the catalog) and keeps its series in flat primitive columns, see {@link MetricFamily}. Setting a value
+ * of already known series does not allocate and does not box anything. Rendering iterates the columns directly.
+ * <p>
+ * The catalog is populated in rounds (generations), see {@link #clearGauges()}. Only gauge series updated
+ * in the current round are exposed.
+ * <p>
+ * The number of stored gauge series can be limited, see {@link #setSeriesLimits(int, int)}. Series exceeding
+ * the limits are dropped when their value is set and counted per metric family.
  */
 public class PrometheusMetricsCatalog {
     private static final Logger logger = LogManager.getLogger(RestPrometheusMetricsAction.class);
 
-    private String clusterName;
-    private String metricPrefix;
+    private static final Pattern METRIC_NAME_RE = Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*");
 
-    private HashMap<String, Object> metrics;
-    private CollectorRegistry registry;
+    // Rendering in parallel pays off only for large catalogs
+    static final int DEFAULT_PARALLEL_RENDER_THRESHOLD = 20_000;
+    private static final int MAX_CHUNK_CAPACITY = 64 * 1024 * 1024;
+
+    private final String clusterName;
+    private final String metricPrefix;
+
+    private final HashMap<String, MetricFamily> metrics;
+    // Metric families indexed by ordinal, this is also the order in which they are rendered
+    private final List<MetricFamily> families;
+    // Summary families sorted by the name of their _created samples, the order in which the 0.0.4 text format lists them
+    private final List<MetricFamily> summaries;
+
+    private int generation = 0;
+
+    private final Shard[] shards;
+
+    // Average number of bytes of encoded series per exposition format, used to pre-size the rendered chunks
+    private final int[] sampleBytes = new int[ExpositionFormat.values().length];
+    // Minimal number of live series to render the catalog in parallel
+    private int parallelRenderThreshold = DEFAULT_PARALLEL_RENDER_THRESHOLD;
+
+    // Series limits (0 means no limit) and the number of stored series of limited families
+    private int seriesLimit = 0;
+    private int familySeriesLimit = 0;
+    private int limitedSeries = 0;
 
     /**
      *
-     * @param clusterName   ame of the OpenSearch cluster
+     * @param clusterName   Name of the OpenSearch cluster
      * @param metricPrefix  A value that is automatically used as a prefix for all registered and set metrics
      */
     public PrometheusMetricsCatalog(String clusterName, String metricPrefix) {
+        this(clusterName, metricPrefix, 1);
+    }
+
+    /**
+     *
+     * @param clusterName   Name of the OpenSearch cluster
+     * @param metricPrefix  A value that is automatically used as a prefix for all registered and set metrics
+     * @param shardCount    Number of shards of the node level gauges, see {@link #shard(int)}
+     */
+    public PrometheusMetricsCatalog(String clusterName, String metricPrefix, int shardCount) {
         this.clusterName = clusterName;
         this.metricPrefix = metricPrefix;
         metrics = new HashMap<>();
-        registry = new CollectorRegistry();
+        families = new ArrayList<>();
+        summaries = new ArrayList<>();
+        Arrays.fill(sampleBytes, 128);
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i);
+        }
+    }
+
+    /**
+     * Set the minimal number of live series to render the catalog in parallel,
+     * see {@link #write(ExpositionFormat, OutputStream, Executor)}.
+     * @param parallelRenderThreshold Number of series
+     */
+    void setParallelRenderThreshold(int parallelRenderThreshold) {
+        this.parallelRenderThreshold = parallelRenderThreshold;
     }
 
     private String[] getExtendedClusterLabelNames(String... labelNames) {
@@ -66,15 +128,6 @@ public class PrometheusMetricsCatalog {
         return extended;
     }
 
-    private String[] getExtendedClusterLabelValues(String... labelValues) {
-        String[] extended = new String[labelValues.length + 1];
-        extended[0] = clusterName;
-
-        System.arraycopy(labelValues, 0, extended, 1, labelValues.length);
-
-        return extended;
-    }
-
     private String[] getExtendedNodeLabelNames(String... labelNames) {
         String[] extended = new String[labelNames.length + 3];
         extended[0] = "cluster";
@@ -86,22 +139,43 @@ public class PrometheusMetricsCatalog {
         return extended;
     }
 
-    /**
-     * @param nodeInfo      A {@link Tuple} holding [nodeName, nodeID]
-     * @param labelValues   Prometheus label values
-     * @return Prometheus label values extended with cluster and specific node context
-     */
-    private String[] getExtendedNodeLabelValues(
-            Tuple<String, String> nodeInfo,
-            String... labelValues) {
-        String[] extended = new String[labelValues.length + 3];
-        extended[0] = clusterName;
-        extended[1] = nodeInfo.v1();
-        extended[2] = nodeInfo.v2();
+    private MetricFamily register(String metric, String help, MetricFamily.Type type,
+                                  String[] labelNames, int scopeLabels) {
+        return register(metric, help, type, labelNames, scopeLabels, false);
+    }
 
-        System.arraycopy(labelValues, 0, extended, 3, labelValues.length);
+    private MetricFamily register(String metric, String help, MetricFamily.Type type,
+                                  String[] labelNames, int scopeLabels, boolean sharded) {
+        String name = metricPrefix + metric;
+        if (!METRIC_NAME_RE.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid metric name: " + name);
+        }
+        if (metrics.containsKey(metric)) {
+            throw new IllegalArgumentException("Metric already registered: " + name);
+        }
+        MetricFamily family = new MetricFamily(families.size(), name, help, type, labelNames, scopeLabels);
+        if (sharded && shards.length > 1) {
+            family.createShards(shards.length);
+        }
+        families.add(family);
+        metrics.put(metric, family);
+        if (type == MetricFamily.Type.SUMMARY) {
+            summaries.add(family);
+            summaries.sort(Comparator.comparing(summary -> summary.name() + "_created"));
+        }
+        return family;
+    }
 
-        return extended;
+    /**
+     * @param metric Metric name without the metric prefix
+     * @return The registered metric family
+     */
+    MetricFamily family(String metric) {
+        MetricFamily family = metrics.get(metric);
+        if (family == null) {
+            throw new IllegalArgumentException("Metric not registered: " + metric);
+        }
+        return family;
     }
 
     /**
@@ -132,13 +206,7 @@ public class PrometheusMetricsCatalog {
      * @param labels Optional set of labels
      */
     public void registerClusterGauge(String metric, String help, String... labels) {
-        Gauge gauge = Gauge.build().
-                name(metricPrefix + metric).
-                help(help).
-                labelNames(getExtendedClusterLabelNames(labels)).
-                register(registry);
-
-        metrics.put(metric, gauge);
+        register(metric, help, MetricFamily.Type.GAUGE, getExtendedClusterLabelNames(labels), 0);
 
         logger.debug(String.format(Locale.ENGLISH, "Registered new cluster gauge %s", metric));
     }
@@ -151,8 +219,8 @@ public class PrometheusMetricsCatalog {
      * @param labelValues Optional set of label values
      */
     public void setClusterGauge(String metric, double value, String... labelValues) {
-        Gauge gauge = (Gauge) metrics.get(metric);
-        gauge.labels(getExtendedClusterLabelValues(labelValues)).set(value);
+        MetricFamily family = family(metric);
+        setGauge(family, family, null, null, labelValues, value);
     }
 
     /**
@@ -183,13 +251,7 @@ public class PrometheusMetricsCatalog {
      * @param labels Optional set of labels
      */
     public void registerNodeGauge(String metric, String help, String... labels) {
-        Gauge gauge = Gauge.build().
-                name(metricPrefix + metric).
-                help(help).
-                labelNames(getExtendedNodeLabelNames(labels)).
-                register(registry);
-
-        metrics.put(metric, gauge);
+        register(metric, help, MetricFamily.Type.GAUGE, getExtendedNodeLabelNames(labels), 2, true);
 
         logger.debug(String.format(Locale.ENGLISH, "Registered new node gauge %s", metric));
     }
@@ -205,52 +267,441 @@ public class PrometheusMetricsCatalog {
     public void setNodeGauge(Tuple<String, String> nodeInfo,
                              String metric, double value,
                              String... labelValues) {
-        Gauge gauge = (Gauge) metrics.get(metric);
-        gauge.labels(getExtendedNodeLabelValues(nodeInfo, labelValues)).set(value);
+        MetricFamily family = family(metric);
+        setGauge(family, family, nodeInfo.v1(), nodeInfo.v2(), labelValues, value);
+    }
+
+    // Series stored in the previous round keep their slot, new series get a slot only if it fits the limits.
+    // Hence the series kept under the limits are stable across rounds and do not depend on the order they are set.
+    private void setGauge(MetricFamily family, MetricFamily store, String scope0, String scope1, String[] labelValues,
+                          double value) {
+        if (family.isLimited() && hasSeriesLimits()) {
+            int slot = store.find(scope0, scope1, labelValues);
+            if (slot < 0) {
+                if ((familySeriesLimit > 0 && family.totalSize() >= familySeriesLimit)
+                        || (seriesLimit > 0 && limitedSeries >= seriesLimit)) {
+                    family.drop();
+                    return;
+                }
+                slot = store.slot(scope0, scope1, labelValues);
+                limitedSeries++;
+            }
+            store.set(slot, value, generation);
+        } else {
+            store.set(store.slot(scope0, scope1, labelValues), value, generation);
+        }
+    }
+
+    /**
+     * Limit the number of gauge series stored in the catalog. The limits apply from the next population round,
+     * series stored over the lowered limits are dropped by {@link #clearGauges()}.
+     * @param seriesLimit Maximum number of series of all the limited families, 0 means no limit
+     * @param familySeriesLimit Maximum number of series of each limited family, 0 means no limit
+     */
+    public void setSeriesLimits(int seriesLimit, int familySeriesLimit) {
+        this.seriesLimit = seriesLimit;
+        this.familySeriesLimit = familySeriesLimit;
+    }
+
+    /**
+     * @return true if any of the series limits is set
+     */
+    public boolean hasSeriesLimits() {
+        return seriesLimit > 0 || familySeriesLimit > 0;
+    }
+
+    /**
+     * @return Number of shards of the node level gauges
+     */
+    public int shardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @param nodeId Node ID
+     * @return Index of the shard holding node level gauges of given node, it does not change for given node
+     */
+    public int shardOf(String nodeId) {
+        return Math.floorMod(nodeId.hashCode(), shards.length);
+    }
+
+    /**
+     * Get a shard of the node level gauges. Different shards can be populated by different threads at the same time,
+     * as long as nothing else accesses the catalog meanwhile and the series limits are not set.
+     * @param shard Index of the shard
+     * @return The shard
+     */
+    public Shard shard(int shard) {
+        return shards[shard];
+    }
+
+    /**
+     * Exclude a gauge from the series limits (for example metrics reporting the state of the catalog itself).
+     * @param metric Metric name without the metric prefix
+     */
+    public void excludeFromSeriesLimits(String metric) {
+        family(metric).excludeFromLimits();
+    }
+
+    /**
+     * Starts a new population round of the catalog. Registered metric families are kept so that
+     * the catalog can be reused and populated again, only the gauge series set after this call are exposed.
+     * Summaries are not cleared because they accumulate observations across the lifetime of the catalog.
+     * <p>
+     * This is called before the catalog is populated with fresh values so that series of departed nodes
+     * or deleted indices are not exposed anymore. Series which were not updated in the previous round are
+     * dropped from the store, series that are updated in every round keep their slot and do not allocate.
+     */
+    public void clearGauges() {
+        int dropped = 0;
+        int remaining = seriesLimit > 0 ? seriesLimit : Integer.MAX_VALUE;
+        limitedSeries = 0;
+        for (MetricFamily family : families) {
+            int maxSeries = Integer.MAX_VALUE;
+            if (family.isLimited()) {
+                maxSeries = Math.min(familySeriesLimit > 0 ? familySeriesLimit : Integer.MAX_VALUE, remaining);
+            }
+            for (int s = 0; s < family.storeCount(); s++) {
+                MetricFamily store = family.store(s);
+                dropped += store.compact(generation, maxSeries);
+                if (family.isLimited()) {
+                    maxSeries -= store.size();
+                    remaining -= store.size();
+                    limitedSeries += store.size();
+                }
+            }
+        }
+        generation++;
+        if (dropped > 0 && logger.isTraceEnabled()) {
+            logger.trace("Dropped [{}] stale series from the catalog", dropped);
+        }
     }
 
     /**
      * Registers a new summary metric.
-     * @see Summary
+     * The summary exposes count and sum of all observations (quantiles are not computed).
      * @param metric Metric name
      * @param help Help text for the metric
      * @param labels Optional set of labels
      */
     public void registerSummaryTimer(String metric, String help, String... labels) {
-        Summary summary = Summary.build().
-                name(metricPrefix + metric).
-                help(help).
-                labelNames(getExtendedNodeLabelNames(labels)).
-                register(registry);
-
-        metrics.put(metric, summary);
+        register(metric, help, MetricFamily.Type.SUMMARY, getExtendedNodeLabelNames(labels), 2);
 
         logger.debug(String.format(Locale.ENGLISH, "Registered new summary %s", metric));
     }
 
     /**
-     * Start specific summary metric.
-     * @see Summary
+     * Registers a new summary metric of observed amounts other than durations (for example sizes in bytes).
+     * @see #registerSummaryTimer(String, String, String...)
+     * @param metric Metric name
+     * @param help Help text for the metric
+     * @param labels Optional set of labels
+     */
+    public void registerSummary(String metric, String help, String... labels) {
+        registerSummaryTimer(metric, help, labels);
+    }
+
+    /**
+     * Record a new observation of specific summary metric.
+     * @param nodeInfo A {@link Tuple} holding [nodeName, nodeID]
+     * @param metric Metric name
+     * @param seconds Observed duration in seconds
+     * @param labelValues Optional set of label values
+     */
+    public void observeSummaryTimer(Tuple<String, String> nodeInfo, String metric, double seconds,
+                                    String... labelValues) {
+        observeSummary(nodeInfo, metric, seconds, labelValues);
+    }
+
+    /**
+     * Record a new observation of specific summary metric.
      * @param nodeInfo A {@link Tuple} holding [nodeName, nodeID]
      * @param metric Metric name
+     * @param amount Observed amount
      * @param labelValues Optional set of label values
-     * @return Summary timer
      */
-    public Summary.Timer startSummaryTimer(Tuple<String, String> nodeInfo, String metric,
-                                           String... labelValues) {
-        Summary summary = (Summary) metrics.get(metric);
-        return summary.labels(getExtendedNodeLabelValues(nodeInfo, labelValues)).startTimer();
+    public void observeSummary(Tuple<String, String> nodeInfo, String metric, double amount,
+                               String... labelValues) {
+        MetricFamily family = family(metric);
+        family.observe(family.slot(nodeInfo.v1(), nodeInfo.v2(), labelValues), amount, generation);
+    }
+
+    /**
+     * Set a value of node gauge labeled by "family" to the number of series of every metric family that
+     * are exposed in the current population round. The gauge itself is not counted.
+     * @param nodeInfo A {@link Tuple} holding [nodeName, nodeID]
+     * @param metric Name of node gauge metric with single "family" label
+     */
+    public void setSeriesCounts(Tuple<String, String> nodeInfo, String metric) {
+        MetricFamily target = family(metric);
+        int[] counts = new int[families.size()];
+        for (MetricFamily family : families) {
+            counts[family.ordinal()] = liveSeries(family);
+        }
+        for (MetricFamily family : families) {
+            if (family != target) {
+                setNodeGauge(nodeInfo, metric, counts[family.ordinal()], family.name());
+            }
+        }
+    }
+
+    /**
+     * Set a value of node gauge labeled by "family" to the number of series dropped because of the series limits,
+     * summed over all population rounds. Only families that dropped any series are reported.
+     * @param nodeInfo A {@link Tuple} holding [nodeName, nodeID]
+     * @param metric Name of node gauge metric with single "family" label
+     */
+    public void setDroppedSeriesCounts(Tuple<String, String> nodeInfo, String metric) {
+        for (MetricFamily family : families) {
+            if (family.dropped() > 0) {
+                setNodeGauge(nodeInfo, metric, family.dropped(), family.name());
+            }
+        }
+    }
+
+    /**
+     * Writes all the metrics from the catalog in given exposition format into given output stream.
+     * <p>
+     * The metrics are encoded straight into the stream (typically a recycled buffer obtained from the REST channel),
+     * no intermediate representation of the whole payload is created.
+     * @param format Exposition format
+     * @param out Output stream to write the metrics into
+     * @throws IOException If writing the metrics goes wrong
+     */
+    public void write(ExpositionFormat format, OutputStream out) throws IOException {
+        switch (format) {
+            case OPENMETRICS_100:
+                writeOpenMetricsFormat(out);
+                break;
+            case PROTOBUF_DELIMITED:
+                writeProtobufFormat(out);
+                break;
+            default:
+                writeTextFormat(out);
+        }
+    }
+
+    /**
+     * Writes all the metrics from the catalog in given exposition format into given output stream,
+     * large catalogs are rendered in parallel.
+     * <p>
+     * The metric families are split into contiguous chunks of similar number of series (one chunk per shard,
+     * see {@link #shardCount()}). The first chunk is encoded by the calling thread straight into the stream,
+     * the other chunks are encoded concurrently into separate pre-sized buffers which are copied into the stream
+     * in catalog order and released one by one. The output is identical to {@link #write(ExpositionFormat, OutputStream)}.
+     * Nothing else may access the catalog meanwhile.
+     * @param format Exposition format
+     * @param out Output stream to write the metrics into
+     * @param executor Executor encoding the chunks, it must be able to run {@code shardCount() - 1} tasks concurrently.
+     *                 If null, the catalog is rendered by the calling thread.
+     * @throws IOException If writing the metrics goes wrong
+     */
+    public void write(ExpositionFormat format, OutputStream out, @Nullable Executor executor) throws IOException {
+        int[] liveSeries = new int[families.size()];
+        int totalSeries = 0;
+        for (MetricFamily family : families) {
+            liveSeries[family.ordinal()] = liveSeries(family);
+            totalSeries += liveSeries[family.ordinal()];
+        }
+        if (executor == null || shards.length == 1 || totalSeries < parallelRenderThreshold) {
+            write(format, out);
+            return;
+        }
+
+        // Cut the families into chunks once the running number of series reaches the next multiple of the target.
+        int target = (totalSeries + shards.length - 1) / shards.length;
+        List<ChunkTask> chunks = new ArrayList<>(shards.length);
+        int from = 0;
+        int series = 0;
+        int chunkSeries = 0;
+        for (int i = 0; i < families.size(); i++) {
+            series += liveSeries[i];
+            chunkSeries += liveSeries[i];
+            if (series >= target * (chunks.size() + 1) || i == families.size() - 1) {
+                // The first chunk is encoded by the calling thread, it does not need its own buffer.
+                chunks.add(new ChunkTask(format, from, i + 1, chunkSeries, chunks.isEmpty() ? out : null));
+                from = i + 1;
+                chunkSeries = 0;
+            }
+        }
+        ParallelTasks.runAll(executor, chunks);
+
+        long bufferedBytes = 0;
+        int bufferedSeries = 0;
+        for (int i = 1; i < chunks.size(); i++) {
+            ChunkTask chunk = chunks.get(i);
+            chunk.buffer.writeTo(out);
+            bufferedBytes += chunk.buffer.size();
+            bufferedSeries += chunk.series;
+            chunk.buffer = null;
+        }
+        if (bufferedSeries > 0) {
+            sampleBytes[format.ordinal()] = (int) Math.min(Integer.MAX_VALUE, bufferedBytes / bufferedSeries + 1);
+        }
+        writeTrailer(format, out);
     }
 
     /**
-     * Returns all the metrics from the catalog formatted in UTF-8 plain/text.
+     * Writes all the metrics from the catalog formatted in UTF-8 plain/text into given output stream.
      * More specifically as {@link TextFormat#CONTENT_TYPE_004}.
-     * @return Text representation of the metric from the catalog
+     * <p>
+     * The output is identical to what {@link TextFormat#write004} produces: summaries are rendered as
+     * {@code _count} and {@code _sum} samples and their {@code _created} samples are appended as separate
+     * gauges at the end.
+     * @param out Output stream to write the text representation of the metrics into
      * @throws IOException If creating the text representation goes wrong
      */
-    public String toTextFormat() throws IOException {
-        Writer writer = new StringWriter();
-        TextFormat.write004(writer, registry.metricFamilySamples());
-        return writer.toString();
+    public void writeTextFormat(OutputStream out) throws IOException {
+        writeFamilies(ExpositionFormat.TEXT_004, 0, families.size(), out);
+        writeTrailer(ExpositionFormat.TEXT_004, out);
+    }
+
+    /**
+     * Writes all the metrics from the catalog formatted as OpenMetrics text into given output stream.
+     * More specifically as {@link TextFormat#CONTENT_TYPE_OPENMETRICS_100}.
+     * @param out Output stream to write the text representation of the metrics into
+     * @throws IOException If creating the text representation goes wrong
+     */
+    public void writeOpenMetricsFormat(OutputStream out) throws IOException {
+        writeFamilies(ExpositionFormat.OPENMETRICS_100, 0, families.size(), out);
+        writeTrailer(ExpositionFormat.OPENMETRICS_100, out);
+    }
+
+    /**
+     * Writes all the metrics from the catalog as a stream of length delimited protocol buffer messages.
+     * @see ProtobufFormat
+     * @param out Output stream to write the metrics into
+     * @throws IOException If writing the metrics goes wrong
+     */
+    public void writeProtobufFormat(OutputStream out) throws IOException {
+        writeFamilies(ExpositionFormat.PROTOBUF_DELIMITED, 0, families.size(), out);
+    }
+
+    // Writes families in the range [from, to) of the catalog, families are encoded independently of each other.
+    private void writeFamilies(ExpositionFormat format, int from, int to, OutputStream out) throws IOException {
+        if (format == ExpositionFormat.PROTOBUF_DELIMITED) {
+            ProtobufFormat encoder = new ProtobufFormat(out, clusterName);
+            for (int i = from; i < to; i++) {
+                encoder.writeFamily(families.get(i), generation);
+            }
+            encoder.flush();
+            return;
+        }
+        boolean openMetrics = format == ExpositionFormat.OPENMETRICS_100;
+        TextEncoder encoder = new TextEncoder(out, clusterName, openMetrics);
+        for (int i = from; i < to; i++) {
+            MetricFamily family = families.get(i);
+            encoder.writeHeader(family);
+            for (int s = 0; s < family.storeCount(); s++) {
+                MetricFamily store = family.store(s);
+                for (int slot = 0; slot < store.size(); slot++) {
+                    if (!store.isLive(slot, generation)) {
+                        continue;
+                    }
+                    if (store.type() == MetricFamily.Type.SUMMARY) {
+                        encoder.writeSample(store, TextEncoder.Suffix.COUNT, slot, store.count(slot));
+                        encoder.writeSample(store, TextEncoder.Suffix.SUM, slot, store.value(slot));
+                        if (openMetrics) {
+                            encoder.writeSample(store, TextEncoder.Suffix.CREATED, slot, store.created(slot));
+                        }
+                    } else {
+                        encoder.writeSample(store, TextEncoder.Suffix.NONE, slot, store.value(slot));
+                    }
+                }
+            }
+        }
+        // Flush the encoder buffer but do not close the stream, it is owned by the caller.
+        encoder.flush();
+    }
+
+    // Writes what follows the families: the _created samples of summaries in the 0.0.4 text format
+    // (sorted by name like TextFormat.write004 does) and the terminating line of OpenMetrics.
+    private void writeTrailer(ExpositionFormat format, OutputStream out) throws IOException {
+        if (format == ExpositionFormat.PROTOBUF_DELIMITED) {
+            return;
+        }
+        TextEncoder encoder = new TextEncoder(out, clusterName, format == ExpositionFormat.OPENMETRICS_100);
+        if (format == ExpositionFormat.OPENMETRICS_100) {
+            encoder.writeEof();
+        } else {
+            for (MetricFamily family : summaries) {
+                if (family.size() > 0) {
+                    encoder.writeCreatedHeader(family);
+                    for (int slot = 0; slot < family.size(); slot++) {
+                        encoder.writeSample(family, TextEncoder.Suffix.CREATED, slot, family.created(slot));
+                    }
+                }
+            }
+        }
+        encoder.flush();
+    }
+
+    private int liveSeries(MetricFamily family) {
+        int live = 0;
+        for (int s = 0; s < family.storeCount(); s++) {
+            MetricFamily store = family.store(s);
+            for (int slot = 0; slot < store.size(); slot++) {
+                if (store.isLive(slot, generation)) {
+                    live++;
+                }
+            }
+        }
+        return live;
+    }
+
+    // Encodes a contiguous range of families either straight into the output stream or into its own buffer,
+    // sized by the bytes per series rendered last time.
+    private final class ChunkTask implements ParallelTasks.Task<IOException> {
+        private final ExpositionFormat format;
+        private final int from;
+        private final int to;
+        private final int series;
+        @Nullable private final OutputStream out;
+        // Allocated by the task, released once copied into the output stream
+        private ByteArrayOutputStream buffer;
+
+        ChunkTask(ExpositionFormat format, int from, int to, int series, @Nullable OutputStream out) {
+            this.format = format;
+            this.from = from;
+            this.to = to;
+            this.series = series;
+            this.out = out;
+        }
+
+        @Override
+        public void run() throws IOException {
+            if (out != null) {
+                writeFamilies(format, from, to, out);
+                return;
+            }
+            long capacity = (long) series * sampleBytes[format.ordinal()] + 1024L * (to - from);
+            buffer = new ByteArrayOutputStream((int) Math.min(MAX_CHUNK_CAPACITY, capacity));
+            writeFamilies(format, from, to, buffer);
+        }
+    }
+
+    /**
+     * Shard of the node level gauges. Series of given node must always be set through the same shard,
+     * see {@link #shardOf(String)}.
+     */
+    public final class Shard {
+        private final int index;
+
+        private Shard(int index) {
+            this.index = index;
+        }
+
+        /**
+         * Set a value for cluster node metric in this shard.
+         * @see PrometheusMetricsCatalog#setNodeGauge(Tuple, String, double, String...)
+         * @param nodeInfo A {@link Tuple} holding [nodeName, nodeID]
+         * @param metric Metric name without the metric prefix
+         * @param value Value of the metric
+         * @param labelValues Optional set of label values
+         */
+        public void setNodeGauge(Tuple<String, String> nodeInfo, String metric, double value, String... labelValues) {
+            MetricFamily family = family(metric);
+            setGauge(family, family.shard(index), nodeInfo.v1(), nodeInfo.v2(), labelValues, value);
+        }
     }
 }
@@ -23,6 +23,7 @@ import org.opensearch.action.admin.cluster.node.stats.NodeStats;
 import org.opensearch.action.admin.indices.stats.CommonStats;
 import org.opensearch.action.admin.indices.stats.IndexStats;
 import org.opensearch.action.admin.indices.stats.IndicesStatsResponse;
+import org.opensearch.cluster.health.ClusterHealthStatus;
 import org.opensearch.cluster.health.ClusterIndexHealth;
 import org.opensearch.cluster.node.DiscoveryNodeRole;
 import org.opensearch.common.Nullable;
@@ -41,56 +42,272 @@ import org.opensearch.threadpool.ThreadPoolStats;
 import org.opensearch.transport.TransportStats;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-
-import io.prometheus.client.Summary;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * A class that describes a Prometheus metrics collector.
  */
 public class PrometheusMetricsCollector {
 
-    private boolean isPrometheusClusterSettings;
-    private boolean isPrometheusIndices;
-    private PrometheusMetricsCatalog catalog;
+    /**
+     * Name of the index holding the summed stats of indices which are not in the top indices,
+     * see {@link PrometheusSettings#PROMETHEUS_INDICES_STATS_TOP_K}.
+     */
+    public static final String OTHER_INDICES = "_other";
+
+    // Populating node level metrics in parallel pays off only if there are enough nodes
+    private static final int DEFAULT_PARALLEL_NODES_THRESHOLD = 16;
+
+    // Date suffix of an index name, e.g. "-2024.01.31", "-2024-01" or "_202401". Only plausible dates match: a year
+    // 19xx or 20xx optionally followed by a month and a day, both separated by the same separator (if any).
+    private static final Pattern DATE_SUFFIX = Pattern.compile(
+            "(.+?)[-_.](?:19|20)\\d{2}(?:([-_.]?)(?:0[1-9]|1[0-2])(?:\\2(?:0[1-9]|[12]\\d|3[01]))?)?");
+    // Rollover counter suffix of an index name, zero padded to six digits, e.g. "-000001".
+    private static final Pattern ROLLOVER_SUFFIX = Pattern.compile("(.+?)-\\d{6}");
+    // Prefix of the names of data stream backing indices, e.g. ".ds-logs-app-2024.01.31-000001"
+    private static final String DATA_STREAM_BACKING_INDEX_PREFIX = ".ds-";
+
+    private final PrometheusSettings prometheusSettings;
+    private final PrometheusMetricsCatalog catalog;
+    // Executor populating (and rendering) shards of the catalog in parallel, null if the calling thread does it all
+    @Nullable private final Executor executor;
+    // Sections of metrics registered and updated by this collector
+    private final MetricSelection selection;
+    // Minimal number of nodes whose metrics are populated in parallel
+    private int parallelNodesThreshold = DEFAULT_PARALLEL_NODES_THRESHOLD;
+    // Groups of node metrics whose families are registered in the catalog
+    private final Set<MetricGroup> registeredGroups = EnumSet.noneOf(MetricGroup.class);
+    // Values of the indices ranked by the previous collection, the rates of top indices are computed from them
+    private IndexRanking rankedBy;
+    private Map<String, Long> rankedValues = Collections.emptyMap();
+    // Index group names resolved by the previous collection and the rules they were resolved by
+    private boolean indexGroupsRegistered = false;
+    private List<Pattern> indexGroupPatterns;
+    private boolean indexGroupStripDateSuffix;
+    private Map<String, String> indexGroupNames = Collections.emptyMap();
+    // Number of indices with stats but without health found by the last update of index level metrics
+    private int indicesWithoutHealth = 0;
+
+    /**
+     * A constructor.
+     * <p>
+     * The collector (and its catalog) is meant to be long-lived, it is created once per node and reused by every scrape.
+     * Dynamic settings are read from {@link PrometheusSettings} every time the metrics are updated.
+     * @param catalog {@link PrometheusMetricsCatalog}
+     * @param prometheusSettings {@link PrometheusSettings}
+     */
+    public PrometheusMetricsCollector(PrometheusMetricsCatalog catalog,
+                                      PrometheusSettings prometheusSettings) {
+        this(catalog, prometheusSettings, null);
+    }
 
     /**
      * A constructor.
      * @param catalog {@link PrometheusMetricsCatalog}
-     * @param isPrometheusIndices boolean flag for index level metric
-     * @param isPrometheusClusterSettings boolean flag cluster settings metrics
+     * @param prometheusSettings {@link PrometheusSettings}
+     * @param executor Bounded executor populating node level metrics of the catalog shards in parallel
+     *                 (see {@link PrometheusMetricsCatalog#shard(int)}), null to populate them by the calling thread
      */
     public PrometheusMetricsCollector(PrometheusMetricsCatalog catalog,
-                                      boolean isPrometheusIndices,
-                                      boolean isPrometheusClusterSettings) {
-        this.isPrometheusClusterSettings = isPrometheusClusterSettings;
-        this.isPrometheusIndices = isPrometheusIndices;
+                                      PrometheusSettings prometheusSettings,
+                                      @Nullable Executor executor) {
+        this(catalog, prometheusSettings, executor, MetricSelection.ALL);
+    }
+
+    /**
+     * A constructor.
+     * @param catalog {@link PrometheusMetricsCatalog}
+     * @param prometheusSettings {@link PrometheusSettings}
+     * @param executor Bounded executor populating node level metrics of the catalog shards in parallel
+     *                 (see {@link PrometheusMetricsCatalog#shard(int)}), null to populate them by the calling thread
+     * @param selection Sections of metrics registered and updated by this collector, metrics of other sections
+     *                  are not exposed even if the response data hold them
+     */
+    public PrometheusMetricsCollector(PrometheusMetricsCatalog catalog,
+                                      PrometheusSettings prometheusSettings,
+                                      @Nullable Executor executor,
+                                      MetricSelection selection) {
+        this.prometheusSettings = prometheusSettings;
         this.catalog = catalog;
+        this.executor = executor;
+        this.selection = selection;
     }
 
     /**
      * Call this method to register all the metrics that we want to capture.
+     * Metric families are registered only once, subsequent scrapes only update their values.
      */
     public void registerMetrics() {
         catalog.registerSummaryTimer("metrics_generate_time_seconds", "Time spent while generating metrics");
+        registerExporterMetrics();
+
+        if (selection.includes(MetricSelection.CLUSTER)) {
+            registerClusterMetrics();
+        }
+        if (selection.includesNodeGroups()) {
+            registerNodeMetrics();
+        }
+        if (selection.includes(MetricSelection.INDEX)) {
+            registerPerIndexMetrics();
+        }
+        registerMetricGroups(selection.nodeGroups(prometheusSettings.getPrometheusMetricGroups()));
+        if (selection.includes(MetricSelection.CLUSTER_SETTINGS)) {
+            registerESSettings();
+        }
+    }
+
+    // Families of a group are registered once the group gets enabled for the first time, they stay in the catalog
+    // (without any series) if the group is disabled later.
+    private void registerMetricGroups(Set<MetricGroup> groups) {
+        for (MetricGroup group : groups) {
+            if (!registeredGroups.add(group)) {
+                continue;
+            }
+            switch (group) {
+                case INDICES:
+                    registerIndicesMetrics();
+                    break;
+                case TRANSPORT:
+                    registerTransportMetrics();
+                    break;
+                case HTTP:
+                    registerHTTPMetrics();
+                    break;
+                case THREAD_POOL:
+                    registerThreadPoolMetrics();
+                    break;
+                case INGEST:
+                    registerIngestMetrics();
+                    break;
+                case BREAKER:
+                    registerCircuitBreakerMetrics();
+                    break;
+                case SCRIPT:
+                    registerScriptMetrics();
+                    break;
+                case PROCESS:
+                    registerProcessMetrics();
+                    break;
+                case JVM:
+                    registerJVMMetrics();
+                    break;
+                case OS:
+                    registerOsMetrics();
+                    break;
+                case FS:
+                    registerFsMetrics();
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown metric group: " + group);
+            }
+        }
+    }
+
+    private void registerExporterMetrics() {
+        catalog.registerSummaryTimer("metrics_collection_stage_time_seconds",
+                "Time spent while collecting metrics, by collection stage", "stage");
+        catalog.registerSummaryTimer("metrics_render_time_seconds",
+                "Time spent while rendering metrics", "format", "encoding");
+        catalog.registerSummary("metrics_payload_size_bytes",
+                "Size of rendered metrics", "format", "encoding");
+        catalog.registerSummaryTimer("metrics_scrape_time_seconds",
+                "Time spent while serving requests for metrics, by outcome", "outcome");
+        catalog.registerNodeGauge("metrics_series_number", "Number of exposed series", "family");
+        catalog.registerNodeGauge("metrics_collection_stage_failed_bool",
+                "Whether the collection stage failed (or timed out)", "stage");
+        catalog.registerNodeGauge("metrics_collection_node_unavailable_bool",
+                "Whether the node failed to return its stats (or did not return them in time)", "unavailable_nodeid");
+        catalog.registerNodeGauge("metrics_collection_shards_failed_number",
+                "Number of shards that failed to return their index level stats");
+        catalog.registerNodeGauge("metrics_collection_indices_without_health_number",
+                "Number of indices whose stats were collected but their health was not");
+        catalog.registerNodeGauge("metrics_series_dropped_count",
+                "Number of series dropped because of the series limits", "family");
+        // Metrics of the exporter itself are always exposed
+        catalog.excludeFromSeriesLimits("metrics_series_number");
+        catalog.excludeFromSeriesLimits("metrics_collection_stage_failed_bool");
+        catalog.excludeFromSeriesLimits("metrics_collection_node_unavailable_bool");
+        catalog.excludeFromSeriesLimits("metrics_collection_shards_failed_number");
+        catalog.excludeFromSeriesLimits("metrics_collection_indices_without_health_number");
+        catalog.excludeFromSeriesLimits("metrics_series_dropped_count");
+    }
+
+    /**
+     * Record duration of individual stages of the metrics collection.
+     * @param originNodeName Originating node name.
+     * @param originNodeId Originating node ID.
+     * @param stageTookNanos Duration of collection stages in nanoseconds, keyed by stage name
+     */
+    public void updateCollectionStages(String originNodeName, String originNodeId, Map<String, Long> stageTookNanos) {
+        Tuple<String, String> nodeInfo = new Tuple<>(originNodeName, originNodeId);
+        for (Map.Entry<String, Long> stage : stageTookNanos.entrySet()) {
+            catalog.observeSummaryTimer(nodeInfo, "metrics_collection_stage_time_seconds",
+                    stage.getValue() / 1E9, stage.getKey());
+        }
+    }
+
+    /**
+     * Record failures of the metrics collection. The metrics are built from the stages and nodes that succeeded.
+     * @param originNodeName Originating node name.
+     * @param originNodeId Originating node ID.
+     * @param stages Names of all the collection stages
+     * @param failedStages Names of the collection stages that failed
+     * @param unavailableNodes IDs of the nodes that failed to return their stats
+     * @param indicesStats IndicesStatsResponse, null if not requested or failed
+     */
+    public void updateCollectionFailures(String originNodeName, String originNodeId, Collection<String> stages,
+                                         Collection<String> failedStages, Collection<String> unavailableNodes,
+                                         @Nullable IndicesStatsResponse indicesStats) {
+        Tuple<String, String> nodeInfo = new Tuple<>(originNodeName, originNodeId);
+        for (String stage : stages) {
+            catalog.setNodeGauge(nodeInfo, "metrics_collection_stage_failed_bool", failedStages.contains(stage) ? 1 : 0, stage);
+        }
+        for (String nodeId : unavailableNodes) {
+            catalog.setNodeGauge(nodeInfo, "metrics_collection_node_unavailable_bool", 1, nodeId);
+        }
+        if (indicesStats != null) {
+            catalog.setNodeGauge(nodeInfo, "metrics_collection_shards_failed_number", indicesStats.getFailedShards());
+            catalog.setNodeGauge(nodeInfo, "metrics_collection_indices_without_health_number", indicesWithoutHealth);
+        }
+    }
+
+    /**
+     * Record rendering of the metrics.
+     * @param nodeInfo A {@link Tuple} holding [nodeName, nodeID] of the node rendering the metrics
+     * @param format Exposition format
+     * @param encoding Content encoding
+     * @param tookNanos Duration of rendering in nanoseconds
+     * @param bytes Size of rendered (and encoded) metrics
+     */
+    public void observeRender(Tuple<String, String> nodeInfo, ExpositionFormat format, String encoding,
+                              long tookNanos, long bytes) {
+        String formatName = format.name().toLowerCase(Locale.ROOT);
+        catalog.observeSummaryTimer(nodeInfo, "metrics_render_time_seconds", tookNanos / 1E9, formatName, encoding);
+        catalog.observeSummary(nodeInfo, "metrics_payload_size_bytes", bytes, formatName, encoding);
+    }
 
-        registerClusterMetrics();
-        registerNodeMetrics();
-        registerIndicesMetrics();
-        registerPerIndexMetrics();
-        registerTransportMetrics();
-        registerHTTPMetrics();
-        registerThreadPoolMetrics();
-        registerIngestMetrics();
-        registerCircuitBreakerMetrics();
-        registerScriptMetrics();
-        registerProcessMetrics();
-        registerJVMMetrics();
-        registerOsMetrics();
-        registerFsMetrics();
-        registerESSettings();
+    /**
+     * Record a request for the metrics.
+     * @param nodeInfo A {@link Tuple} holding [nodeName, nodeID] of the node serving the request
+     * @param outcome How the request was served
+     * @param tookNanos Duration of the request in nanoseconds
+     */
+    public void observeScrape(Tuple<String, String> nodeInfo, String outcome, long tookNanos) {
+        catalog.observeSummaryTimer(nodeInfo, "metrics_scrape_time_seconds", tookNanos / 1E9, outcome);
     }
 
     private void registerClusterMetrics() {
@@ -139,7 +356,7 @@ public class PrometheusMetricsCollector {
         catalog.registerNodeGauge("node_role_bool", "Node role", "role");
     }
 
-    private void updateNodeMetrics(Tuple<String, String> nodeInfo, NodeStats ns) {
+    private void updateNodeMetrics(PrometheusMetricsCatalog.Shard shard, Tuple<String, String> nodeInfo, NodeStats ns) {
         if (ns != null) {
 
             // Plugins can introduce custom node roles from 7.3.0: https://github.com/elastic/elasticsearch/pull/43175
@@ -155,7 +372,7 @@ public class PrometheusMetricsCollector {
             }
 
             for (String k : roles.keySet()) {
-                catalog.setNodeGauge(nodeInfo, "node_role_bool", roles.get(k), k);
+                shard.setNodeGauge(nodeInfo, "node_role_bool", roles.get(k), k);
             }
         }
     }
@@ -249,98 +466,98 @@ public class PrometheusMetricsCollector {
         catalog.registerNodeGauge("indices_recovery_throttle_time_seconds", "Time spent while throttling recoveries");
     }
 
-    private void updateIndicesMetrics(Tuple<String, String> nodeInfo, NodeIndicesStats idx) {
+    private void updateIndicesMetrics(PrometheusMetricsCatalog.Shard shard, Tuple<String, String> nodeInfo, NodeIndicesStats idx) {
         if (idx != null) {
-            catalog.setNodeGauge(nodeInfo,"indices_doc_number", idx.getDocs().getCount());
-            catalog.setNodeGauge(nodeInfo,"indices_doc_deleted_number", idx.getDocs().getDeleted());
+            shard.setNodeGauge(nodeInfo,"indices_doc_number", idx.getDocs().getCount());
+            shard.setNodeGauge(nodeInfo,"indices_doc_deleted_number", idx.getDocs().getDeleted());
 
-            catalog.setNodeGauge(nodeInfo,"indices_store_size_bytes", idx.getStore().getSizeInBytes());
+            shard.setNodeGauge(nodeInfo,"indices_store_size_bytes", idx.getStore().getSizeInBytes());
 
-            catalog.setNodeGauge(nodeInfo,"indices_indexing_delete_count", idx.getIndexing().getTotal().getDeleteCount());
-            catalog.setNodeGauge(nodeInfo,"indices_indexing_delete_current_number", idx.getIndexing().getTotal().getDeleteCurrent());
-            catalog.setNodeGauge(nodeInfo,"indices_indexing_delete_time_seconds",
+            shard.setNodeGauge(nodeInfo,"indices_indexing_delete_count", idx.getIndexing().getTotal().getDeleteCount());
+            shard.setNodeGauge(nodeInfo,"indices_indexing_delete_current_number", idx.getIndexing().getTotal().getDeleteCurrent());
+            shard.setNodeGauge(nodeInfo,"indices_indexing_delete_time_seconds",
                     idx.getIndexing().getTotal().getDeleteTime().seconds());
-            catalog.setNodeGauge(nodeInfo,"indices_indexing_index_count", idx.getIndexing().getTotal().getIndexCount());
-            catalog.setNodeGauge(nodeInfo,"indices_indexing_index_current_number", idx.getIndexing().getTotal().getIndexCurrent());
-            catalog.setNodeGauge(nodeInfo,"indices_indexing_index_failed_count", idx.getIndexing().getTotal().getIndexFailedCount());
-            catalog.setNodeGauge(nodeInfo,"indices_indexing_index_time_seconds", idx.getIndexing().getTotal().getIndexTime().seconds());
-            catalog.setNodeGauge(nodeInfo,"indices_indexing_noop_update_count", idx.getIndexing().getTotal().getNoopUpdateCount());
-            catalog.setNodeGauge(nodeInfo,"indices_indexing_is_throttled_bool", idx.getIndexing().getTotal().isThrottled() ? 1 : 0);
-            catalog.setNodeGauge(nodeInfo,"indices_indexing_throttle_time_seconds",
+            shard.setNodeGauge(nodeInfo,"indices_indexing_index_count", idx.getIndexing().getTotal().getIndexCount());
+            shard.setNodeGauge(nodeInfo,"indices_indexing_index_current_number", idx.getIndexing().getTotal().getIndexCurrent());
+            shard.setNodeGauge(nodeInfo,"indices_indexing_index_failed_count", idx.getIndexing().getTotal().getIndexFailedCount());
+            shard.setNodeGauge(nodeInfo,"indices_indexing_index_time_seconds", idx.getIndexing().getTotal().getIndexTime().seconds());
+            shard.setNodeGauge(nodeInfo,"indices_indexing_noop_update_count", idx.getIndexing().getTotal().getNoopUpdateCount());
+            shard.setNodeGauge(nodeInfo,"indices_indexing_is_throttled_bool", idx.getIndexing().getTotal().isThrottled() ? 1 : 0);
+            shard.setNodeGauge(nodeInfo,"indices_indexing_throttle_time_seconds",
                     idx.getIndexing().getTotal().getThrottleTime().seconds());
 
-            catalog.setNodeGauge(nodeInfo,"indices_get_count", idx.getGet().getCount());
-            catalog.setNodeGauge(nodeInfo,"indices_get_time_seconds", idx.getGet().getTimeInMillis() / 1000.0);
-            catalog.setNodeGauge(nodeInfo,"indices_get_exists_count", idx.getGet().getExistsCount());
-            catalog.setNodeGauge(nodeInfo,"indices_get_exists_time_seconds", idx.getGet().getExistsTimeInMillis() / 1000.0);
-            catalog.setNodeGauge(nodeInfo,"indices_get_missing_count", idx.getGet().getMissingCount());
-            catalog.setNodeGauge(nodeInfo,"indices_get_missing_time_seconds", idx.getGet().getMissingTimeInMillis() / 1000.0);
-            catalog.setNodeGauge(nodeInfo,"indices_get_current_number", idx.getGet().current());
-
-            catalog.setNodeGauge(nodeInfo,"indices_search_open_contexts_number", idx.getSearch().getOpenContexts());
-            catalog.setNodeGauge(nodeInfo,"indices_search_fetch_count", idx.getSearch().getTotal().getFetchCount());
-            catalog.setNodeGauge(nodeInfo,"indices_search_fetch_current_number", idx.getSearch().getTotal().getFetchCurrent());
-            catalog.setNodeGauge(nodeInfo,"indices_search_fetch_time_seconds",
+            shard.setNodeGauge(nodeInfo,"indices_get_count", idx.getGet().getCount());
+            shard.setNodeGauge(nodeInfo,"indices_get_time_seconds", idx.getGet().getTimeInMillis() / 1000.0);
+            shard.setNodeGauge(nodeInfo,"indices_get_exists_count", idx.getGet().getExistsCount());
+            shard.setNodeGauge(nodeInfo,"indices_get_exists_time_seconds", idx.getGet().getExistsTimeInMillis() / 1000.0);
+            shard.setNodeGauge(nodeInfo,"indices_get_missing_count", idx.getGet().getMissingCount());
+            shard.setNodeGauge(nodeInfo,"indices_get_missing_time_seconds", idx.getGet().getMissingTimeInMillis() / 1000.0);
+            shard.setNodeGauge(nodeInfo,"indices_get_current_number", idx.getGet().current());
+
+            shard.setNodeGauge(nodeInfo,"indices_search_open_contexts_number", idx.getSearch().getOpenContexts());
+            shard.setNodeGauge(nodeInfo,"indices_search_fetch_count", idx.getSearch().getTotal().getFetchCount());
+            shard.setNodeGauge(nodeInfo,"indices_search_fetch_current_number", idx.getSearch().getTotal().getFetchCurrent());
+            shard.setNodeGauge(nodeInfo,"indices_search_fetch_time_seconds",
                     idx.getSearch().getTotal().getFetchTimeInMillis() / 1000.0);
-            catalog.setNodeGauge(nodeInfo,"indices_search_query_count", idx.getSearch().getTotal().getQueryCount());
-            catalog.setNodeGauge(nodeInfo,"indices_search_query_current_number", idx.getSearch().getTotal().getQueryCurrent());
-            catalog.setNodeGauge(nodeInfo,"indices_search_query_time_seconds",
+            shard.setNodeGauge(nodeInfo,"indices_search_query_count", idx.getSearch().getTotal().getQueryCount());
+            shard.setNodeGauge(nodeInfo,"indices_search_query_current_number", idx.getSearch().getTotal().getQueryCurrent());
+            shard.setNodeGauge(nodeInfo,"indices_search_query_time_seconds",
                     idx.getSearch().getTotal().getQueryTimeInMillis() / 1000.0);
-            catalog.setNodeGauge(nodeInfo,"indices_search_scroll_count", idx.getSearch().getTotal().getScrollCount());
-            catalog.setNodeGauge(nodeInfo,"indices_search_scroll_current_number", idx.getSearch().getTotal().getScrollCurrent());
-            catalog.setNodeGauge(nodeInfo,"indices_search_scroll_time_seconds",
+            shard.setNodeGauge(nodeInfo,"indices_search_scroll_count", idx.getSearch().getTotal().getScrollCount());
+            shard.setNodeGauge(nodeInfo,"indices_search_scroll_current_number", idx.getSearch().getTotal().getScrollCurrent());
+            shard.setNodeGauge(nodeInfo,"indices_search_scroll_time_seconds",
                     idx.getSearch().getTotal().getScrollTimeInMillis() / 1000.0);
 
-            catalog.setNodeGauge(nodeInfo,"indices_merges_current_number", idx.getMerge().getCurrent());
-            catalog.setNodeGauge(nodeInfo,"indices_merges_current_docs_number", idx.getMerge().getCurrentNumDocs());
-            catalog.setNodeGauge(nodeInfo,"indices_merges_current_size_bytes", idx.getMerge().getCurrentSizeInBytes());
-            catalog.setNodeGauge(nodeInfo,"indices_merges_total_number", idx.getMerge().getTotal());
-            catalog.setNodeGauge(nodeInfo,"indices_merges_total_time_seconds", idx.getMerge().getTotalTimeInMillis() / 1000.0);
-            catalog.setNodeGauge(nodeInfo,"indices_merges_total_docs_count", idx.getMerge().getTotalNumDocs());
-            catalog.setNodeGauge(nodeInfo,"indices_merges_total_size_bytes", idx.getMerge().getTotalSizeInBytes());
-            catalog.setNodeGauge(nodeInfo,"indices_merges_total_stopped_time_seconds",
+            shard.setNodeGauge(nodeInfo,"indices_merges_current_number", idx.getMerge().getCurrent());
+            shard.setNodeGauge(nodeInfo,"indices_merges_current_docs_number", idx.getMerge().getCurrentNumDocs());
+            shard.setNodeGauge(nodeInfo,"indices_merges_current_size_bytes", idx.getMerge().getCurrentSizeInBytes());
+            shard.setNodeGauge(nodeInfo,"indices_merges_total_number", idx.getMerge().getTotal());
+            shard.setNodeGauge(nodeInfo,"indices_merges_total_time_seconds", idx.getMerge().getTotalTimeInMillis() / 1000.0);
+            shard.setNodeGauge(nodeInfo,"indices_merges_total_docs_count", idx.getMerge().getTotalNumDocs());
+            shard.setNodeGauge(nodeInfo,"indices_merges_total_size_bytes", idx.getMerge().getTotalSizeInBytes());
+            shard.setNodeGauge(nodeInfo,"indices_merges_total_stopped_time_seconds",
                     idx.getMerge().getTotalStoppedTimeInMillis() / 1000.0);
-            catalog.setNodeGauge(nodeInfo,"indices_merges_total_throttled_time_seconds",
+            shard.setNodeGauge(nodeInfo,"indices_merges_total_throttled_time_seconds",
                     idx.getMerge().getTotalThrottledTimeInMillis() / 1000.0);
-            catalog.setNodeGauge(nodeInfo,"indices_merges_total_auto_throttle_bytes", idx.getMerge().getTotalBytesPerSecAutoThrottle());
+            shard.setNodeGauge(nodeInfo,"indices_merges_total_auto_throttle_bytes", idx.getMerge().getTotalBytesPerSecAutoThrottle());
 
-            catalog.setNodeGauge(nodeInfo,"indices_refresh_total_count", idx.getRefresh().getTotal());
-            catalog.setNodeGauge(nodeInfo,"indices_refresh_total_time_seconds", idx.getRefresh().getTotalTimeInMillis() / 1000.0);
-            catalog.setNodeGauge(nodeInfo,"indices_refresh_listeners_number", idx.getRefresh().getListeners());
+            shard.setNodeGauge(nodeInfo,"indices_refresh_total_count", idx.getRefresh().getTotal());
+            shard.setNodeGauge(nodeInfo,"indices_refresh_total_time_seconds", idx.getRefresh().getTotalTimeInMillis() / 1000.0);
+            shard.setNodeGauge(nodeInfo,"indices_refresh_listeners_number", idx.getRefresh().getListeners());
 
-            catalog.setNodeGauge(nodeInfo,"indices_flush_total_count", idx.getFlush().getTotal());
-            catalog.setNodeGauge(nodeInfo,"indices_flush_total_time_seconds", idx.getFlush().getTotalTimeInMillis() / 1000.0);
+            shard.setNodeGauge(nodeInfo,"indices_flush_total_count", idx.getFlush().getTotal());
+            shard.setNodeGauge(nodeInfo,"indices_flush_total_time_seconds", idx.getFlush().getTotalTimeInMillis() / 1000.0);
 
-            catalog.setNodeGauge(nodeInfo,"indices_querycache_cache_count", idx.getQueryCache().getCacheCount());
-            catalog.setNodeGauge(nodeInfo,"indices_querycache_cache_size_bytes", idx.getQueryCache().getCacheSize());
-            catalog.setNodeGauge(nodeInfo,"indices_querycache_evictions_count", idx.getQueryCache().getEvictions());
-            catalog.setNodeGauge(nodeInfo,"indices_querycache_hit_count", idx.getQueryCache().getHitCount());
-            catalog.setNodeGauge(nodeInfo,"indices_querycache_memory_size_bytes", idx.getQueryCache().getMemorySizeInBytes());
-            catalog.setNodeGauge(nodeInfo,"indices_querycache_miss_number", idx.getQueryCache().getMissCount());
-            catalog.setNodeGauge(nodeInfo,"indices_querycache_total_number", idx.getQueryCache().getTotalCount());
+            shard.setNodeGauge(nodeInfo,"indices_querycache_cache_count", idx.getQueryCache().getCacheCount());
+            shard.setNodeGauge(nodeInfo,"indices_querycache_cache_size_bytes", idx.getQueryCache().getCacheSize());
+            shard.setNodeGauge(nodeInfo,"indices_querycache_evictions_count", idx.getQueryCache().getEvictions());
+            shard.setNodeGauge(nodeInfo,"indices_querycache_hit_count", idx.getQueryCache().getHitCount());
+            shard.setNodeGauge(nodeInfo,"indices_querycache_memory_size_bytes", idx.getQueryCache().getMemorySizeInBytes());
+            shard.setNodeGauge(nodeInfo,"indices_querycache_miss_number", idx.getQueryCache().getMissCount());
+            shard.setNodeGauge(nodeInfo,"indices_querycache_total_number", idx.getQueryCache().getTotalCount());
 
-            catalog.setNodeGauge(nodeInfo,"indices_fielddata_memory_size_bytes", idx.getFieldData().getMemorySizeInBytes());
-            catalog.setNodeGauge(nodeInfo,"indices_fielddata_evictions_count", idx.getFieldData().getEvictions());
+            shard.setNodeGauge(nodeInfo,"indices_fielddata_memory_size_bytes", idx.getFieldData().getMemorySizeInBytes());
+            shard.setNodeGauge(nodeInfo,"indices_fielddata_evictions_count", idx.getFieldData().getEvictions());
 
-            catalog.setNodeGauge(nodeInfo,"indices_completion_size_bytes", idx.getCompletion().getSizeInBytes());
+            shard.setNodeGauge(nodeInfo,"indices_completion_size_bytes", idx.getCompletion().getSizeInBytes());
 
-            catalog.setNodeGauge(nodeInfo,"indices_segments_number", idx.getSegments().getCount());
-            catalog.setNodeGauge(nodeInfo,"indices_segments_memory_bytes", idx.getSegments().getBitsetMemoryInBytes(), "bitset");
-            catalog.setNodeGauge(nodeInfo,"indices_segments_memory_bytes", idx.getSegments().getIndexWriterMemoryInBytes(), "indexwriter");
-            catalog.setNodeGauge(nodeInfo,"indices_segments_memory_bytes", idx.getSegments().getVersionMapMemoryInBytes(), "versionmap");
+            shard.setNodeGauge(nodeInfo,"indices_segments_number", idx.getSegments().getCount());
+            shard.setNodeGauge(nodeInfo,"indices_segments_memory_bytes", idx.getSegments().getBitsetMemoryInBytes(), "bitset");
+            shard.setNodeGauge(nodeInfo,"indices_segments_memory_bytes", idx.getSegments().getIndexWriterMemoryInBytes(), "indexwriter");
+            shard.setNodeGauge(nodeInfo,"indices_segments_memory_bytes", idx.getSegments().getVersionMapMemoryInBytes(), "versionmap");
 
-            catalog.setNodeGauge(nodeInfo,"indices_suggest_current_number", idx.getSearch().getTotal().getSuggestCurrent());
-            catalog.setNodeGauge(nodeInfo,"indices_suggest_count", idx.getSearch().getTotal().getSuggestCount());
-            catalog.setNodeGauge(nodeInfo,"indices_suggest_time_seconds", idx.getSearch().getTotal().getSuggestTimeInMillis() / 1000.0);
+            shard.setNodeGauge(nodeInfo,"indices_suggest_current_number", idx.getSearch().getTotal().getSuggestCurrent());
+            shard.setNodeGauge(nodeInfo,"indices_suggest_count", idx.getSearch().getTotal().getSuggestCount());
+            shard.setNodeGauge(nodeInfo,"indices_suggest_time_seconds", idx.getSearch().getTotal().getSuggestTimeInMillis() / 1000.0);
 
-            catalog.setNodeGauge(nodeInfo,"indices_requestcache_memory_size_bytes", idx.getRequestCache().getMemorySizeInBytes());
-            catalog.setNodeGauge(nodeInfo,"indices_requestcache_hit_count", idx.getRequestCache().getHitCount());
-            catalog.setNodeGauge(nodeInfo,"indices_requestcache_miss_count", idx.getRequestCache().getMissCount());
-            catalog.setNodeGauge(nodeInfo,"indices_requestcache_evictions_count", idx.getRequestCache().getEvictions());
+            shard.setNodeGauge(nodeInfo,"indices_requestcache_memory_size_bytes", idx.getRequestCache().getMemorySizeInBytes());
+            shard.setNodeGauge(nodeInfo,"indices_requestcache_hit_count", idx.getRequestCache().getHitCount());
+            shard.setNodeGauge(nodeInfo,"indices_requestcache_miss_count", idx.getRequestCache().getMissCount());
+            shard.setNodeGauge(nodeInfo,"indices_requestcache_evictions_count", idx.getRequestCache().getEvictions());
 
-            catalog.setNodeGauge(nodeInfo,"indices_recovery_current_number", idx.getRecoveryStats().currentAsSource(), "source");
-            catalog.setNodeGauge(nodeInfo,"indices_recovery_current_number", idx.getRecoveryStats().currentAsTarget(), "target");
-            catalog.setNodeGauge(nodeInfo,"indices_recovery_throttle_time_seconds", idx.getRecoveryStats().throttleTime().getSeconds());
+            shard.setNodeGauge(nodeInfo,"indices_recovery_current_number", idx.getRecoveryStats().currentAsSource(), "source");
+            shard.setNodeGauge(nodeInfo,"indices_recovery_current_number", idx.getRecoveryStats().currentAsTarget(), "target");
+            shard.setNodeGauge(nodeInfo,"indices_recovery_throttle_time_seconds", idx.getRecoveryStats().throttleTime().getSeconds());
         }
     }
 
@@ -446,122 +663,487 @@ public class PrometheusMetricsCollector {
 
     private void updatePerIndexMetrics(@Nullable ClusterHealthResponse chr, @Nullable IndicesStatsResponse isr) {
 
+        indicesWithoutHealth = 0;
         if (chr != null && isr != null) {
-            for (Map.Entry<String, IndexStats> entry : isr.getIndices().entrySet()) {
+            // The health and the stats are requested separately, an index created or deleted in between has no health.
+            // Such indices are exported without health metrics and counted in the collection failures.
+            for (String indexName : isr.getIndices().keySet()) {
+                if (chr.getIndices().containsKey(indexName) == false) {
+                    indicesWithoutHealth++;
+                }
+            }
+            Set<String> contexts = prometheusSettings.getPrometheusIndicesStatsContexts();
+            Map<String, IndexStats> indices = updateIndexGroupMetrics(chr, isr.getIndices(), contexts);
+            int topK = prometheusSettings.getPrometheusIndicesStatsTopK();
+            if (topK > 0) {
+                updateTopIndicesMetrics(chr, indices, contexts, topK, prometheusSettings.getPrometheusIndicesStatsTopKBy());
+                return;
+            }
+            for (Map.Entry<String, IndexStats> entry : indices.entrySet()) {
                 String indexName = entry.getKey();
-                ClusterIndexHealth cih = chr.getIndices().get(indexName);
-                catalog.setClusterGauge("index_status", cih.getStatus().value(), indexName);
-                catalog.setClusterGauge("index_replicas_number", cih.getNumberOfReplicas(), indexName);
-                catalog.setClusterGauge("index_shards_number", cih.getActiveShards(), "active", indexName);
-                catalog.setClusterGauge("index_shards_number", cih.getNumberOfShards(), "shards", indexName);
-                catalog.setClusterGauge("index_shards_number", cih.getActivePrimaryShards(), "active_primary", indexName);
-                catalog.setClusterGauge("index_shards_number", cih.getInitializingShards(), "initializing", indexName);
-                catalog.setClusterGauge("index_shards_number", cih.getRelocatingShards(), "relocating", indexName);
-                catalog.setClusterGauge("index_shards_number", cih.getUnassignedShards(), "unassigned", indexName);
+                updateIndexHealthMetrics(indexName, chr.getIndices().get(indexName));
                 IndexStats indexStats = entry.getValue();
-                updatePerIndexContextMetrics(indexName, "total", indexStats.getTotal());
-                updatePerIndexContextMetrics(indexName, "primaries", indexStats.getPrimaries());
+                // Each context aggregates the stats of the shards, compute only those which are exported.
+                if (contexts.contains(PrometheusSettings.INDICES_STATS_CONTEXT_TOTAL)) {
+                    updatePerIndexContextMetrics(indexName, PrometheusSettings.INDICES_STATS_CONTEXT_TOTAL, indexStats.getTotal());
+                }
+                if (contexts.contains(PrometheusSettings.INDICES_STATS_CONTEXT_PRIMARIES)) {
+                    updatePerIndexContextMetrics(indexName, PrometheusSettings.INDICES_STATS_CONTEXT_PRIMARIES,
+                            indexStats.getPrimaries());
+                }
+            }
+        }
+    }
+
+    private void updateIndexHealthMetrics(String indexName, @Nullable ClusterIndexHealth cih) {
+        if (cih == null) {
+            return;
+        }
+        catalog.setClusterGauge("index_status", cih.getStatus().value(), indexName);
+        catalog.setClusterGauge("index_replicas_number", cih.getNumberOfReplicas(), indexName);
+        catalog.setClusterGauge("index_shards_number", cih.getActiveShards(), "active", indexName);
+        catalog.setClusterGauge("index_shards_number", cih.getNumberOfShards(), "shards", indexName);
+        catalog.setClusterGauge("index_shards_number", cih.getActivePrimaryShards(), "active_primary", indexName);
+        catalog.setClusterGauge("index_shards_number", cih.getInitializingShards(), "initializing", indexName);
+        catalog.setClusterGauge("index_shards_number", cih.getRelocatingShards(), "relocating", indexName);
+        catalog.setClusterGauge("index_shards_number", cih.getUnassignedShards(), "unassigned", indexName);
+    }
+
+    // Export only the top K indices, the stats of remaining indices are summed into the "_other" index. The indices
+    // are ranked in a single pass keeping at most K indices on a heap, an index pushed out of the heap is summed
+    // into "_other" right away. Rates are computed from the values ranked by the previous collection.
+    private void updateTopIndicesMetrics(ClusterHealthResponse chr, Map<String, IndexStats> indices, Set<String> contexts,
+                                         int topK, IndexRanking ranking) {
+        boolean total = contexts.contains(PrometheusSettings.INDICES_STATS_CONTEXT_TOTAL);
+        boolean primaries = contexts.contains(PrometheusSettings.INDICES_STATS_CONTEXT_PRIMARIES);
+        Map<String, Long> previousValues = ranking == rankedBy ? rankedValues : Collections.emptyMap();
+        Map<String, Long> values = new HashMap<>();
+
+        // Head of the heap is the lowest ranked index, ties are broken by index name.
+        PriorityQueue<RankedIndex> top = new PriorityQueue<>(topK + 1,
+                Comparator.comparingLong((RankedIndex index) -> index.score)
+                        .thenComparing(index -> index.name, Comparator.reverseOrder()));
+        OtherIndices other = new OtherIndices();
+        for (Map.Entry<String, IndexStats> entry : indices.entrySet()) {
+            String indexName = entry.getKey();
+            IndexStats indexStats = entry.getValue();
+            // Total stats are aggregated from the shards on every call, compute them only once.
+            CommonStats totalStats = indexStats.getTotal();
+            long value = ranking.value(totalStats);
+            values.put(indexName, value);
+            long score = value;
+            if (ranking.isRate()) {
+                Long previous = previousValues.get(indexName);
+                score = previous != null ? Math.max(0, value - previous) : 0;
+            }
+            top.add(new RankedIndex(indexName, score, indexStats, totalStats, chr.getIndices().get(indexName)));
+            if (top.size() > topK) {
+                other.add(top.poll(), total, primaries);
+            }
+        }
+        rankedBy = ranking;
+        rankedValues = values;
+
+        for (RankedIndex index : top) {
+            updateIndexHealthMetrics(index.name, index.health);
+            if (total) {
+                updatePerIndexContextMetrics(index.name, PrometheusSettings.INDICES_STATS_CONTEXT_TOTAL, index.totalStats);
+            }
+            if (primaries) {
+                updatePerIndexContextMetrics(index.name, PrometheusSettings.INDICES_STATS_CONTEXT_PRIMARIES,
+                        index.stats.getPrimaries());
+            }
+        }
+        if (other.count > 0) {
+            catalog.setClusterGauge("index_status", other.status, OTHER_INDICES);
+            catalog.setClusterGauge("index_shards_number", other.activeShards, "active", OTHER_INDICES);
+            catalog.setClusterGauge("index_shards_number", other.shards, "shards", OTHER_INDICES);
+            catalog.setClusterGauge("index_shards_number", other.activePrimaryShards, "active_primary", OTHER_INDICES);
+            catalog.setClusterGauge("index_shards_number", other.initializingShards, "initializing", OTHER_INDICES);
+            catalog.setClusterGauge("index_shards_number", other.relocatingShards, "relocating", OTHER_INDICES);
+            catalog.setClusterGauge("index_shards_number", other.unassignedShards, "unassigned", OTHER_INDICES);
+            if (total) {
+                updatePerIndexContextMetrics(OTHER_INDICES, PrometheusSettings.INDICES_STATS_CONTEXT_TOTAL, other.totalStats);
+            }
+            if (primaries) {
+                updatePerIndexContextMetrics(OTHER_INDICES, PrometheusSettings.INDICES_STATS_CONTEXT_PRIMARIES, other.primariesStats);
+            }
+        }
+    }
+
+    private void registerIndexGroupMetrics() {
+        catalog.registerClusterGauge("index_group_indices_number", "Number of indices in the index group", "index_group");
+        catalog.registerClusterGauge("index_group_status", "Worst status of the indices in the index group", "index_group");
+        catalog.registerClusterGauge("index_group_shards_number", "Number of shards of the indices in the index group", "type", "index_group");
+
+        catalog.registerClusterGauge("index_group_doc_number", "Total number of documents", "index_group", "context");
+        catalog.registerClusterGauge("index_group_doc_deleted_number", "Number of deleted documents", "index_group", "context");
+        catalog.registerClusterGauge("index_group_store_size_bytes", "Store size of the indices in bytes", "index_group", "context");
+
+        catalog.registerClusterGauge("index_group_indexing_index_count", "Count of documents indexed", "index_group", "context");
+        catalog.registerClusterGauge("index_group_indexing_index_failed_count", "Count of failed to index documents", "index_group", "context");
+        catalog.registerClusterGauge("index_group_indexing_index_time_seconds", "Time spent while indexing documents", "index_group", "context");
+        catalog.registerClusterGauge("index_group_indexing_delete_count", "Count of documents deleted", "index_group", "context");
+
+        catalog.registerClusterGauge("index_group_search_query_count", "Count of queries", "index_group", "context");
+        catalog.registerClusterGauge("index_group_search_query_time_seconds", "Total query time", "index_group", "context");
+        catalog.registerClusterGauge("index_group_search_fetch_count", "Count of search fetches", "index_group", "context");
+        catalog.registerClusterGauge("index_group_search_fetch_time_seconds", "Total search fetch time", "index_group", "context");
+
+        catalog.registerClusterGauge("index_group_merges_total_number", "Count of merges", "index_group", "context");
+        catalog.registerClusterGauge("index_group_refresh_total_count", "Count of refreshes", "index_group", "context");
+        catalog.registerClusterGauge("index_group_flush_total_count", "Count of flushes", "index_group", "context");
+        catalog.registerClusterGauge("index_group_segments_number", "Current number of segments", "index_group", "context");
+        catalog.registerClusterGauge("index_group_translog_size_bytes", "Translog size", "index_group", "context");
+    }
+
+    // Sum the stats of indices into their index groups, see PrometheusSettings#PROMETHEUS_INDEX_GROUPS_PATTERNS.
+    // Returns the indices whose per-index metrics are exposed.
+    private Map<String, IndexStats> updateIndexGroupMetrics(ClusterHealthResponse chr, Map<String, IndexStats> indices,
+                                                           Set<String> contexts) {
+        List<Pattern> patterns = prometheusSettings.getPrometheusIndexGroupsPatterns();
+        boolean stripDateSuffix = prometheusSettings.getPrometheusIndexGroupsStripDateSuffix();
+        if (patterns.isEmpty() && stripDateSuffix == false) {
+            indexGroupNames = Collections.emptyMap();
+            return indices;
+        }
+        if (indexGroupsRegistered == false) {
+            registerIndexGroupMetrics();
+            indexGroupsRegistered = true;
+        }
+        boolean total = contexts.contains(PrometheusSettings.INDICES_STATS_CONTEXT_TOTAL);
+        boolean primaries = contexts.contains(PrometheusSettings.INDICES_STATS_CONTEXT_PRIMARIES);
+        boolean suppressIndices = prometheusSettings.getPrometheusIndexGroupsSuppressIndices();
+
+        // Group names are resolved once per index and kept as long as the index exists and the rules do not change.
+        boolean sameRules = patterns == indexGroupPatterns && stripDateSuffix == indexGroupStripDateSuffix;
+        Map<String, String> previousNames = sameRules ? indexGroupNames : Collections.emptyMap();
+        Map<String, String> names = new HashMap<>();
+        Map<String, IndexGroup> groups = new HashMap<>();
+        Map<String, IndexStats> ungrouped = suppressIndices ? new HashMap<>() : indices;
+        for (Map.Entry<String, IndexStats> entry : indices.entrySet()) {
+            String indexName = entry.getKey();
+            String groupName = previousNames.get(indexName);
+            if (groupName == null) {
+                groupName = indexGroupName(indexName, patterns, stripDateSuffix);
+            }
+            names.put(indexName, groupName);
+            if (groupName.isEmpty()) {
+                if (suppressIndices) {
+                    ungrouped.put(indexName, entry.getValue());
+                }
+                continue;
+            }
+            groups.computeIfAbsent(groupName, name -> new IndexGroup())
+                    .add(chr.getIndices().get(indexName), entry.getValue(), total, primaries);
+        }
+        indexGroupPatterns = patterns;
+        indexGroupStripDateSuffix = stripDateSuffix;
+        indexGroupNames = names;
+
+        for (Map.Entry<String, IndexGroup> entry : groups.entrySet()) {
+            String groupName = entry.getKey();
+            IndexGroup group = entry.getValue();
+            catalog.setClusterGauge("index_group_indices_number", group.count, groupName);
+            catalog.setClusterGauge("index_group_status", group.status, groupName);
+            catalog.setClusterGauge("index_group_shards_number", group.activeShards, "active", groupName);
+            catalog.setClusterGauge("index_group_shards_number", group.shards, "shards", groupName);
+            catalog.setClusterGauge("index_group_shards_number", group.activePrimaryShards, "active_primary", groupName);
+            catalog.setClusterGauge("index_group_shards_number", group.unassignedShards, "unassigned", groupName);
+            if (total) {
+                updateIndexGroupContextMetrics(groupName, PrometheusSettings.INDICES_STATS_CONTEXT_TOTAL, group.totalStats);
+            }
+            if (primaries) {
+                updateIndexGroupContextMetrics(groupName, PrometheusSettings.INDICES_STATS_CONTEXT_PRIMARIES, group.primariesStats);
+            }
+        }
+        return ungrouped;
+    }
+
+    // Name of the index group of the index, empty if the index does not belong to any group.
+    // Without date suffixes, backing indices of a data stream are grouped by the data stream name.
+    static String indexGroupName(String indexName, List<Pattern> patterns, boolean stripDateSuffix) {
+        for (Pattern pattern : patterns) {
+            Matcher matcher = pattern.matcher(indexName);
+            if (matcher.matches()) {
+                return matcher.groupCount() > 0 && matcher.group(1) != null ? matcher.group(1) : pattern.pattern();
+            }
+        }
+        if (stripDateSuffix) {
+            String name = indexName;
+            if (name.startsWith(DATA_STREAM_BACKING_INDEX_PREFIX) && name.length() > DATA_STREAM_BACKING_INDEX_PREFIX.length()) {
+                name = name.substring(DATA_STREAM_BACKING_INDEX_PREFIX.length());
+            }
+            // Rolled over indices can have both date and rollover counter suffixes, e.g. "logs-2024.01.31-000001"
+            while (true) {
+                Matcher matcher = ROLLOVER_SUFFIX.matcher(name);
+                if (matcher.matches() == false) {
+                    matcher = DATE_SUFFIX.matcher(name);
+                    if (matcher.matches() == false) {
+                        break;
+                    }
+                }
+                name = matcher.group(1);
+            }
+            if (name.equals(indexName) == false) {
+                return name;
             }
         }
+        return "";
     }
 
     @SuppressWarnings("checkstyle:LineLength")
+    private void updateIndexGroupContextMetrics(String groupName, String context, CommonStats idx) {
+        if (idx.getDocs() != null) {
+            catalog.setClusterGauge("index_group_doc_number", idx.getDocs().getCount(), groupName, context);
+            catalog.setClusterGauge("index_group_doc_deleted_number", idx.getDocs().getDeleted(), groupName, context);
+        }
+        if (idx.getStore() != null) {
+            catalog.setClusterGauge("index_group_store_size_bytes", idx.getStore().getSizeInBytes(), groupName, context);
+        }
+        if (idx.getIndexing() != null) {
+            catalog.setClusterGauge("index_group_indexing_index_count", idx.getIndexing().getTotal().getIndexCount(), groupName, context);
+            catalog.setClusterGauge("index_group_indexing_index_failed_count", idx.getIndexing().getTotal().getIndexFailedCount(), groupName, context);
+            catalog.setClusterGauge("index_group_indexing_index_time_seconds", idx.getIndexing().getTotal().getIndexTime().seconds(), groupName, context);
+            catalog.setClusterGauge("index_group_indexing_delete_count", idx.getIndexing().getTotal().getDeleteCount(), groupName, context);
+        }
+        if (idx.getSearch() != null) {
+            catalog.setClusterGauge("index_group_search_query_count", idx.getSearch().getTotal().getQueryCount(), groupName, context);
+            catalog.setClusterGauge("index_group_search_query_time_seconds", idx.getSearch().getTotal().getQueryTimeInMillis() / 1000.0, groupName, context);
+            catalog.setClusterGauge("index_group_search_fetch_count", idx.getSearch().getTotal().getFetchCount(), groupName, context);
+            catalog.setClusterGauge("index_group_search_fetch_time_seconds", idx.getSearch().getTotal().getFetchTimeInMillis() / 1000.0, groupName, context);
+        }
+        if (idx.getMerge() != null) {
+            catalog.setClusterGauge("index_group_merges_total_number", idx.getMerge().getTotal(), groupName, context);
+        }
+        if (idx.getRefresh() != null) {
+            catalog.setClusterGauge("index_group_refresh_total_count", idx.getRefresh().getTotal(), groupName, context);
+        }
+        if (idx.getFlush() != null) {
+            catalog.setClusterGauge("index_group_flush_total_count", idx.getFlush().getTotal(), groupName, context);
+        }
+        if (idx.getSegments() != null) {
+            catalog.setClusterGauge("index_group_segments_number", idx.getSegments().getCount(), groupName, context);
+        }
+        if (idx.getTranslog() != null) {
+            catalog.setClusterGauge("index_group_translog_size_bytes", idx.getTranslog().getTranslogSizeInBytes(), groupName, context);
+        }
+    }
+
+    // Sum of the indices of an index group.
+    private static final class IndexGroup {
+        private int count = 0;
+        private int status = ClusterHealthStatus.GREEN.value();
+        private int activeShards = 0;
+        private int shards = 0;
+        private int activePrimaryShards = 0;
+        private int unassignedShards = 0;
+        private final CommonStats totalStats = new CommonStats();
+        private final CommonStats primariesStats = new CommonStats();
+
+        private void add(@Nullable ClusterIndexHealth cih, IndexStats stats, boolean total, boolean primaries) {
+            count++;
+            if (cih != null) {
+                // The worst status wins
+                status = Math.max(status, cih.getStatus().value());
+                activeShards += cih.getActiveShards();
+                shards += cih.getNumberOfShards();
+                activePrimaryShards += cih.getActivePrimaryShards();
+                unassignedShards += cih.getUnassignedShards();
+            }
+            if (total) {
+                totalStats.add(stats.getTotal());
+            }
+            if (primaries) {
+                primariesStats.add(stats.getPrimaries());
+            }
+        }
+    }
+
+    private static final class RankedIndex {
+        private final String name;
+        private final long score;
+        private final IndexStats stats;
+        private final CommonStats totalStats;
+        @Nullable private final ClusterIndexHealth health;
+
+        private RankedIndex(String name, long score, IndexStats stats, CommonStats totalStats,
+                            @Nullable ClusterIndexHealth health) {
+            this.name = name;
+            this.score = score;
+            this.stats = stats;
+            this.totalStats = totalStats;
+            this.health = health;
+        }
+    }
+
+    // Sum of the indices that are not in the top K.
+    private static final class OtherIndices {
+        private int count = 0;
+        private int status = ClusterHealthStatus.GREEN.value();
+        private int activeShards = 0;
+        private int shards = 0;
+        private int activePrimaryShards = 0;
+        private int initializingShards = 0;
+        private int relocatingShards = 0;
+        private int unassignedShards = 0;
+        private final CommonStats totalStats = new CommonStats();
+        private final CommonStats primariesStats = new CommonStats();
+
+        private void add(RankedIndex index, boolean total, boolean primaries) {
+            count++;
+            ClusterIndexHealth cih = index.health;
+            if (cih != null) {
+                // The worst status wins
+                status = Math.max(status, cih.getStatus().value());
+                activeShards += cih.getActiveShards();
+                shards += cih.getNumberOfShards();
+                activePrimaryShards += cih.getActivePrimaryShards();
+                initializingShards += cih.getInitializingShards();
+                relocatingShards += cih.getRelocatingShards();
+                unassignedShards += cih.getUnassignedShards();
+            }
+            if (total) {
+                totalStats.add(index.totalStats);
+            }
+            if (primaries) {
+                primariesStats.add(index.stats.getPrimaries());
+            }
+        }
+    }
+
+    @SuppressWarnings("checkstyle:LineLength")
+    // Only the stats groups that were requested are present, see PrometheusSettings#getPrometheusIndicesStatsFlags().
     private void updatePerIndexContextMetrics(String indexName, String context, CommonStats idx) {
-        catalog.setClusterGauge("index_doc_number", idx.getDocs().getCount(), indexName, context);
-        catalog.setClusterGauge("index_doc_deleted_number", idx.getDocs().getDeleted(), indexName, context);
-
-        catalog.setClusterGauge("index_store_size_bytes", idx.getStore().getSizeInBytes(), indexName, context);
-
-        catalog.setClusterGauge("index_indexing_delete_count", idx.getIndexing().getTotal().getDeleteCount(), indexName, context);
-        catalog.setClusterGauge("index_indexing_delete_current_number", idx.getIndexing().getTotal().getDeleteCurrent(), indexName, context);
-        catalog.setClusterGauge("index_indexing_delete_time_seconds", idx.getIndexing().getTotal().getDeleteTime().seconds(), indexName, context);
-        catalog.setClusterGauge("index_indexing_index_count", idx.getIndexing().getTotal().getIndexCount(), indexName, context);
-        catalog.setClusterGauge("index_indexing_index_current_number", idx.getIndexing().getTotal().getIndexCurrent(), indexName, context);
-        catalog.setClusterGauge("index_indexing_index_failed_count", idx.getIndexing().getTotal().getIndexFailedCount(), indexName, context);
-        catalog.setClusterGauge("index_indexing_index_time_seconds", idx.getIndexing().getTotal().getIndexTime().seconds(), indexName, context);
-        catalog.setClusterGauge("index_indexing_noop_update_count", idx.getIndexing().getTotal().getNoopUpdateCount(), indexName, context);
-        catalog.setClusterGauge("index_indexing_is_throttled_bool", idx.getIndexing().getTotal().isThrottled() ? 1 : 0, indexName, context);
-        catalog.setClusterGauge("index_indexing_throttle_time_seconds", idx.getIndexing().getTotal().getThrottleTime().seconds(), indexName, context);
-
-        catalog.setClusterGauge("index_get_count", idx.getGet().getCount(), indexName, context);
-        catalog.setClusterGauge("index_get_time_seconds", idx.getGet().getTimeInMillis() / 1000.0, indexName, context);
-        catalog.setClusterGauge("index_get_exists_count", idx.getGet().getExistsCount(), indexName, context);
-        catalog.setClusterGauge("index_get_exists_time_seconds", idx.getGet().getExistsTimeInMillis() / 1000.0, indexName, context);
-        catalog.setClusterGauge("index_get_missing_count", idx.getGet().getMissingCount(), indexName, context);
-        catalog.setClusterGauge("index_get_missing_time_seconds", idx.getGet().getMissingTimeInMillis() / 1000.0, indexName, context);
-        catalog.setClusterGauge("index_get_current_number", idx.getGet().current(), indexName, context);
-
-        catalog.setClusterGauge("index_search_open_contexts_number", idx.getSearch().getOpenContexts(), indexName, context);
-        catalog.setClusterGauge("index_search_fetch_count", idx.getSearch().getTotal().getFetchCount(), indexName, context);
-        catalog.setClusterGauge("index_search_fetch_current_number", idx.getSearch().getTotal().getFetchCurrent(), indexName, context);
-        catalog.setClusterGauge("index_search_fetch_time_seconds", idx.getSearch().getTotal().getFetchTimeInMillis() / 1000.0, indexName, context);
-        catalog.setClusterGauge("index_search_query_count", idx.getSearch().getTotal().getQueryCount(), indexName, context);
-        catalog.setClusterGauge("index_search_query_current_number", idx.getSearch().getTotal().getQueryCurrent(), indexName, context);
-        catalog.setClusterGauge("index_search_query_time_seconds", idx.getSearch().getTotal().getQueryTimeInMillis() / 1000.0, indexName, context);
-        catalog.setClusterGauge("index_search_scroll_count", idx.getSearch().getTotal().getScrollCount(), indexName, context);
-        catalog.setClusterGauge("index_search_scroll_current_number", idx.getSearch().getTotal().getScrollCurrent(), indexName, context);
-        catalog.setClusterGauge("index_search_scroll_time_seconds", idx.getSearch().getTotal().getScrollTimeInMillis() / 1000.0, indexName, context);
-
-        catalog.setClusterGauge("index_merges_current_number", idx.getMerge().getCurrent(), indexName, context);
-        catalog.setClusterGauge("index_merges_current_docs_number", idx.getMerge().getCurrentNumDocs(), indexName, context);
-        catalog.setClusterGauge("index_merges_current_size_bytes", idx.getMerge().getCurrentSizeInBytes(), indexName, context);
-        catalog.setClusterGauge("index_merges_total_number", idx.getMerge().getTotal(), indexName, context);
-        catalog.setClusterGauge("index_merges_total_time_seconds", idx.getMerge().getTotalTimeInMillis() / 1000.0, indexName, context);
-        catalog.setClusterGauge("index_merges_total_docs_count", idx.getMerge().getTotalNumDocs(), indexName, context);
-        catalog.setClusterGauge("index_merges_total_size_bytes", idx.getMerge().getTotalSizeInBytes(), indexName, context);
-        catalog.setClusterGauge("index_merges_total_stopped_time_seconds", idx.getMerge().getTotalStoppedTimeInMillis() / 1000.0, indexName, context);
-        catalog.setClusterGauge("index_merges_total_throttled_time_seconds", idx.getMerge().getTotalThrottledTimeInMillis() / 1000.0, indexName, context);
-        catalog.setClusterGauge("index_merges_total_auto_throttle_bytes", idx.getMerge().getTotalBytesPerSecAutoThrottle(), indexName, context);
-
-        catalog.setClusterGauge("index_refresh_total_count", idx.getRefresh().getTotal(), indexName, context);
-        catalog.setClusterGauge("index_refresh_total_time_seconds", idx.getRefresh().getTotalTimeInMillis() / 1000.0, indexName, context);
-        catalog.setClusterGauge("index_refresh_listeners_number", idx.getRefresh().getListeners(), indexName, context);
-
-        catalog.setClusterGauge("index_flush_total_count", idx.getFlush().getTotal(), indexName, context);
-        catalog.setClusterGauge("index_flush_total_time_seconds", idx.getFlush().getTotalTimeInMillis() / 1000.0, indexName, context);
-
-        catalog.setClusterGauge("index_querycache_cache_count", idx.getQueryCache().getCacheCount(), indexName, context);
-        catalog.setClusterGauge("index_querycache_cache_size_bytes", idx.getQueryCache().getCacheSize(), indexName, context);
-        catalog.setClusterGauge("index_querycache_evictions_count", idx.getQueryCache().getEvictions(), indexName, context);
-        catalog.setClusterGauge("index_querycache_hit_count", idx.getQueryCache().getHitCount(), indexName, context);
-        catalog.setClusterGauge("index_querycache_memory_size_bytes", idx.getQueryCache().getMemorySizeInBytes(), indexName, context);
-        catalog.setClusterGauge("index_querycache_miss_number", idx.getQueryCache().getMissCount(), indexName, context);
-        catalog.setClusterGauge("index_querycache_total_number", idx.getQueryCache().getTotalCount(), indexName, context);
-
-        catalog.setClusterGauge("index_fielddata_memory_size_bytes", idx.getFieldData().getMemorySizeInBytes(), indexName, context);
-        catalog.setClusterGauge("index_fielddata_evictions_count", idx.getFieldData().getEvictions(), indexName, context);
+        if (idx.getDocs() != null) {
+            catalog.setClusterGauge("index_doc_number", idx.getDocs().getCount(), indexName, context);
+            catalog.setClusterGauge("index_doc_deleted_number", idx.getDocs().getDeleted(), indexName, context);
+        }
+
+        if (idx.getStore() != null) {
+            catalog.setClusterGauge("index_store_size_bytes", idx.getStore().getSizeInBytes(), indexName, context);
+        }
+
+        if (idx.getIndexing() != null) {
+            catalog.setClusterGauge("index_indexing_delete_count", idx.getIndexing().getTotal().getDeleteCount(), indexName, context);
+            catalog.setClusterGauge("index_indexing_delete_current_number", idx.getIndexing().getTotal().getDeleteCurrent(), indexName, context);
+            catalog.setClusterGauge("index_indexing_delete_time_seconds", idx.getIndexing().getTotal().getDeleteTime().seconds(), indexName, context);
+            catalog.setClusterGauge("index_indexing_index_count", idx.getIndexing().getTotal().getIndexCount(), indexName, context);
+            catalog.setClusterGauge("index_indexing_index_current_number", idx.getIndexing().getTotal().getIndexCurrent(), indexName, context);
+            catalog.setClusterGauge("index_indexing_index_failed_count", idx.getIndexing().getTotal().getIndexFailedCount(), indexName, context);
+            catalog.setClusterGauge("index_indexing_index_time_seconds", idx.getIndexing().getTotal().getIndexTime().seconds(), indexName, context);
+            catalog.setClusterGauge("index_indexing_noop_update_count", idx.getIndexing().getTotal().getNoopUpdateCount(), indexName, context);
+            catalog.setClusterGauge("index_indexing_is_throttled_bool", idx.getIndexing().getTotal().isThrottled() ? 1 : 0, indexName, context);
+            catalog.setClusterGauge("index_indexing_throttle_time_seconds", idx.getIndexing().getTotal().getThrottleTime().seconds(), indexName, context);
+        }
+
+        if (idx.getGet() != null) {
+            catalog.setClusterGauge("index_get_count", idx.getGet().getCount(), indexName, context);
+            catalog.setClusterGauge("index_get_time_seconds", idx.getGet().getTimeInMillis() / 1000.0, indexName, context);
+            catalog.setClusterGauge("index_get_exists_count", idx.getGet().getExistsCount(), indexName, context);
+            catalog.setClusterGauge("index_get_exists_time_seconds", idx.getGet().getExistsTimeInMillis() / 1000.0, indexName, context);
+            catalog.setClusterGauge("index_get_missing_count", idx.getGet().getMissingCount(), indexName, context);
+            catalog.setClusterGauge("index_get_missing_time_seconds", idx.getGet().getMissingTimeInMillis() / 1000.0, indexName, context);
+            catalog.setClusterGauge("index_get_current_number", idx.getGet().current(), indexName, context);
+        }
+
+        if (idx.getSearch() != null) {
+            catalog.setClusterGauge("index_search_open_contexts_number", idx.getSearch().getOpenContexts(), indexName, context);
+            catalog.setClusterGauge("index_search_fetch_count", idx.getSearch().getTotal().getFetchCount(), indexName, context);
+            catalog.setClusterGauge("index_search_fetch_current_number", idx.getSearch().getTotal().getFetchCurrent(), indexName, context);
+            catalog.setClusterGauge("index_search_fetch_time_seconds", idx.getSearch().getTotal().getFetchTimeInMillis() / 1000.0, indexName, context);
+            catalog.setClusterGauge("index_search_query_count", idx.getSearch().getTotal().getQueryCount(), indexName, context);
+            catalog.setClusterGauge("index_search_query_current_number", idx.getSearch().getTotal().getQueryCurrent(), indexName, context);
+            catalog.setClusterGauge("index_search_query_time_seconds", idx.getSearch().getTotal().getQueryTimeInMillis() / 1000.0, indexName, context);
+            catalog.setClusterGauge("index_search_scroll_count", idx.getSearch().getTotal().getScrollCount(), indexName, context);
+            catalog.setClusterGauge("index_search_scroll_current_number", idx.getSearch().getTotal().getScrollCurrent(), indexName, context);
+            catalog.setClusterGauge("index_search_scroll_time_seconds", idx.getSearch().getTotal().getScrollTimeInMillis() / 1000.0, indexName, context);
+        }
+
+        if (idx.getMerge() != null) {
+            catalog.setClusterGauge("index_merges_current_number", idx.getMerge().getCurrent(), indexName, context);
+            catalog.setClusterGauge("index_merges_current_docs_number", idx.getMerge().getCurrentNumDocs(), indexName, context);
+            catalog.setClusterGauge("index_merges_current_size_bytes", idx.getMerge().getCurrentSizeInBytes(), indexName, context);
+            catalog.setClusterGauge("index_merges_total_number", idx.getMerge().getTotal(), indexName, context);
+            catalog.setClusterGauge("index_merges_total_time_seconds", idx.getMerge().getTotalTimeInMillis() / 1000.0, indexName, context);
+            catalog.setClusterGauge("index_merges_total_docs_count", idx.getMerge().getTotalNumDocs(), indexName, context);
+            catalog.setClusterGauge("index_merges_total_size_bytes", idx.getMerge().getTotalSizeInBytes(), indexName, context);
+            catalog.setClusterGauge("index_merges_total_stopped_time_seconds", idx.getMerge().getTotalStoppedTimeInMillis() / 1000.0, indexName, context);
+            catalog.setClusterGauge("index_merges_total_throttled_time_seconds", idx.getMerge().getTotalThrottledTimeInMillis() / 1000.0, indexName, context);
+            catalog.setClusterGauge("index_merges_total_auto_throttle_bytes", idx.getMerge().getTotalBytesPerSecAutoThrottle(), indexName, context);
+        }
+
+        if (idx.getRefresh() != null) {
+            catalog.setClusterGauge("index_refresh_total_count", idx.getRefresh().getTotal(), indexName, context);
+            catalog.setClusterGauge("index_refresh_total_time_seconds", idx.getRefresh().getTotalTimeInMillis() / 1000.0, indexName, context);
+            catalog.setClusterGauge("index_refresh_listeners_number", idx.getRefresh().getListeners(), indexName, context);
+        }
+
+        if (idx.getFlush() != null) {
+            catalog.setClusterGauge("index_flush_total_count", idx.getFlush().getTotal(), indexName, context);
+            catalog.setClusterGauge("index_flush_total_time_seconds", idx.getFlush().getTotalTimeInMillis() / 1000.0, indexName, context);
+        }
+
+        if (idx.getQueryCache() != null) {
+            catalog.setClusterGauge("index_querycache_cache_count", idx.getQueryCache().getCacheCount(), indexName, context);
+            catalog.setClusterGauge("index_querycache_cache_size_bytes", idx.getQueryCache().getCacheSize(), indexName, context);
+            catalog.setClusterGauge("index_querycache_evictions_count", idx.getQueryCache().getEvictions(), indexName, context);
+            catalog.setClusterGauge("index_querycache_hit_count", idx.getQueryCache().getHitCount(), indexName, context);
+            catalog.setClusterGauge("index_querycache_memory_size_bytes", idx.getQueryCache().getMemorySizeInBytes(), indexName, context);
+            catalog.setClusterGauge("index_querycache_miss_number", idx.getQueryCache().getMissCount(), indexName, context);
+            catalog.setClusterGauge("index_querycache_total_number", idx.getQueryCache().getTotalCount(), indexName, context);
+        }
+
+        if (idx.getFieldData() != null) {
+            catalog.setClusterGauge("index_fielddata_memory_size_bytes", idx.getFieldData().getMemorySizeInBytes(), indexName, context);
+            catalog.setClusterGauge("index_fielddata_evictions_count", idx.getFieldData().getEvictions(), indexName, context);
+        }
 
         // Percolator cache was removed in ES 5.x
         // See https://github.com/elastic/elasticsearch/commit/80fee8666ff5dd61ba29b175857cf42ce3b9eab9
 
-        catalog.setClusterGauge("index_completion_size_bytes", idx.getCompletion().getSizeInBytes(), indexName, context);
+        if (idx.getCompletion() != null) {
+            catalog.setClusterGauge("index_completion_size_bytes", idx.getCompletion().getSizeInBytes(), indexName, context);
+        }
 
-        catalog.setClusterGauge("index_segments_number", idx.getSegments().getCount(), indexName, context);
-        catalog.setClusterGauge("index_segments_memory_bytes", idx.getSegments().getBitsetMemoryInBytes(), "bitset", indexName, context);
-        catalog.setClusterGauge("index_segments_memory_bytes", idx.getSegments().getIndexWriterMemoryInBytes(), "indexwriter", indexName, context);
-        catalog.setClusterGauge("index_segments_memory_bytes", idx.getSegments().getVersionMapMemoryInBytes(), "versionmap", indexName, context);
+        if (idx.getSegments() != null) {
+            catalog.setClusterGauge("index_segments_number", idx.getSegments().getCount(), indexName, context);
+            catalog.setClusterGauge("index_segments_memory_bytes", idx.getSegments().getBitsetMemoryInBytes(), "bitset", indexName, context);
+            catalog.setClusterGauge("index_segments_memory_bytes", idx.getSegments().getIndexWriterMemoryInBytes(), "indexwriter", indexName, context);
+            catalog.setClusterGauge("index_segments_memory_bytes", idx.getSegments().getVersionMapMemoryInBytes(), "versionmap", indexName, context);
+        }
 
-        catalog.setClusterGauge("index_suggest_current_number", idx.getSearch().getTotal().getSuggestCurrent(), indexName, context);
-        catalog.setClusterGauge("index_suggest_count", idx.getSearch().getTotal().getSuggestCount(), indexName, context);
-        catalog.setClusterGauge("index_suggest_time_seconds", idx.getSearch().getTotal().getSuggestTimeInMillis() / 1000.0, indexName, context);
+        if (idx.getSearch() != null) {
+            catalog.setClusterGauge("index_suggest_current_number", idx.getSearch().getTotal().getSuggestCurrent(), indexName, context);
+            catalog.setClusterGauge("index_suggest_count", idx.getSearch().getTotal().getSuggestCount(), indexName, context);
+            catalog.setClusterGauge("index_suggest_time_seconds", idx.getSearch().getTotal().getSuggestTimeInMillis() / 1000.0, indexName, context);
+        }
 
-        catalog.setClusterGauge("index_requestcache_memory_size_bytes", idx.getRequestCache().getMemorySizeInBytes(), indexName, context);
-        catalog.setClusterGauge("index_requestcache_hit_count", idx.getRequestCache().getHitCount(), indexName, context);
-        catalog.setClusterGauge("index_requestcache_miss_count", idx.getRequestCache().getMissCount(), indexName, context);
-        catalog.setClusterGauge("index_requestcache_evictions_count", idx.getRequestCache().getEvictions(), indexName, context);
+        if (idx.getRequestCache() != null) {
+            catalog.setClusterGauge("index_requestcache_memory_size_bytes", idx.getRequestCache().getMemorySizeInBytes(), indexName, context);
+            catalog.setClusterGauge("index_requestcache_hit_count", idx.getRequestCache().getHitCount(), indexName, context);
+            catalog.setClusterGauge("index_requestcache_miss_count", idx.getRequestCache().getMissCount(), indexName, context);
+            catalog.setClusterGauge("index_requestcache_evictions_count", idx.getRequestCache().getEvictions(), indexName, context);
+        }
 
-        catalog.setClusterGauge("index_recovery_current_number", idx.getRecoveryStats().currentAsSource(), "source", indexName, context);
-        catalog.setClusterGauge("index_recovery_current_number", idx.getRecoveryStats().currentAsTarget(), "target", indexName, context);
-        catalog.setClusterGauge("index_recovery_throttle_time_seconds", idx.getRecoveryStats().throttleTime().getSeconds(), indexName, context);
+        if (idx.getRecoveryStats() != null) {
+            catalog.setClusterGauge("index_recovery_current_number", idx.getRecoveryStats().currentAsSource(), "source", indexName, context);
+            catalog.setClusterGauge("index_recovery_current_number", idx.getRecoveryStats().currentAsTarget(), "target", indexName, context);
+            catalog.setClusterGauge("index_recovery_throttle_time_seconds", idx.getRecoveryStats().throttleTime().getSeconds(), indexName, context);
+        }
 
-        catalog.setClusterGauge("index_translog_operations_number", idx.getTranslog().estimatedNumberOfOperations(), indexName, context);
-        catalog.setClusterGauge("index_translog_size_bytes", idx.getTranslog().getTranslogSizeInBytes(), indexName, context);
-        catalog.setClusterGauge("index_translog_uncommitted_operations_number", idx.getTranslog().getUncommittedOperations(), indexName, context);
-        catalog.setClusterGauge("index_translog_uncommitted_size_bytes", idx.getTranslog().getUncommittedSizeInBytes(), indexName, context);
+        if (idx.getTranslog() != null) {
+            catalog.setClusterGauge("index_translog_operations_number", idx.getTranslog().estimatedNumberOfOperations(), indexName, context);
+            catalog.setClusterGauge("index_translog_size_bytes", idx.getTranslog().getTranslogSizeInBytes(), indexName, context);
+            catalog.setClusterGauge("index_translog_uncommitted_operations_number", idx.getTranslog().getUncommittedOperations(), indexName, context);
+            catalog.setClusterGauge("index_translog_uncommitted_size_bytes", idx.getTranslog().getUncommittedSizeInBytes(), indexName, context);
+        }
 
-        catalog.setClusterGauge("index_warmer_current_number", idx.getWarmer().current(), indexName, context);
-        catalog.setClusterGauge("index_warmer_time_seconds", idx.getWarmer().totalTimeInMillis(), indexName, context);
-        catalog.setClusterGauge("index_warmer_count", idx.getWarmer().total(), indexName, context);
+        if (idx.getWarmer() != null) {
+            catalog.setClusterGauge("index_warmer_current_number", idx.getWarmer().current(), indexName, context);
+            catalog.setClusterGauge("index_warmer_time_seconds", idx.getWarmer().totalTimeInMillis(), indexName, context);
+            catalog.setClusterGauge("index_warmer_count", idx.getWarmer().total(), indexName, context);
+        }
     }
 
     private void registerTransportMetrics() {
@@ -574,15 +1156,15 @@ public class PrometheusMetricsCollector {
         catalog.registerNodeGauge("transport_tx_bytes_count", "Bytes sent");
     }
 
-    private void updateTransportMetrics(Tuple<String, String> nodeInfo, TransportStats ts) {
+    private void updateTransportMetrics(PrometheusMetricsCatalog.Shard shard, Tuple<String, String> nodeInfo, TransportStats ts) {
         if (ts != null) {
-            catalog.setNodeGauge(nodeInfo, "transport_server_open_number", ts.getServerOpen());
+            shard.setNodeGauge(nodeInfo, "transport_server_open_number", ts.getServerOpen());
 
-            catalog.setNodeGauge(nodeInfo, "transport_rx_packets_count", ts.getRxCount());
-            catalog.setNodeGauge(nodeInfo, "transport_tx_packets_count", ts.getTxCount());
+            shard.setNodeGauge(nodeInfo, "transport_rx_packets_count", ts.getRxCount());
+            shard.setNodeGauge(nodeInfo, "transport_tx_packets_count", ts.getTxCount());
 
-            catalog.setNodeGauge(nodeInfo, "transport_rx_bytes_count", ts.getRxSize().getBytes());
-            catalog.setNodeGauge(nodeInfo, "transport_tx_bytes_count", ts.getTxSize().getBytes());
+            shard.setNodeGauge(nodeInfo, "transport_rx_bytes_count", ts.getRxSize().getBytes());
+            shard.setNodeGauge(nodeInfo, "transport_tx_bytes_count", ts.getTxSize().getBytes());
         }
     }
 
@@ -591,10 +1173,10 @@ public class PrometheusMetricsCollector {
         catalog.registerNodeGauge("http_open_total_count", "Count of opened connections");
     }
 
-    private void updateHTTPMetrics(Tuple<String, String> nodeInfo, HttpStats http) {
+    private void updateHTTPMetrics(PrometheusMetricsCatalog.Shard shard, Tuple<String, String> nodeInfo, HttpStats http) {
         if (http != null) {
-            catalog.setNodeGauge(nodeInfo, "http_open_server_number", http.getServerOpen());
-            catalog.setNodeGauge(nodeInfo, "http_open_total_count", http.getTotalOpen());
+            shard.setNodeGauge(nodeInfo, "http_open_server_number", http.getServerOpen());
+            shard.setNodeGauge(nodeInfo, "http_open_total_count", http.getTotalOpen());
         }
     }
 
@@ -604,16 +1186,16 @@ public class PrometheusMetricsCollector {
         catalog.registerNodeGauge("threadpool_tasks_number", "Number of tasks in thread pool", "name", "type");
     }
 
-    private void updateThreadPoolMetrics(Tuple<String, String> nodeInfo, ThreadPoolStats tps) {
+    private void updateThreadPoolMetrics(PrometheusMetricsCatalog.Shard shard, Tuple<String, String> nodeInfo, ThreadPoolStats tps) {
         if (tps != null) {
             for (ThreadPoolStats.Stats st : tps) {
                 String name = st.getName();
-                catalog.setNodeGauge(nodeInfo, "threadpool_threads_number", st.getThreads(), name, "threads");
-                catalog.setNodeGauge(nodeInfo, "threadpool_threads_number", st.getActive(), name, "active");
-                catalog.setNodeGauge(nodeInfo, "threadpool_threads_number", st.getLargest(), name, "largest");
-                catalog.setNodeGauge(nodeInfo, "threadpool_threads_count", st.getCompleted(), name, "completed");
-                catalog.setNodeGauge(nodeInfo, "threadpool_threads_count", st.getRejected(), name, "rejected");
-                catalog.setNodeGauge(nodeInfo, "threadpool_tasks_number", st.getQueue(), name, "queue");
+                shard.setNodeGauge(nodeInfo, "threadpool_threads_number", st.getThreads(), name, "threads");
+                shard.setNodeGauge(nodeInfo, "threadpool_threads_number", st.getActive(), name, "active");
+                shard.setNodeGauge(nodeInfo, "threadpool_threads_number", st.getLargest(), name, "largest");
+                shard.setNodeGauge(nodeInfo, "threadpool_threads_count", st.getCompleted(), name, "completed");
+                shard.setNodeGauge(nodeInfo, "threadpool_threads_count", st.getRejected(), name, "rejected");
+                shard.setNodeGauge(nodeInfo, "threadpool_tasks_number", st.getQueue(), name, "queue");
             }
         }
     }
@@ -637,28 +1219,28 @@ public class PrometheusMetricsCollector {
     }
 
     @SuppressWarnings("checkstyle:LineLength")
-    private void updateIngestMetrics(Tuple<String, String> nodeInfo, IngestStats is) {
+    private void updateIngestMetrics(PrometheusMetricsCatalog.Shard shard, Tuple<String, String> nodeInfo, IngestStats is) {
         if (is != null) {
-            catalog.setNodeGauge(nodeInfo, "ingest_total_count", is.getTotalStats().getCount());
-            catalog.setNodeGauge(nodeInfo, "ingest_total_time_seconds", is.getTotalStats().getTotalTimeInMillis() / 1000.0);
-            catalog.setNodeGauge(nodeInfo, "ingest_total_current", is.getTotalStats().getCurrent());
-            catalog.setNodeGauge(nodeInfo, "ingest_total_failed_count", is.getTotalStats().getFailedCount());
+            shard.setNodeGauge(nodeInfo, "ingest_total_count", is.getTotalStats().getCount());
+            shard.setNodeGauge(nodeInfo, "ingest_total_time_seconds", is.getTotalStats().getTotalTimeInMillis() / 1000.0);
+            shard.setNodeGauge(nodeInfo, "ingest_total_current", is.getTotalStats().getCurrent());
+            shard.setNodeGauge(nodeInfo, "ingest_total_failed_count", is.getTotalStats().getFailedCount());
 
             for (IngestStats.PipelineStat st : is.getPipelineStats()) {
                 String pipeline = st.getPipelineId();
-                catalog.setNodeGauge(nodeInfo, "ingest_pipeline_total_count", st.getStats().getCount(), pipeline);
-                catalog.setNodeGauge(nodeInfo, "ingest_pipeline_total_time_seconds", st.getStats().getTotalTimeInMillis() / 1000.0, pipeline);
-                catalog.setNodeGauge(nodeInfo, "ingest_pipeline_total_current", st.getStats().getCurrent(), pipeline);
-                catalog.setNodeGauge(nodeInfo, "ingest_pipeline_total_failed_count", st.getStats().getFailedCount(), pipeline);
+                shard.setNodeGauge(nodeInfo, "ingest_pipeline_total_count", st.getStats().getCount(), pipeline);
+                shard.setNodeGauge(nodeInfo, "ingest_pipeline_total_time_seconds", st.getStats().getTotalTimeInMillis() / 1000.0, pipeline);
+                shard.setNodeGauge(nodeInfo, "ingest_pipeline_total_current", st.getStats().getCurrent(), pipeline);
+                shard.setNodeGauge(nodeInfo, "ingest_pipeline_total_failed_count", st.getStats().getFailedCount(), pipeline);
 
                 List<IngestStats.ProcessorStat> pss = is.getProcessorStats().get(pipeline);
                 if (pss != null) {
                     for (IngestStats.ProcessorStat ps : pss) {
                         String processor = ps.getName();
-                        catalog.setNodeGauge(nodeInfo, "ingest_pipeline_processor_total_count", ps.getStats().getCount(), pipeline, processor);
-                        catalog.setNodeGauge(nodeInfo, "ingest_pipeline_processor_total_time_seconds", ps.getStats().getTotalTimeInMillis() / 1000.0, pipeline, processor);
-                        catalog.setNodeGauge(nodeInfo, "ingest_pipeline_processor_total_current", ps.getStats().getCurrent(), pipeline, processor);
-                        catalog.setNodeGauge(nodeInfo, "ingest_pipeline_processor_total_failed_count", ps.getStats().getFailedCount(), pipeline, processor);
+                        shard.setNodeGauge(nodeInfo, "ingest_pipeline_processor_total_count", ps.getStats().getCount(), pipeline, processor);
+                        shard.setNodeGauge(nodeInfo, "ingest_pipeline_processor_total_time_seconds", ps.getStats().getTotalTimeInMillis() / 1000.0, pipeline, processor);
+                        shard.setNodeGauge(nodeInfo, "ingest_pipeline_processor_total_current", ps.getStats().getCurrent(), pipeline, processor);
+                        shard.setNodeGauge(nodeInfo, "ingest_pipeline_processor_total_failed_count", ps.getStats().getFailedCount(), pipeline, processor);
                     }
                 }
             }
@@ -672,14 +1254,14 @@ public class PrometheusMetricsCollector {
         catalog.registerNodeGauge("circuitbreaker_tripped_count", "Circuit breaker tripped count", "name");
     }
 
-    private void updateCircuitBreakersMetrics(Tuple<String, String> nodeInfo, AllCircuitBreakerStats acbs) {
+    private void updateCircuitBreakersMetrics(PrometheusMetricsCatalog.Shard shard, Tuple<String, String> nodeInfo, AllCircuitBreakerStats acbs) {
         if (acbs != null) {
             for (CircuitBreakerStats cbs : acbs.getAllStats()) {
                 String name = cbs.getName();
-                catalog.setNodeGauge(nodeInfo, "circuitbreaker_estimated_bytes", cbs.getEstimated(), name);
-                catalog.setNodeGauge(nodeInfo, "circuitbreaker_limit_bytes", cbs.getLimit(), name);
-                catalog.setNodeGauge(nodeInfo, "circuitbreaker_overhead_ratio", cbs.getOverhead(), name);
-                catalog.setNodeGauge(nodeInfo, "circuitbreaker_tripped_count", cbs.getTrippedCount(), name);
+                shard.setNodeGauge(nodeInfo, "circuitbreaker_estimated_bytes", cbs.getEstimated(), name);
+                shard.setNodeGauge(nodeInfo, "circuitbreaker_limit_bytes", cbs.getLimit(), name);
+                shard.setNodeGauge(nodeInfo, "circuitbreaker_overhead_ratio", cbs.getOverhead(), name);
+                shard.setNodeGauge(nodeInfo, "circuitbreaker_tripped_count", cbs.getTrippedCount(), name);
             }
         }
     }
@@ -689,10 +1271,10 @@ public class PrometheusMetricsCollector {
         catalog.registerNodeGauge("script_compilations_count", "Number of scripts compilations");
     }
 
-    private void updateScriptMetrics(Tuple<String, String> nodeInfo, ScriptStats sc) {
+    private void updateScriptMetrics(PrometheusMetricsCatalog.Shard shard, Tuple<String, String> nodeInfo, ScriptStats sc) {
         if (sc != null) {
-            catalog.setNodeGauge(nodeInfo, "script_cache_evictions_count", sc.getCacheEvictions());
-            catalog.setNodeGauge(nodeInfo, "script_compilations_count", sc.getCompilations());
+            shard.setNodeGauge(nodeInfo, "script_cache_evictions_count", sc.getCacheEvictions());
+            shard.setNodeGauge(nodeInfo, "script_compilations_count", sc.getCompilations());
         }
     }
 
@@ -706,15 +1288,15 @@ public class PrometheusMetricsCollector {
         catalog.registerNodeGauge("process_file_descriptors_max_number", "Max file descriptors");
     }
 
-    private void updateProcessMetrics(Tuple<String, String> nodeInfo, ProcessStats ps) {
+    private void updateProcessMetrics(PrometheusMetricsCatalog.Shard shard, Tuple<String, String> nodeInfo, ProcessStats ps) {
         if (ps != null) {
-            catalog.setNodeGauge(nodeInfo, "process_cpu_percent", ps.getCpu().getPercent());
-            catalog.setNodeGauge(nodeInfo, "process_cpu_time_seconds", ps.getCpu().getTotal().getSeconds());
+            shard.setNodeGauge(nodeInfo, "process_cpu_percent", ps.getCpu().getPercent());
+            shard.setNodeGauge(nodeInfo, "process_cpu_time_seconds", ps.getCpu().getTotal().getSeconds());
 
-            catalog.setNodeGauge(nodeInfo, "process_mem_total_virtual_bytes", ps.getMem().getTotalVirtual().getBytes());
+            shard.setNodeGauge(nodeInfo, "process_mem_total_virtual_bytes", ps.getMem().getTotalVirtual().getBytes());
 
-            catalog.setNodeGauge(nodeInfo, "process_file_descriptors_open_number", ps.getOpenFileDescriptors());
-            catalog.setNodeGauge(nodeInfo, "process_file_descriptors_max_number", ps.getMaxFileDescriptors());
+            shard.setNodeGauge(nodeInfo, "process_file_descriptors_open_number", ps.getOpenFileDescriptors());
+            shard.setNodeGauge(nodeInfo, "process_file_descriptors_max_number", ps.getMaxFileDescriptors());
         }
     }
 
@@ -748,44 +1330,44 @@ public class PrometheusMetricsCollector {
         catalog.registerNodeGauge("jvm_classes_unloaded_number", "Count of unloaded classes");
     }
 
-    private void updateJVMMetrics(Tuple<String, String> nodeInfo, JvmStats jvm) {
+    private void updateJVMMetrics(PrometheusMetricsCatalog.Shard shard, Tuple<String, String> nodeInfo, JvmStats jvm) {
         if (jvm != null) {
-            catalog.setNodeGauge(nodeInfo, "jvm_uptime_seconds", jvm.getUptime().getSeconds());
+            shard.setNodeGauge(nodeInfo, "jvm_uptime_seconds", jvm.getUptime().getSeconds());
 
-            catalog.setNodeGauge(nodeInfo, "jvm_mem_heap_max_bytes", jvm.getMem().getHeapMax().getBytes());
-            catalog.setNodeGauge(nodeInfo, "jvm_mem_heap_used_bytes", jvm.getMem().getHeapUsed().getBytes());
-            catalog.setNodeGauge(nodeInfo, "jvm_mem_heap_used_percent", jvm.getMem().getHeapUsedPercent());
-            catalog.setNodeGauge(nodeInfo, "jvm_mem_nonheap_used_bytes", jvm.getMem().getNonHeapUsed().getBytes());
-            catalog.setNodeGauge(nodeInfo, "jvm_mem_heap_committed_bytes", jvm.getMem().getHeapCommitted().getBytes());
-            catalog.setNodeGauge(nodeInfo, "jvm_mem_nonheap_committed_bytes", jvm.getMem().getNonHeapCommitted().getBytes());
+            shard.setNodeGauge(nodeInfo, "jvm_mem_heap_max_bytes", jvm.getMem().getHeapMax().getBytes());
+            shard.setNodeGauge(nodeInfo, "jvm_mem_heap_used_bytes", jvm.getMem().getHeapUsed().getBytes());
+            shard.setNodeGauge(nodeInfo, "jvm_mem_heap_used_percent", jvm.getMem().getHeapUsedPercent());
+            shard.setNodeGauge(nodeInfo, "jvm_mem_nonheap_used_bytes", jvm.getMem().getNonHeapUsed().getBytes());
+            shard.setNodeGauge(nodeInfo, "jvm_mem_heap_committed_bytes", jvm.getMem().getHeapCommitted().getBytes());
+            shard.setNodeGauge(nodeInfo, "jvm_mem_nonheap_committed_bytes", jvm.getMem().getNonHeapCommitted().getBytes());
 
             for (JvmStats.MemoryPool mp : jvm.getMem()) {
                 String name = mp.getName();
-                catalog.setNodeGauge(nodeInfo, "jvm_mem_pool_max_bytes", mp.getMax().getBytes(), name);
-                catalog.setNodeGauge(nodeInfo, "jvm_mem_pool_peak_max_bytes", mp.getPeakMax().getBytes(), name);
-                catalog.setNodeGauge(nodeInfo, "jvm_mem_pool_used_bytes", mp.getUsed().getBytes(), name);
-                catalog.setNodeGauge(nodeInfo, "jvm_mem_pool_peak_used_bytes", mp.getPeakUsed().getBytes(), name);
+                shard.setNodeGauge(nodeInfo, "jvm_mem_pool_max_bytes", mp.getMax().getBytes(), name);
+                shard.setNodeGauge(nodeInfo, "jvm_mem_pool_peak_max_bytes", mp.getPeakMax().getBytes(), name);
+                shard.setNodeGauge(nodeInfo, "jvm_mem_pool_used_bytes", mp.getUsed().getBytes(), name);
+                shard.setNodeGauge(nodeInfo, "jvm_mem_pool_peak_used_bytes", mp.getPeakUsed().getBytes(), name);
             }
 
-            catalog.setNodeGauge(nodeInfo, "jvm_threads_number", jvm.getThreads().getCount());
-            catalog.setNodeGauge(nodeInfo, "jvm_threads_peak_number", jvm.getThreads().getPeakCount());
+            shard.setNodeGauge(nodeInfo, "jvm_threads_number", jvm.getThreads().getCount());
+            shard.setNodeGauge(nodeInfo, "jvm_threads_peak_number", jvm.getThreads().getPeakCount());
 
             for (JvmStats.GarbageCollector gc : jvm.getGc().getCollectors()) {
                 String name = gc.getName();
-                catalog.setNodeGauge(nodeInfo, "jvm_gc_collection_count", gc.getCollectionCount(), name);
-                catalog.setNodeGauge(nodeInfo, "jvm_gc_collection_time_seconds", gc.getCollectionTime().getSeconds(), name);
+                shard.setNodeGauge(nodeInfo, "jvm_gc_collection_count", gc.getCollectionCount(), name);
+                shard.setNodeGauge(nodeInfo, "jvm_gc_collection_time_seconds", gc.getCollectionTime().getSeconds(), name);
             }
 
             for (JvmStats.BufferPool bp : jvm.getBufferPools()) {
                 String name = bp.getName();
-                catalog.setNodeGauge(nodeInfo, "jvm_bufferpool_number", bp.getCount(), name);
-                catalog.setNodeGauge(nodeInfo, "jvm_bufferpool_total_capacity_bytes", bp.getTotalCapacity().getBytes(), name);
-                catalog.setNodeGauge(nodeInfo, "jvm_bufferpool_used_bytes", bp.getUsed().getBytes(), name);
+                shard.setNodeGauge(nodeInfo, "jvm_bufferpool_number", bp.getCount(), name);
+                shard.setNodeGauge(nodeInfo, "jvm_bufferpool_total_capacity_bytes", bp.getTotalCapacity().getBytes(), name);
+                shard.setNodeGauge(nodeInfo, "jvm_bufferpool_used_bytes", bp.getUsed().getBytes(), name);
             }
             if (jvm.getClasses() != null) {
-                catalog.setNodeGauge(nodeInfo, "jvm_classes_loaded_number", jvm.getClasses().getLoadedClassCount());
-                catalog.setNodeGauge(nodeInfo, "jvm_classes_total_loaded_number", jvm.getClasses().getTotalLoadedClassCount());
-                catalog.setNodeGauge(nodeInfo, "jvm_classes_unloaded_number", jvm.getClasses().getUnloadedClassCount());
+                shard.setNodeGauge(nodeInfo, "jvm_classes_loaded_number", jvm.getClasses().getLoadedClassCount());
+                shard.setNodeGauge(nodeInfo, "jvm_classes_total_loaded_number", jvm.getClasses().getTotalLoadedClassCount());
+                shard.setNodeGauge(nodeInfo, "jvm_classes_unloaded_number", jvm.getClasses().getUnloadedClassCount());
             }
         }
     }
@@ -808,30 +1390,30 @@ public class PrometheusMetricsCollector {
         catalog.registerNodeGauge("os_swap_total_bytes", "Total swap size");
     }
 
-    private void updateOsMetrics(Tuple<String, String> nodeInfo, OsStats os) {
+    private void updateOsMetrics(PrometheusMetricsCatalog.Shard shard, Tuple<String, String> nodeInfo, OsStats os) {
         if (os != null) {
             if (os.getCpu() != null) {
-                catalog.setNodeGauge(nodeInfo, "os_cpu_percent", os.getCpu().getPercent());
+                shard.setNodeGauge(nodeInfo, "os_cpu_percent", os.getCpu().getPercent());
                 double[] loadAverage = os.getCpu().getLoadAverage();
                 if (loadAverage != null && loadAverage.length == 3) {
-                    catalog.setNodeGauge(nodeInfo, "os_load_average_one_minute", os.getCpu().getLoadAverage()[0]);
-                    catalog.setNodeGauge(nodeInfo, "os_load_average_five_minutes", os.getCpu().getLoadAverage()[1]);
-                    catalog.setNodeGauge(nodeInfo, "os_load_average_fifteen_minutes", os.getCpu().getLoadAverage()[2]);
+                    shard.setNodeGauge(nodeInfo, "os_load_average_one_minute", os.getCpu().getLoadAverage()[0]);
+                    shard.setNodeGauge(nodeInfo, "os_load_average_five_minutes", os.getCpu().getLoadAverage()[1]);
+                    shard.setNodeGauge(nodeInfo, "os_load_average_fifteen_minutes", os.getCpu().getLoadAverage()[2]);
                 }
             }
 
             if (os.getMem() != null) {
-                catalog.setNodeGauge(nodeInfo, "os_mem_free_bytes", os.getMem().getFree().getBytes());
-                catalog.setNodeGauge(nodeInfo, "os_mem_free_percent", os.getMem().getFreePercent());
-                catalog.setNodeGauge(nodeInfo, "os_mem_used_bytes", os.getMem().getUsed().getBytes());
-                catalog.setNodeGauge(nodeInfo, "os_mem_used_percent", os.getMem().getUsedPercent());
-                catalog.setNodeGauge(nodeInfo, "os_mem_total_bytes", os.getMem().getTotal().getBytes());
+                shard.setNodeGauge(nodeInfo, "os_mem_free_bytes", os.getMem().getFree().getBytes());
+                shard.setNodeGauge(nodeInfo, "os_mem_free_percent", os.getMem().getFreePercent());
+                shard.setNodeGauge(nodeInfo, "os_mem_used_bytes", os.getMem().getUsed().getBytes());
+                shard.setNodeGauge(nodeInfo, "os_mem_used_percent", os.getMem().getUsedPercent());
+                shard.setNodeGauge(nodeInfo, "os_mem_total_bytes", os.getMem().getTotal().getBytes());
             }
 
             if (os.getSwap() != null) {
-                catalog.setNodeGauge(nodeInfo, "os_swap_free_bytes", os.getSwap().getFree().getBytes());
-                catalog.setNodeGauge(nodeInfo, "os_swap_used_bytes", os.getSwap().getUsed().getBytes());
-                catalog.setNodeGauge(nodeInfo, "os_swap_total_bytes", os.getSwap().getTotal().getBytes());
+                shard.setNodeGauge(nodeInfo, "os_swap_free_bytes", os.getSwap().getFree().getBytes());
+                shard.setNodeGauge(nodeInfo, "os_swap_used_bytes", os.getSwap().getUsed().getBytes());
+                shard.setNodeGauge(nodeInfo, "os_swap_total_bytes", os.getSwap().getTotal().getBytes());
             }
         }
     }
@@ -852,28 +1434,28 @@ public class PrometheusMetricsCollector {
         catalog.registerNodeGauge("fs_io_total_write_bytes", "Total IO write bytes");
     }
 
-    private void updateFsMetrics(Tuple<String, String> nodeInfo, FsInfo fs) {
+    private void updateFsMetrics(PrometheusMetricsCatalog.Shard shard, Tuple<String, String> nodeInfo, FsInfo fs) {
         if (fs != null) {
-            catalog.setNodeGauge(nodeInfo, "fs_total_total_bytes", fs.getTotal().getTotal().getBytes());
-            catalog.setNodeGauge(nodeInfo, "fs_total_available_bytes", fs.getTotal().getAvailable().getBytes());
-            catalog.setNodeGauge(nodeInfo, "fs_total_free_bytes", fs.getTotal().getFree().getBytes());
+            shard.setNodeGauge(nodeInfo, "fs_total_total_bytes", fs.getTotal().getTotal().getBytes());
+            shard.setNodeGauge(nodeInfo, "fs_total_available_bytes", fs.getTotal().getAvailable().getBytes());
+            shard.setNodeGauge(nodeInfo, "fs_total_free_bytes", fs.getTotal().getFree().getBytes());
 
             for (FsInfo.Path fspath : fs) {
                 String path = fspath.getPath();
                 String mount = fspath.getMount();
                 String type = fspath.getType();
-                catalog.setNodeGauge(nodeInfo, "fs_path_total_bytes", fspath.getTotal().getBytes(), path, mount, type);
-                catalog.setNodeGauge(nodeInfo, "fs_path_available_bytes", fspath.getAvailable().getBytes(), path, mount, type);
-                catalog.setNodeGauge(nodeInfo, "fs_path_free_bytes", fspath.getFree().getBytes(), path, mount, type);
+                shard.setNodeGauge(nodeInfo, "fs_path_total_bytes", fspath.getTotal().getBytes(), path, mount, type);
+                shard.setNodeGauge(nodeInfo, "fs_path_available_bytes", fspath.getAvailable().getBytes(), path, mount, type);
+                shard.setNodeGauge(nodeInfo, "fs_path_free_bytes", fspath.getFree().getBytes(), path, mount, type);
             }
 
             FsInfo.IoStats ioStats = fs.getIoStats();
             if (ioStats != null) {
-                catalog.setNodeGauge(nodeInfo, "fs_io_total_operations", fs.getIoStats().getTotalOperations());
-                catalog.setNodeGauge(nodeInfo, "fs_io_total_read_operations", fs.getIoStats().getTotalReadOperations());
-                catalog.setNodeGauge(nodeInfo, "fs_io_total_write_operations", fs.getIoStats().getTotalWriteOperations());
-                catalog.setNodeGauge(nodeInfo, "fs_io_total_read_bytes", fs.getIoStats().getTotalReadKilobytes() * 1024);
-                catalog.setNodeGauge(nodeInfo, "fs_io_total_write_bytes", fs.getIoStats().getTotalWriteKilobytes() * 1024);
+                shard.setNodeGauge(nodeInfo, "fs_io_total_operations", fs.getIoStats().getTotalOperations());
+                shard.setNodeGauge(nodeInfo, "fs_io_total_read_operations", fs.getIoStats().getTotalReadOperations());
+                shard.setNodeGauge(nodeInfo, "fs_io_total_write_operations", fs.getIoStats().getTotalWriteOperations());
+                shard.setNodeGauge(nodeInfo, "fs_io_total_read_bytes", fs.getIoStats().getTotalReadKilobytes() * 1024);
+                shard.setNodeGauge(nodeInfo, "fs_io_total_write_bytes", fs.getIoStats().getTotalWriteKilobytes() * 1024);
             }
         }
     }
@@ -914,6 +1496,10 @@ public class PrometheusMetricsCollector {
      *
      * Metrics gathering requests were originated on one particular node called "originating" node.
      *
+     * All gauge series collected by previous call are dropped first, hence only series of nodes and indices present
+     * in the given response data are exposed. Callers sharing the collector must not update it concurrently
+     * and must not render it while it is being updated.
+     *
      * @param originNodeName            Originating node name.
      * @param originNodeId              Originating node ID.
      * @param clusterHealthResponse     ClusterHealthResponse
@@ -926,38 +1512,115 @@ public class PrometheusMetricsCollector {
                               NodeStats[] nodeStats,
                               @Nullable IndicesStatsResponse indicesStats,
                               @Nullable ClusterStatsData clusterStatsData) {
-        Summary.Timer timer = catalog.startSummaryTimer(
-                new Tuple<>(originNodeName, originNodeId),
-                "metrics_generate_time_seconds");
+        long startNanos = System.nanoTime();
+
+        // read the state of metric groups only once, families of newly enabled groups are registered first
+        Set<MetricGroup> groups = selection.nodeGroups(prometheusSettings.getPrometheusMetricGroups());
+        registerMetricGroups(groups);
 
-        updateClusterMetrics(clusterHealthResponse);
+        catalog.setSeriesLimits(prometheusSettings.getPrometheusSeriesLimit(),
+                prometheusSettings.getPrometheusSeriesFamilyLimit());
+        catalog.clearGauges();
+        if (selection.includes(MetricSelection.CLUSTER)) {
+            updateClusterMetrics(clusterHealthResponse);
+        }
+        if (selection.includesNodeGroups()) {
+            updateNodesMetrics(nodeStats, groups);
+        }
+        if (prometheusSettings.getPrometheusIndices() && selection.includes(MetricSelection.INDEX)) {
+            updatePerIndexMetrics(clusterHealthResponse, indicesStats);
+        }
+        if (prometheusSettings.getPrometheusClusterSettings() && selection.includes(MetricSelection.CLUSTER_SETTINGS)) {
+            updateESSettings(clusterStatsData);
+        }
+
+        Tuple<String, String> originNodeInfo = new Tuple<>(originNodeName, originNodeId);
+        catalog.setSeriesCounts(originNodeInfo, "metrics_series_number");
+        catalog.setDroppedSeriesCounts(originNodeInfo, "metrics_series_dropped_count");
+        catalog.observeSummaryTimer(
+                originNodeInfo,
+                "metrics_generate_time_seconds",
+                (System.nanoTime() - startNanos) / 1E9);
+    }
+
+    // Node level metrics are populated into shards of the catalog, every node always goes to the same shard (by its ID)
+    // so its series keep their slots across rounds. The shards are populated in parallel unless there are only
+    // a few nodes or the series limits are set (the limits need consistent view of the whole catalog).
+    private void updateNodesMetrics(NodeStats[] nodeStats, Set<MetricGroup> groups) {
+        int shardCount = catalog.shardCount();
+        List<List<NodeStats>> shardNodes = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            shardNodes.add(new ArrayList<>());
+        }
         for (NodeStats s : nodeStats) {
+            shardNodes.get(catalog.shardOf(s.getNode().getId())).add(s);
+        }
+        if (executor == null || shardCount == 1 || nodeStats.length < parallelNodesThreshold || catalog.hasSeriesLimits()) {
+            for (int i = 0; i < shardCount; i++) {
+                updateShardMetrics(catalog.shard(i), shardNodes.get(i), groups);
+            }
+            return;
+        }
+
+        List<ParallelTasks.Task<RuntimeException>> tasks = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            PrometheusMetricsCatalog.Shard shard = catalog.shard(i);
+            List<NodeStats> nodes = shardNodes.get(i);
+            tasks.add(() -> updateShardMetrics(shard, nodes, groups));
+        }
+        ParallelTasks.runAll(executor, tasks);
+    }
+
+    private void updateShardMetrics(PrometheusMetricsCatalog.Shard shard, List<NodeStats> nodes, Set<MetricGroup> groups) {
+        for (NodeStats s : nodes) {
             // For each node we create specific context and pass it to all metrics
             String nodeName = s.getNode().getName();
             String nodeID = s.getNode().getId();
             Tuple<String, String> nodeInfo = new Tuple<>(nodeName, nodeID);
 
-            updateNodeMetrics(nodeInfo, s);
-            updateIndicesMetrics(nodeInfo, s.getIndices());
-            updateTransportMetrics(nodeInfo, s.getTransport());
-            updateHTTPMetrics(nodeInfo, s.getHttp());
-            updateThreadPoolMetrics(nodeInfo, s.getThreadPool());
-            updateIngestMetrics(nodeInfo, s.getIngestStats());
-            updateCircuitBreakersMetrics(nodeInfo, s.getBreaker());
-            updateScriptMetrics(nodeInfo, s.getScriptStats());
-            updateProcessMetrics(nodeInfo, s.getProcess());
-            updateJVMMetrics(nodeInfo, s.getJvm());
-            updateOsMetrics(nodeInfo, s.getOs());
-            updateFsMetrics(nodeInfo, s.getFs());
-        }
-        if (isPrometheusIndices) {
-            updatePerIndexMetrics(clusterHealthResponse, indicesStats);
-        }
-        if (isPrometheusClusterSettings) {
-            updateESSettings(clusterStatsData);
+            updateNodeMetrics(shard, nodeInfo, s);
+            // The groups could have changed since the stats were requested, update only the registered ones.
+            if (groups.contains(MetricGroup.INDICES)) {
+                updateIndicesMetrics(shard, nodeInfo, s.getIndices());
+            }
+            if (groups.contains(MetricGroup.TRANSPORT)) {
+                updateTransportMetrics(shard, nodeInfo, s.getTransport());
+            }
+            if (groups.contains(MetricGroup.HTTP)) {
+                updateHTTPMetrics(shard, nodeInfo, s.getHttp());
+            }
+            if (groups.contains(MetricGroup.THREAD_POOL)) {
+                updateThreadPoolMetrics(shard, nodeInfo, s.getThreadPool());
+            }
+            if (groups.contains(MetricGroup.INGEST)) {
+                updateIngestMetrics(shard, nodeInfo, s.getIngestStats());
+            }
+            if (groups.contains(MetricGroup.BREAKER)) {
+                updateCircuitBreakersMetrics(shard, nodeInfo, s.getBreaker());
+            }
+            if (groups.contains(MetricGroup.SCRIPT)) {
+                updateScriptMetrics(shard, nodeInfo, s.getScriptStats());
+            }
+            if (groups.contains(MetricGroup.PROCESS)) {
+                updateProcessMetrics(shard, nodeInfo, s.getProcess());
+            }
+            if (groups.contains(MetricGroup.JVM)) {
+                updateJVMMetrics(shard, nodeInfo, s.getJvm());
+            }
+            if (groups.contains(MetricGroup.OS)) {
+                updateOsMetrics(shard, nodeInfo, s.getOs());
+            }
+            if (groups.contains(MetricGroup.FS)) {
+                updateFsMetrics(shard, nodeInfo, s.getFs());
+            }
         }
+    }
 
-        timer.observeDuration();
+    /**
+     * @param parallelNodesThreshold Minimal number of nodes whose metrics are populated in parallel
+     */
+    void setParallelNodesThreshold(int parallelNodesThreshold) {
+        this.parallelNodesThreshold = parallelNodesThreshold;
     }
 
     /**
@@ -969,11 +1632,13 @@ public class PrometheusMetricsCollector {
     }
 
     /**
-     * @see PrometheusMetricsCatalog#toTextFormat()
-     * @return A text representation of the catalog
-     * @throws IOException If creating the text representation goes wrong
+     * Large catalogs are rendered in parallel by the executor populating the catalog.
+     * @see PrometheusMetricsCatalog#write(ExpositionFormat, OutputStream, Executor)
+     * @param format Exposition format
+     * @param out Output stream to write the representation of the catalog into
+     * @throws IOException If creating the representation goes wrong
      */
-    public String getTextContent() throws IOException {
-        return this.catalog.toTextFormat();
+    public void writeContent(ExpositionFormat format, OutputStream out) throws IOException {
+        this.catalog.write(format, out, executor);
     }
 }
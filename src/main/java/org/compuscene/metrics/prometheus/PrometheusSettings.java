@@ -17,11 +17,24 @@
 
 package org.compuscene.metrics.prometheus;
 
+import org.opensearch.action.admin.indices.stats.CommonStatsFlags;
 import org.opensearch.action.support.IndicesOptions;
 import org.opensearch.core.common.Strings;
 import org.opensearch.common.settings.ClusterSettings;
 import org.opensearch.common.settings.Setting;
 import org.opensearch.common.settings.Settings;
+import org.opensearch.common.unit.TimeValue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
 
 /**
  * Dynamically updatable Prometheus exporter settings.
@@ -52,6 +65,53 @@ public class PrometheusSettings {
     static String PROMETHEUS_NODES_FILTER_KEY = "prometheus.nodes.filter";
     static String PROMETHEUS_SELECTED_INDICES_KEY = "prometheus.indices_filter.selected_indices";
     static String PROMETHEUS_SELECTED_OPTION_KEY = "prometheus.indices_filter.selected_option";
+    static String PROMETHEUS_RESPONSE_COMPRESSION_KEY = "prometheus.response.compression";
+    static String PROMETHEUS_CACHE_TTL_KEY = "prometheus.cache.ttl";
+    static String PROMETHEUS_PARALLEL_REQUESTS_KEY = "prometheus.requests.parallel";
+    static String PROMETHEUS_REQUESTS_TIMEOUT_KEY = "prometheus.requests.timeout";
+    static String PROMETHEUS_SERIES_LIMIT_KEY = "prometheus.series.limit";
+    static String PROMETHEUS_SERIES_FAMILY_LIMIT_KEY = "prometheus.series.family_limit";
+    static String PROMETHEUS_COLLECTION_INTERVAL_KEY = "prometheus.collection.interval";
+    static String PROMETHEUS_METRIC_GROUPS_KEY = "prometheus.nodes.metric_groups";
+    static String PROMETHEUS_INDICES_STATS_GROUPS_KEY = "prometheus.indices_stats.groups";
+    static String PROMETHEUS_INDICES_STATS_CONTEXTS_KEY = "prometheus.indices_stats.contexts";
+    static String PROMETHEUS_INDICES_STATS_PARTITIONED_KEY = "prometheus.indices_stats.partitioned";
+    static String PROMETHEUS_INDICES_STATS_TOP_K_KEY = "prometheus.indices_stats.top_k";
+    static String PROMETHEUS_INDICES_STATS_TOP_K_BY_KEY = "prometheus.indices_stats.top_k_by";
+    static String PROMETHEUS_INDEX_GROUPS_PATTERNS_KEY = "prometheus.index_groups.patterns";
+    static String PROMETHEUS_INDEX_GROUPS_STRIP_DATE_SUFFIX_KEY = "prometheus.index_groups.strip_date_suffix";
+    static String PROMETHEUS_INDEX_GROUPS_SUPPRESS_INDICES_KEY = "prometheus.index_groups.suppress_indices";
+
+    /**
+     * Groups of index level stats (see {@link CommonStatsFlags.Flag}) that are exported as per-index metrics.
+     */
+    private static final EnumSet<CommonStatsFlags.Flag> INDICES_STATS_GROUPS = EnumSet.of(
+            CommonStatsFlags.Flag.Docs,
+            CommonStatsFlags.Flag.Store,
+            CommonStatsFlags.Flag.Indexing,
+            CommonStatsFlags.Flag.Get,
+            CommonStatsFlags.Flag.Search,
+            CommonStatsFlags.Flag.Merge,
+            CommonStatsFlags.Flag.Refresh,
+            CommonStatsFlags.Flag.Flush,
+            CommonStatsFlags.Flag.QueryCache,
+            CommonStatsFlags.Flag.FieldData,
+            CommonStatsFlags.Flag.Completion,
+            CommonStatsFlags.Flag.Segments,
+            CommonStatsFlags.Flag.RequestCache,
+            CommonStatsFlags.Flag.Recovery,
+            CommonStatsFlags.Flag.Translog,
+            CommonStatsFlags.Flag.Warmer);
+
+    /**
+     * Context of per-index metrics holding stats of all the shards.
+     */
+    public static final String INDICES_STATS_CONTEXT_TOTAL = "total";
+
+    /**
+     * Context of per-index metrics holding stats of primary shards.
+     */
+    public static final String INDICES_STATS_CONTEXT_PRIMARIES = "primaries";
 
     /**
      * This setting is used configure weather to expose cluster settings metrics or not. The default value is true.
@@ -95,11 +155,179 @@ public class PrometheusSettings {
                     String.valueOf(INDEX_FILTER_OPTIONS.STRICT_EXPAND_OPEN_FORBID_CLOSED),
                     INDEX_FILTER_OPTIONS::valueOf, Setting.Property.Dynamic, Setting.Property.NodeScope);
 
+    /**
+     * This setting is used configure weather to compress the metrics response if the client accepts it
+     * (gzip or deflate content encoding). The default value is true.
+     * Can be configured in opensearch.yml file or update dynamically under key {@link #PROMETHEUS_RESPONSE_COMPRESSION_KEY}.
+     */
+    public static final Setting<Boolean> PROMETHEUS_RESPONSE_COMPRESSION =
+            Setting.boolSetting(PROMETHEUS_RESPONSE_COMPRESSION_KEY, true,
+                    Setting.Property.Dynamic, Setting.Property.NodeScope);
+
+    /**
+     * This setting is used configure for how long the collected metrics can be served to subsequent requests.
+     * The default value is 0 (every request collects fresh metrics, concurrent requests still share one collection).
+     * Can be configured in opensearch.yml file or update dynamically under key {@link #PROMETHEUS_CACHE_TTL_KEY}.
+     */
+    public static final Setting<TimeValue> PROMETHEUS_CACHE_TTL =
+            Setting.timeSetting(PROMETHEUS_CACHE_TTL_KEY, TimeValue.ZERO, TimeValue.ZERO,
+                    Setting.Property.Dynamic, Setting.Property.NodeScope);
+
+    /**
+     * This setting is used configure weather to send the requests gathering statistics in parallel or one by one.
+     * The default value is false (sequential order, it is more gentle to overloaded clusters).
+     * Can be configured in opensearch.yml file or update dynamically under key {@link #PROMETHEUS_PARALLEL_REQUESTS_KEY}.
+     */
+    public static final Setting<Boolean> PROMETHEUS_PARALLEL_REQUESTS =
+            Setting.boolSetting(PROMETHEUS_PARALLEL_REQUESTS_KEY, false,
+                    Setting.Property.Dynamic, Setting.Property.NodeScope);
+
+    /**
+     * This setting is used configure the timeout of each request gathering statistics. The default value is 0
+     * (no timeout). Stats of nodes that do not respond in time are missing, the other stats are still exposed.
+     * Can be configured in opensearch.yml file or update dynamically under key {@link #PROMETHEUS_REQUESTS_TIMEOUT_KEY}.
+     */
+    public static final Setting<TimeValue> PROMETHEUS_REQUESTS_TIMEOUT =
+            Setting.timeSetting(PROMETHEUS_REQUESTS_TIMEOUT_KEY, TimeValue.ZERO, TimeValue.ZERO,
+                    Setting.Property.Dynamic, Setting.Property.NodeScope);
+
+    /**
+     * This setting is used configure the maximum number of exposed series of all the metric families.
+     * The default value is 0 (no limit). Series exceeding the limit are dropped and counted.
+     * Can be configured in opensearch.yml file or update dynamically under key {@link #PROMETHEUS_SERIES_LIMIT_KEY}.
+     */
+    public static final Setting<Integer> PROMETHEUS_SERIES_LIMIT =
+            Setting.intSetting(PROMETHEUS_SERIES_LIMIT_KEY, 0, 0,
+                    Setting.Property.Dynamic, Setting.Property.NodeScope);
+
+    /**
+     * This setting is used configure the maximum number of exposed series of each metric family.
+     * The default value is 0 (no limit). Series exceeding the limit are dropped and counted.
+     * Can be configured in opensearch.yml file or update dynamically under key {@link #PROMETHEUS_SERIES_FAMILY_LIMIT_KEY}.
+     */
+    public static final Setting<Integer> PROMETHEUS_SERIES_FAMILY_LIMIT =
+            Setting.intSetting(PROMETHEUS_SERIES_FAMILY_LIMIT_KEY, 0, 0,
+                    Setting.Property.Dynamic, Setting.Property.NodeScope);
+
+    /**
+     * This setting is used configure the interval of collecting the metrics in the background. The default value
+     * is 0 (metrics are collected when requested). If positive, requests are served from the last collected metrics.
+     * Can be configured in opensearch.yml file or update dynamically under key {@link #PROMETHEUS_COLLECTION_INTERVAL_KEY}.
+     */
+    public static final Setting<TimeValue> PROMETHEUS_COLLECTION_INTERVAL =
+            Setting.timeSetting(PROMETHEUS_COLLECTION_INTERVAL_KEY, TimeValue.ZERO, TimeValue.ZERO,
+                    Setting.Property.Dynamic, Setting.Property.NodeScope);
+
+    /**
+     * This setting is used configure which groups of node metrics to expose (see {@link MetricGroup}).
+     * The default value is all the groups. Only the stats of listed groups are requested from the nodes.
+     * Can be configured in opensearch.yml file or update dynamically under key {@link #PROMETHEUS_METRIC_GROUPS_KEY}.
+     */
+    public static final Setting<List<MetricGroup>> PROMETHEUS_METRIC_GROUPS =
+            Setting.listSetting(PROMETHEUS_METRIC_GROUPS_KEY,
+                    Arrays.stream(MetricGroup.values()).map(MetricGroup::groupName).collect(Collectors.toList()),
+                    MetricGroup::fromGroupName, Setting.Property.Dynamic, Setting.Property.NodeScope);
+
+    /**
+     * This setting is used configure which groups of index level stats to expose as per-index metrics
+     * (docs, store, indexing, get, search, merge, refresh, flush, query_cache, fielddata, completion, segments,
+     * request_cache, recovery, translog, warmer). The default value is all the groups. Only the listed stats
+     * are requested from the shards.
+     * Can be configured in opensearch.yml file or update dynamically under key {@link #PROMETHEUS_INDICES_STATS_GROUPS_KEY}.
+     */
+    public static final Setting<List<CommonStatsFlags.Flag>> PROMETHEUS_INDICES_STATS_GROUPS =
+            Setting.listSetting(PROMETHEUS_INDICES_STATS_GROUPS_KEY,
+                    INDICES_STATS_GROUPS.stream().map(CommonStatsFlags.Flag::getRestName).collect(Collectors.toList()),
+                    PrometheusSettings::parseIndicesStatsGroup, Setting.Property.Dynamic, Setting.Property.NodeScope);
+
+    /**
+     * This setting is used configure which contexts of per-index metrics to expose ("total" for all the shards,
+     * "primaries" for primary shards only). The default value is both contexts.
+     * Can be configured in opensearch.yml file or update dynamically under key {@link #PROMETHEUS_INDICES_STATS_CONTEXTS_KEY}.
+     */
+    public static final Setting<List<String>> PROMETHEUS_INDICES_STATS_CONTEXTS =
+            Setting.listSetting(PROMETHEUS_INDICES_STATS_CONTEXTS_KEY,
+                    Arrays.asList(INDICES_STATS_CONTEXT_TOTAL, INDICES_STATS_CONTEXT_PRIMARIES),
+                    PrometheusSettings::parseIndicesStatsContext, Setting.Property.Dynamic, Setting.Property.NodeScope);
+
+    /**
+     * This setting is used configure weather each node exposes per-index metrics only of indices it owns (it holds
+     * the primary of shard 0) or of all the indices. The default value is false (all the indices).
+     * Can be configured in opensearch.yml file or update dynamically under key {@link #PROMETHEUS_INDICES_STATS_PARTITIONED_KEY}.
+     */
+    public static final Setting<Boolean> PROMETHEUS_INDICES_STATS_PARTITIONED =
+            Setting.boolSetting(PROMETHEUS_INDICES_STATS_PARTITIONED_KEY, false,
+                    Setting.Property.Dynamic, Setting.Property.NodeScope);
+
+    /**
+     * This setting is used configure the maximum number of indices exposing per-index metrics. Only the top indices
+     * (see {@link #PROMETHEUS_INDICES_STATS_TOP_K_BY}) are exposed, the stats of remaining indices are summed into
+     * the "_other" index. The default value is 0 (all the indices are exposed).
+     * Can be configured in opensearch.yml file or update dynamically under key {@link #PROMETHEUS_INDICES_STATS_TOP_K_KEY}.
+     */
+    public static final Setting<Integer> PROMETHEUS_INDICES_STATS_TOP_K =
+            Setting.intSetting(PROMETHEUS_INDICES_STATS_TOP_K_KEY, 0, 0,
+                    Setting.Property.Dynamic, Setting.Property.NodeScope);
+
+    /**
+     * This setting is used configure the ranking of the top indices (see {@link IndexRanking}).
+     * The default value is "store_size".
+     * Can be configured in opensearch.yml file or update dynamically under key {@link #PROMETHEUS_INDICES_STATS_TOP_K_BY_KEY}.
+     */
+    public static final Setting<IndexRanking> PROMETHEUS_INDICES_STATS_TOP_K_BY =
+            new Setting<>(PROMETHEUS_INDICES_STATS_TOP_K_BY_KEY, IndexRanking.STORE_SIZE.rankingName(),
+                    IndexRanking::fromRankingName, Setting.Property.Dynamic, Setting.Property.NodeScope);
+
+    /**
+     * This setting is used configure regular expressions grouping indices into index groups. An index belongs to
+     * the group of the first expression matching the whole index name, the group is named by the first capturing
+     * group of the expression (or by the expression itself if it has no capturing group). The default value is
+     * empty list (no index groups).
+     * Can be configured in opensearch.yml file or update dynamically under key {@link #PROMETHEUS_INDEX_GROUPS_PATTERNS_KEY}.
+     */
+    public static final Setting<List<String>> PROMETHEUS_INDEX_GROUPS_PATTERNS =
+            Setting.listSetting(PROMETHEUS_INDEX_GROUPS_PATTERNS_KEY, Collections.emptyList(),
+                    PrometheusSettings::parseIndexGroupPattern, Setting.Property.Dynamic, Setting.Property.NodeScope);
+
+    /**
+     * This setting is used configure weather indices not matching any index group pattern are grouped by their
+     * name without date (or rollover counter) suffix. The default value is false.
+     * Can be configured in opensearch.yml file or update dynamically under key {@link #PROMETHEUS_INDEX_GROUPS_STRIP_DATE_SUFFIX_KEY}.
+     */
+    public static final Setting<Boolean> PROMETHEUS_INDEX_GROUPS_STRIP_DATE_SUFFIX =
+            Setting.boolSetting(PROMETHEUS_INDEX_GROUPS_STRIP_DATE_SUFFIX_KEY, false,
+                    Setting.Property.Dynamic, Setting.Property.NodeScope);
+
+    /**
+     * This setting is used configure weather to expose per-index metrics of indices belonging to an index group
+     * or only the metrics of the group. The default value is false (per-index metrics are exposed).
+     * Can be configured in opensearch.yml file or update dynamically under key {@link #PROMETHEUS_INDEX_GROUPS_SUPPRESS_INDICES_KEY}.
+     */
+    public static final Setting<Boolean> PROMETHEUS_INDEX_GROUPS_SUPPRESS_INDICES =
+            Setting.boolSetting(PROMETHEUS_INDEX_GROUPS_SUPPRESS_INDICES_KEY, false,
+                    Setting.Property.Dynamic, Setting.Property.NodeScope);
+
     private volatile boolean clusterSettings;
     private volatile boolean indices;
     private volatile String nodesFilter;
     private volatile String selectedIndices;
     private volatile INDEX_FILTER_OPTIONS selectedOption;
+    private volatile boolean responseCompression;
+    private volatile TimeValue cacheTtl;
+    private volatile boolean parallelRequests;
+    private volatile TimeValue requestsTimeout;
+    private volatile int seriesLimit;
+    private volatile int seriesFamilyLimit;
+    private volatile TimeValue collectionInterval;
+    private volatile Set<MetricGroup> metricGroups;
+    private volatile Set<CommonStatsFlags.Flag> indicesStatsGroups;
+    private volatile Set<String> indicesStatsContexts;
+    private volatile boolean indicesStatsPartitioned;
+    private volatile int indicesStatsTopK;
+    private volatile IndexRanking indicesStatsTopKBy;
+    private volatile List<Pattern> indexGroupsPatterns;
+    private volatile boolean indexGroupsStripDateSuffix;
+    private volatile boolean indexGroupsSuppressIndices;
 
     /**
      * A constructor.
@@ -112,11 +340,43 @@ public class PrometheusSettings {
         setPrometheusNodesFilter(PROMETHEUS_NODES_FILTER.get(settings));
         setPrometheusSelectedIndices(PROMETHEUS_SELECTED_INDICES.get(settings));
         setPrometheusSelectedOption(PROMETHEUS_SELECTED_OPTION.get(settings));
+        setPrometheusResponseCompression(PROMETHEUS_RESPONSE_COMPRESSION.get(settings));
+        setPrometheusCacheTtl(PROMETHEUS_CACHE_TTL.get(settings));
+        setPrometheusParallelRequests(PROMETHEUS_PARALLEL_REQUESTS.get(settings));
+        setPrometheusRequestsTimeout(PROMETHEUS_REQUESTS_TIMEOUT.get(settings));
+        setPrometheusSeriesLimit(PROMETHEUS_SERIES_LIMIT.get(settings));
+        setPrometheusSeriesFamilyLimit(PROMETHEUS_SERIES_FAMILY_LIMIT.get(settings));
+        setPrometheusCollectionInterval(PROMETHEUS_COLLECTION_INTERVAL.get(settings));
+        setPrometheusMetricGroups(PROMETHEUS_METRIC_GROUPS.get(settings));
+        setPrometheusIndicesStatsGroups(PROMETHEUS_INDICES_STATS_GROUPS.get(settings));
+        setPrometheusIndicesStatsContexts(PROMETHEUS_INDICES_STATS_CONTEXTS.get(settings));
+        setPrometheusIndicesStatsPartitioned(PROMETHEUS_INDICES_STATS_PARTITIONED.get(settings));
+        setPrometheusIndicesStatsTopK(PROMETHEUS_INDICES_STATS_TOP_K.get(settings));
+        setPrometheusIndicesStatsTopKBy(PROMETHEUS_INDICES_STATS_TOP_K_BY.get(settings));
+        setPrometheusIndexGroupsPatterns(PROMETHEUS_INDEX_GROUPS_PATTERNS.get(settings));
+        setPrometheusIndexGroupsStripDateSuffix(PROMETHEUS_INDEX_GROUPS_STRIP_DATE_SUFFIX.get(settings));
+        setPrometheusIndexGroupsSuppressIndices(PROMETHEUS_INDEX_GROUPS_SUPPRESS_INDICES.get(settings));
         clusterSettings.addSettingsUpdateConsumer(PROMETHEUS_CLUSTER_SETTINGS, this::setPrometheusClusterSettings);
         clusterSettings.addSettingsUpdateConsumer(PROMETHEUS_INDICES, this::setPrometheusIndices);
         clusterSettings.addSettingsUpdateConsumer(PROMETHEUS_NODES_FILTER, this::setPrometheusNodesFilter);
         clusterSettings.addSettingsUpdateConsumer(PROMETHEUS_SELECTED_INDICES, this::setPrometheusSelectedIndices);
         clusterSettings.addSettingsUpdateConsumer(PROMETHEUS_SELECTED_OPTION, this::setPrometheusSelectedOption);
+        clusterSettings.addSettingsUpdateConsumer(PROMETHEUS_RESPONSE_COMPRESSION, this::setPrometheusResponseCompression);
+        clusterSettings.addSettingsUpdateConsumer(PROMETHEUS_CACHE_TTL, this::setPrometheusCacheTtl);
+        clusterSettings.addSettingsUpdateConsumer(PROMETHEUS_PARALLEL_REQUESTS, this::setPrometheusParallelRequests);
+        clusterSettings.addSettingsUpdateConsumer(PROMETHEUS_REQUESTS_TIMEOUT, this::setPrometheusRequestsTimeout);
+        clusterSettings.addSettingsUpdateConsumer(PROMETHEUS_SERIES_LIMIT, this::setPrometheusSeriesLimit);
+        clusterSettings.addSettingsUpdateConsumer(PROMETHEUS_SERIES_FAMILY_LIMIT, this::setPrometheusSeriesFamilyLimit);
+        clusterSettings.addSettingsUpdateConsumer(PROMETHEUS_COLLECTION_INTERVAL, this::setPrometheusCollectionInterval);
+        clusterSettings.addSettingsUpdateConsumer(PROMETHEUS_METRIC_GROUPS, this::setPrometheusMetricGroups);
+        clusterSettings.addSettingsUpdateConsumer(PROMETHEUS_INDICES_STATS_GROUPS, this::setPrometheusIndicesStatsGroups);
+        clusterSettings.addSettingsUpdateConsumer(PROMETHEUS_INDICES_STATS_CONTEXTS, this::setPrometheusIndicesStatsContexts);
+        clusterSettings.addSettingsUpdateConsumer(PROMETHEUS_INDICES_STATS_PARTITIONED, this::setPrometheusIndicesStatsPartitioned);
+        clusterSettings.addSettingsUpdateConsumer(PROMETHEUS_INDICES_STATS_TOP_K, this::setPrometheusIndicesStatsTopK);
+        clusterSettings.addSettingsUpdateConsumer(PROMETHEUS_INDICES_STATS_TOP_K_BY, this::setPrometheusIndicesStatsTopKBy);
+        clusterSettings.addSettingsUpdateConsumer(PROMETHEUS_INDEX_GROUPS_PATTERNS, this::setPrometheusIndexGroupsPatterns);
+        clusterSettings.addSettingsUpdateConsumer(PROMETHEUS_INDEX_GROUPS_STRIP_DATE_SUFFIX, this::setPrometheusIndexGroupsStripDateSuffix);
+        clusterSettings.addSettingsUpdateConsumer(PROMETHEUS_INDEX_GROUPS_SUPPRESS_INDICES, this::setPrometheusIndexGroupsSuppressIndices);
     }
 
     private void setPrometheusClusterSettings(boolean flag) {
@@ -137,6 +397,104 @@ public class PrometheusSettings {
         this.selectedOption = selectedOption;
     }
 
+    private void setPrometheusResponseCompression(boolean flag) {
+        this.responseCompression = flag;
+    }
+
+    private void setPrometheusCacheTtl(TimeValue cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+
+    private void setPrometheusParallelRequests(boolean flag) {
+        this.parallelRequests = flag;
+    }
+
+    private void setPrometheusRequestsTimeout(TimeValue timeout) {
+        this.requestsTimeout = timeout;
+    }
+
+    private void setPrometheusSeriesLimit(int limit) {
+        this.seriesLimit = limit;
+    }
+
+    private void setPrometheusSeriesFamilyLimit(int limit) {
+        this.seriesFamilyLimit = limit;
+    }
+
+    private void setPrometheusCollectionInterval(TimeValue collectionInterval) {
+        this.collectionInterval = collectionInterval;
+    }
+
+    private void setPrometheusMetricGroups(List<MetricGroup> metricGroups) {
+        Set<MetricGroup> groups = EnumSet.noneOf(MetricGroup.class);
+        groups.addAll(metricGroups);
+        this.metricGroups = Collections.unmodifiableSet(groups);
+    }
+
+    private void setPrometheusIndicesStatsGroups(List<CommonStatsFlags.Flag> indicesStatsGroups) {
+        Set<CommonStatsFlags.Flag> groups = EnumSet.noneOf(CommonStatsFlags.Flag.class);
+        groups.addAll(indicesStatsGroups);
+        this.indicesStatsGroups = Collections.unmodifiableSet(groups);
+    }
+
+    private void setPrometheusIndicesStatsContexts(List<String> indicesStatsContexts) {
+        this.indicesStatsContexts = Collections.unmodifiableSet(new HashSet<>(indicesStatsContexts));
+    }
+
+    private void setPrometheusIndicesStatsPartitioned(boolean flag) {
+        this.indicesStatsPartitioned = flag;
+    }
+
+    private void setPrometheusIndicesStatsTopK(int topK) {
+        this.indicesStatsTopK = topK;
+    }
+
+    private void setPrometheusIndicesStatsTopKBy(IndexRanking ranking) {
+        this.indicesStatsTopKBy = ranking;
+    }
+
+    private void setPrometheusIndexGroupsPatterns(List<String> patterns) {
+        this.indexGroupsPatterns = Collections.unmodifiableList(
+                patterns.stream().map(Pattern::compile).collect(Collectors.toList()));
+    }
+
+    private void setPrometheusIndexGroupsStripDateSuffix(boolean flag) {
+        this.indexGroupsStripDateSuffix = flag;
+    }
+
+    private void setPrometheusIndexGroupsSuppressIndices(boolean flag) {
+        this.indexGroupsSuppressIndices = flag;
+    }
+
+    private static String parseIndexGroupPattern(String value) {
+        try {
+            Pattern.compile(value);
+        } catch (PatternSyntaxException e) {
+            throw new IllegalArgumentException("Invalid index group pattern [" + value + "]", e);
+        }
+        return value;
+    }
+
+    private static CommonStatsFlags.Flag parseIndicesStatsGroup(String value) {
+        String name = value.trim().toLowerCase(Locale.ROOT);
+        for (CommonStatsFlags.Flag flag : INDICES_STATS_GROUPS) {
+            if (flag.getRestName().equals(name)) {
+                return flag;
+            }
+        }
+        throw new IllegalArgumentException("Unknown indices stats group [" + value + "], expected one of "
+                + INDICES_STATS_GROUPS.stream().map(CommonStatsFlags.Flag::getRestName).collect(Collectors.toList()));
+    }
+
+    private static String parseIndicesStatsContext(String value) {
+        String name = value.trim().toLowerCase(Locale.ROOT);
+        if (!INDICES_STATS_CONTEXT_TOTAL.equals(name) && !INDICES_STATS_CONTEXT_PRIMARIES.equals(name)) {
+            throw new IllegalArgumentException("Unknown indices stats context [" + value + "], expected one of ["
+                    + INDICES_STATS_CONTEXT_TOTAL + ", " + INDICES_STATS_CONTEXT_PRIMARIES + "]");
+        }
+        return name;
+    }
+
     /**
      * Get value of settings key {@link #PROMETHEUS_CLUSTER_SETTINGS_KEY}.
      * @return boolean value of the key
@@ -167,6 +525,143 @@ public class PrometheusSettings {
         return Strings.splitStringByCommaToArray(this.selectedIndices);
     }
 
+    /**
+     * Get value of settings key {@link #PROMETHEUS_RESPONSE_COMPRESSION_KEY}.
+     * @return boolean value of the key
+     */
+    public boolean getPrometheusResponseCompression() {
+        return this.responseCompression;
+    }
+
+    /**
+     * Get value of settings key {@link #PROMETHEUS_CACHE_TTL_KEY}.
+     * @return time value of the key
+     */
+    public TimeValue getPrometheusCacheTtl() {
+        return this.cacheTtl;
+    }
+
+    /**
+     * Get value of settings key {@link #PROMETHEUS_PARALLEL_REQUESTS_KEY}.
+     * @return boolean value of the key
+     */
+    public boolean getPrometheusParallelRequests() {
+        return this.parallelRequests;
+    }
+
+    /**
+     * Get value of settings key {@link #PROMETHEUS_REQUESTS_TIMEOUT_KEY}.
+     * @return TimeValue value of the key, zero if there is no timeout
+     */
+    public TimeValue getPrometheusRequestsTimeout() {
+        return this.requestsTimeout;
+    }
+
+    /**
+     * Get value of settings key {@link #PROMETHEUS_SERIES_LIMIT_KEY}.
+     * @return int value of the key, 0 if there is no limit
+     */
+    public int getPrometheusSeriesLimit() {
+        return this.seriesLimit;
+    }
+
+    /**
+     * Get value of settings key {@link #PROMETHEUS_SERIES_FAMILY_LIMIT_KEY}.
+     * @return int value of the key, 0 if there is no limit
+     */
+    public int getPrometheusSeriesFamilyLimit() {
+        return this.seriesFamilyLimit;
+    }
+
+    /**
+     * Get value of settings key {@link #PROMETHEUS_COLLECTION_INTERVAL_KEY}.
+     * @return time value of the key
+     */
+    public TimeValue getPrometheusCollectionInterval() {
+        return this.collectionInterval;
+    }
+
+    /**
+     * Get value of settings key {@link #PROMETHEUS_METRIC_GROUPS_KEY}.
+     * @return set of enabled metric groups
+     */
+    public Set<MetricGroup> getPrometheusMetricGroups() {
+        return this.metricGroups;
+    }
+
+    /**
+     * Get value of settings key {@link #PROMETHEUS_INDICES_STATS_GROUPS_KEY}.
+     * @return new instance of stats flags holding the enabled groups
+     */
+    public CommonStatsFlags getPrometheusIndicesStatsFlags() {
+        // Flags created from empty array would mean all the flags, start from none instead.
+        CommonStatsFlags flags = new CommonStatsFlags().clear();
+        for (CommonStatsFlags.Flag flag : this.indicesStatsGroups) {
+            flags.set(flag, true);
+        }
+        // The top indices can not be selected without the stats they are ranked by.
+        if (this.indicesStatsTopK > 0) {
+            flags.set(this.indicesStatsTopKBy.flag(), true);
+        }
+        return flags;
+    }
+
+    /**
+     * Get value of settings key {@link #PROMETHEUS_INDICES_STATS_CONTEXTS_KEY}.
+     * @return set of enabled contexts
+     */
+    public Set<String> getPrometheusIndicesStatsContexts() {
+        return this.indicesStatsContexts;
+    }
+
+    /**
+     * Get value of settings key {@link #PROMETHEUS_INDICES_STATS_PARTITIONED_KEY}.
+     * @return boolean value of the key
+     */
+    public boolean getPrometheusIndicesStatsPartitioned() {
+        return this.indicesStatsPartitioned;
+    }
+
+    /**
+     * Get value of settings key {@link #PROMETHEUS_INDICES_STATS_TOP_K_KEY}.
+     * @return int value of the key, 0 if all the indices are exposed
+     */
+    public int getPrometheusIndicesStatsTopK() {
+        return this.indicesStatsTopK;
+    }
+
+    /**
+     * Get value of settings key {@link #PROMETHEUS_INDICES_STATS_TOP_K_BY_KEY}.
+     * @return ranking of the top indices
+     */
+    public IndexRanking getPrometheusIndicesStatsTopKBy() {
+        return this.indicesStatsTopKBy;
+    }
+
+    /**
+     * Get value of settings key {@link #PROMETHEUS_INDEX_GROUPS_PATTERNS_KEY}.
+     * @return compiled patterns, the same instance is returned until the setting is updated
+     */
+    public List<Pattern> getPrometheusIndexGroupsPatterns() {
+        return this.indexGroupsPatterns;
+    }
+
+    /**
+     * Get value of settings key {@link #PROMETHEUS_INDEX_GROUPS_STRIP_DATE_SUFFIX_KEY}.
+     * @return boolean value of the key
+     */
+    public boolean getPrometheusIndexGroupsStripDateSuffix() {
+        return this.indexGroupsStripDateSuffix;
+    }
+
+    /**
+     * Get value of settings key {@link #PROMETHEUS_INDEX_GROUPS_SUPPRESS_INDICES_KEY}.
+     * @return boolean value of the key
+     */
+    public boolean getPrometheusIndexGroupsSuppressIndices() {
+        return this.indexGroupsSuppressIndices;
+    }
+
     /**
      * Get IndicesOptions of settings key {@link #PROMETHEUS_SELECTED_OPTION_KEY}.
      * @return IndicesOptions of the key
@@ -0,0 +1,292 @@
+/*
+ * Copyright [2016] [Vincent VAN HOLLEBEKE]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.compuscene.metrics.prometheus;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Minimal encoder of the Prometheus protocol buffer exposition format
+ * (see <a href="https://github.com/prometheus/client_model/blob/master/io/prometheus/client/metrics.proto">metrics.proto</a>).
+ * <p>
+ * Only the subset needed by {@link PrometheusMetricsCatalog} is implemented (gauges and summaries without quantiles),
+ * messages are encoded by hand so that the plugin does not need protobuf runtime.
+ * Every {@code MetricFamily} message is prefixed by its length encoded as varint ("delimited" encoding).
+ * <p>
+ * The output is staged in a buffer and written to the stream in blocks, the stream is typically a compressing one
+ * where every single byte write is expensive. This class is not thread safe, every thread rendering the catalog
+ * needs its own instance.
+ */
+final class ProtobufFormat {
+
+    // Wire types
+    private static final int VARINT = 0;
+    private static final int FIXED64 = 1;
+    private static final int LENGTH_DELIMITED = 2;
+
+    // io.prometheus.client.MetricType
+    private static final int TYPE_GAUGE = 1;
+    private static final int TYPE_SUMMARY = 2;
+
+    // Size of encoded Gauge message: tag + fixed64 value
+    private static final int GAUGE_SIZE = 1 + 8;
+
+    // Longest encoding of a single char (surrogate pair) or varint
+    private static final int MAX_CHAR_SIZE = 4;
+    private static final int MAX_VARINT_SIZE = 10;
+
+    private final OutputStream out;
+    private final String clusterName;
+    private final int clusterNameSize;
+    private final byte[] buffer = new byte[8192];
+    private int position = 0;
+
+    // Sizes of the live series of the family being written, computed when sizing the family message
+    // and reused when writing it: encoded size of every Metric message and UTF-8 size of every label value.
+    private int[] metricSizes = new int[64];
+    private int[] valueSizes = new int[256];
+
+    /**
+     * @param out Output stream, it is not closed by the encoder
+     * @param clusterName Value of the "cluster" label of all the samples
+     */
+    ProtobufFormat(OutputStream out, String clusterName) {
+        this.out = out;
+        this.clusterName = clusterName;
+        this.clusterNameSize = utf8Size(clusterName);
+    }
+
+    /**
+     * Write single metric family as a length delimited {@code MetricFamily} message.
+     * Families without any live series are skipped.
+     */
+    void writeFamily(MetricFamily family, int generation) throws IOException {
+        String[] labelNames = family.labelNames();
+        int tupleLength = labelNames.length - 1;
+        int[] nameSizes = new int[labelNames.length];
+        for (int i = 0; i < labelNames.length; i++) {
+            nameSizes[i] = utf8Size(labelNames[i]);
+        }
+        int metricsSize = 0;
+        int liveSeries = 0;
+        for (int s = 0; s < family.storeCount(); s++) {
+            MetricFamily store = family.store(s);
+            for (int slot = 0; slot < store.size(); slot++) {
+                if (store.isLive(slot, generation)) {
+                    if (liveSeries == metricSizes.length) {
+                        metricSizes = Arrays.copyOf(metricSizes, liveSeries * 2);
+                    }
+                    int valuesEnd = (liveSeries + 1) * tupleLength;
+                    if (valuesEnd > valueSizes.length) {
+                        valueSizes = Arrays.copyOf(valueSizes, Math.max(valuesEnd, valueSizes.length * 2));
+                    }
+                    int metricSize = metricSize(store, slot, nameSizes, liveSeries * tupleLength);
+                    metricSizes[liveSeries++] = metricSize;
+                    metricsSize += 1 + varintSize(metricSize) + metricSize;
+                }
+            }
+        }
+        if (liveSeries == 0) {
+            return;
+        }
+        int nameSize = utf8Size(family.name());
+        int helpSize = utf8Size(family.help());
+        int familySize = 1 + varintSize(nameSize) + nameSize
+                + 1 + varintSize(helpSize) + helpSize
+                + 1 + 1
+                + metricsSize;
+
+        writeVarint(familySize);
+        writeString(1, family.name(), nameSize);
+        writeString(2, family.help(), helpSize);
+        writeTag(3, VARINT);
+        writeVarint(family.type() == MetricFamily.Type.SUMMARY ? TYPE_SUMMARY : TYPE_GAUGE);
+        int series = 0;
+        for (int s = 0; s < family.storeCount(); s++) {
+            MetricFamily store = family.store(s);
+            for (int slot = 0; slot < store.size(); slot++) {
+                if (store.isLive(slot, generation)) {
+                    writeTag(4, LENGTH_DELIMITED);
+                    writeVarint(metricSizes[series]);
+                    writeMetric(store, slot, labelNames, nameSizes, series * tupleLength);
+                    series++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the buffered output to the stream, the stream is not flushed.
+     */
+    void flush() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    // Computes the size of the Metric message and records UTF-8 sizes of its label values from the given offset
+    private int metricSize(MetricFamily family, int slot, int[] nameSizes, int valuesOffset) {
+        String[] tuple = family.tuple(slot);
+        int size = labelSize(nameSizes[0], clusterNameSize);
+        for (int i = 0; i < tuple.length; i++) {
+            int valueSize = utf8Size(tuple[i]);
+            valueSizes[valuesOffset + i] = valueSize;
+            size += labelSize(nameSizes[i + 1], valueSize);
+        }
+        int valueSize = family.type() == MetricFamily.Type.SUMMARY ? summarySize(family, slot) : GAUGE_SIZE;
+        size += 1 + varintSize(valueSize) + valueSize;
+        return size;
+    }
+
+    private void writeMetric(MetricFamily family, int slot, String[] labelNames, int[] nameSizes, int valuesOffset)
+            throws IOException {
+        String[] tuple = family.tuple(slot);
+        writeLabelPair(labelNames[0], nameSizes[0], clusterName, clusterNameSize);
+        for (int i = 0; i < tuple.length; i++) {
+            writeLabelPair(labelNames[i + 1], nameSizes[i + 1], tuple[i], valueSizes[valuesOffset + i]);
+        }
+        if (family.type() == MetricFamily.Type.SUMMARY) {
+            // Metric.summary = 4
+            writeTag(4, LENGTH_DELIMITED);
+            writeVarint(summarySize(family, slot));
+            // Summary.sample_count = 1, Summary.sample_sum = 2
+            writeTag(1, VARINT);
+            writeVarint((long) family.count(slot));
+            writeTag(2, FIXED64);
+            writeDouble(family.value(slot));
+        } else {
+            // Metric.gauge = 2, Gauge.value = 1
+            writeTag(2, LENGTH_DELIMITED);
+            writeVarint(GAUGE_SIZE);
+            writeTag(1, FIXED64);
+            writeDouble(family.value(slot));
+        }
+    }
+
+    private static int summarySize(MetricFamily family, int slot) {
+        return 1 + varintSize((long) family.count(slot)) + 1 + 8;
+    }
+
+    // Size of the LabelPair message
+    private static int labelPairSize(int nameSize, int valueSize) {
+        return 1 + varintSize(nameSize) + nameSize + 1 + varintSize(valueSize) + valueSize;
+    }
+
+    // Size of the LabelPair message including its tag and length in the Metric message
+    private static int labelSize(int nameSize, int valueSize) {
+        int pairSize = labelPairSize(nameSize, valueSize);
+        return 1 + varintSize(pairSize) + pairSize;
+    }
+
+    private void writeLabelPair(String name, int nameSize, String value, int valueSize) throws IOException {
+        // Metric.label = 1
+        writeTag(1, LENGTH_DELIMITED);
+        writeVarint(labelPairSize(nameSize, valueSize));
+        // LabelPair.name = 1, LabelPair.value = 2
+        writeString(1, name, nameSize);
+        writeString(2, value, valueSize);
+    }
+
+    private void writeString(int field, String value, int utf8Size) throws IOException {
+        writeTag(field, LENGTH_DELIMITED);
+        writeVarint(utf8Size);
+        for (int i = 0; i < value.length(); i++) {
+            ensure(MAX_CHAR_SIZE);
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate, the same replacement as String#getBytes uses
+                buffer[position++] = '?';
+            } else {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static int utf8Size(String value) {
+        int size = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                size += 1;
+            } else if (c < 0x800) {
+                size += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                size += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                size += 1;
+            } else {
+                size += 3;
+            }
+        }
+        return size;
+    }
+
+    private void writeTag(int field, int wireType) throws IOException {
+        ensure(1);
+        buffer[position++] = (byte) ((field << 3) | wireType);
+    }
+
+    private void writeVarint(long value) throws IOException {
+        ensure(MAX_VARINT_SIZE);
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+
+    private void writeDouble(double value) throws IOException {
+        ensure(8);
+        long bits = Double.doubleToRawLongBits(value);
+        for (int i = 0; i < 8; i++) {
+            buffer[position++] = (byte) bits;
+            bits >>>= 8;
+        }
+    }
+
+    private void ensure(int length) throws IOException {
+        if (position + length > buffer.length) {
+            flush();
+        }
+    }
+}
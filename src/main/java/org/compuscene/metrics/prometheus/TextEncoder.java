@@ -0,0 +1,257 @@
+/*
+ * Copyright [2016] [Vincent VAN HOLLEBEKE]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.compuscene.metrics.prometheus;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Byte level encoder of the text exposition formats (0.0.4 text format and OpenMetrics).
+ * <p>
+ * Parts of the output that do not change between renders are encoded to UTF-8 bytes only once and cached
+ * in the {@link MetricFamily}: the {@code # HELP} and {@code # TYPE} lines, the metric name followed by the
+ * "cluster" label of every sample suffix and the escaped labels of every series. Sample values are formatted
+ * straight into the output buffer, integral values (most of the gauges) are formatted without allocation.
+ * <p>
+ * The output is identical to what {@code io.prometheus.client.exporter.common.TextFormat} produces.
+ * This class is not thread safe, every thread rendering the catalog needs its own instance.
+ */
+final class TextEncoder {
+
+    /**
+     * Suffix of the sample name.
+     */
+    enum Suffix {
+        NONE(""),
+        COUNT("_count"),
+        SUM("_sum"),
+        CREATED("_created");
+
+        private final String suffix;
+
+        Suffix(String suffix) {
+            this.suffix = suffix;
+        }
+    }
+
+    // Variants of the family header cached in MetricFamily
+    static final int HEADER_TEXT = 0;
+    static final int HEADER_OPENMETRICS = 1;
+    static final int HEADER_TEXT_CREATED = 2;
+    static final int HEADER_VARIANTS = 3;
+
+    private static final byte[] EOF = "# EOF\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NAN = "NaN".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] POSITIVE_INFINITY = "+Inf".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NEGATIVE_INFINITY = "-Inf".getBytes(StandardCharsets.UTF_8);
+    // Double.toString() formats integral values below this limit as plain digits followed by ".0"
+    private static final double PLAIN_INTEGRAL_LIMIT = 1e7;
+
+    private final OutputStream out;
+    private final String escapedClusterName;
+    private final boolean openMetrics;
+    private final byte[] buffer = new byte[8192];
+    private int position = 0;
+
+    /**
+     * @param out Output stream, it is not closed by the encoder
+     * @param clusterName Value of the "cluster" label of all the samples
+     * @param openMetrics True to encode OpenMetrics, false to encode the 0.0.4 text format
+     */
+    TextEncoder(OutputStream out, String clusterName, boolean openMetrics) {
+        this.out = out;
+        this.escapedClusterName = escapeLabelValue(clusterName);
+        this.openMetrics = openMetrics;
+    }
+
+    /**
+     * Write the {@code # HELP} and {@code # TYPE} lines of the family.
+     */
+    void writeHeader(MetricFamily family) throws IOException {
+        int variant = openMetrics ? HEADER_OPENMETRICS : HEADER_TEXT;
+        byte[] header = family.encodedHeader(variant);
+        if (header == null) {
+            header = encodeHeader(family.name(), family.help(), family.type().typeName(), openMetrics);
+            family.encodedHeader(variant, header);
+        }
+        write(header);
+    }
+
+    /**
+     * Write the header of the gauge holding {@code _created} samples of a summary (0.0.4 text format only).
+     */
+    void writeCreatedHeader(MetricFamily family) throws IOException {
+        byte[] header = family.encodedHeader(HEADER_TEXT_CREATED);
+        if (header == null) {
+            header = encodeHeader(family.name() + Suffix.CREATED.suffix, family.help(),
+                    MetricFamily.Type.GAUGE.typeName(), false);
+            family.encodedHeader(HEADER_TEXT_CREATED, header);
+        }
+        write(header);
+    }
+
+    /**
+     * Write single sample of the series.
+     * @param store Store holding the series
+     * @param suffix Suffix of the sample name
+     * @param slot Slot of the series
+     * @param value Sample value
+     */
+    void writeSample(MetricFamily store, Suffix suffix, int slot, double value) throws IOException {
+        byte[] name = store.encodedName(suffix.ordinal());
+        if (name == null) {
+            name = (store.name() + suffix.suffix + '{' + store.labelNames()[0] + "=\"" + escapedClusterName + '"')
+                    .getBytes(StandardCharsets.UTF_8);
+            store.encodedName(suffix.ordinal(), name);
+        }
+        byte[] labels = store.encodedLabels(slot);
+        if (labels == null) {
+            labels = encodeLabels(store.labelNames(), store.tuple(slot));
+            store.encodedLabels(slot, labels);
+        }
+        write(name);
+        write(labels);
+        ensure(3);
+        // The 0.0.4 text format (as written by simpleclient) terminates every label with comma
+        if (!openMetrics) {
+            buffer[position++] = ',';
+        }
+        buffer[position++] = '}';
+        buffer[position++] = ' ';
+        writeDouble(value);
+        ensure(1);
+        buffer[position++] = '\n';
+    }
+
+    /**
+     * Write the terminating line of OpenMetrics.
+     */
+    void writeEof() throws IOException {
+        write(EOF);
+    }
+
+    /**
+     * Write the buffered output to the stream, the stream is not flushed.
+     */
+    void flush() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    // Same as Collector.doubleToGoString()
+    private void writeDouble(double value) throws IOException {
+        if (Double.isNaN(value)) {
+            write(NAN);
+        } else if (value == Double.POSITIVE_INFINITY) {
+            write(POSITIVE_INFINITY);
+        } else if (value == Double.NEGATIVE_INFINITY) {
+            write(NEGATIVE_INFINITY);
+        } else if (value == Math.rint(value) && Math.abs(value) < PLAIN_INTEGRAL_LIMIT) {
+            // At most 8 digits, a sign and ".0"
+            ensure(11);
+            if (value < 0 || (value == 0 && Double.doubleToRawLongBits(value) != 0)) {
+                buffer[position++] = '-';
+            }
+            writeDigits((long) Math.abs(value));
+            buffer[position++] = '.';
+            buffer[position++] = '0';
+        } else {
+            String formatted = Double.toString(value);
+            ensure(formatted.length());
+            for (int i = 0; i < formatted.length(); i++) {
+                buffer[position++] = (byte) formatted.charAt(i);
+            }
+        }
+    }
+
+    private void writeDigits(long value) {
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int end = position + digits;
+        for (int i = end - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+        position = end;
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.length) {
+            flush();
+            out.write(bytes);
+            return;
+        }
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void ensure(int length) throws IOException {
+        if (position + length > buffer.length) {
+            flush();
+        }
+    }
+
+    private static byte[] encodeHeader(String name, String help, String type, boolean openMetrics) {
+        StringBuilder header = new StringBuilder();
+        // OpenMetrics puts TYPE first, both orders are valid in the 0.0.4 text format
+        if (openMetrics) {
+            header.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        }
+        header.append("# HELP ").append(name).append(' ');
+        for (int i = 0; i < help.length(); i++) {
+            char c = help.charAt(i);
+            switch (c) {
+                case '\\':
+                    header.append("\\\\");
+                    break;
+                case '\n':
+                    header.append("\\n");
+                    break;
+                case '"':
+                    header.append(openMetrics ? "\\\"" : "\"");
+                    break;
+                default:
+                    header.append(c);
+            }
+        }
+        header.append('\n');
+        if (!openMetrics) {
+            header.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        }
+        return header.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Labels of the series following the "cluster" label, without the closing brace
+    private static byte[] encodeLabels(String[] labelNames, String[] tuple) {
+        StringBuilder labels = new StringBuilder();
+        for (int i = 0; i < tuple.length; i++) {
+            labels.append(',').append(labelNames[i + 1]).append("=\"").append(escapeLabelValue(tuple[i])).append('"');
+        }
+        return labels.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String escapeLabelValue(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright [2016] [Vincent VAN HOLLEBEKE]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.opensearch.action;
+
+import org.opensearch.action.admin.cluster.health.ClusterHealthRequest;
+import org.opensearch.action.admin.cluster.health.ClusterHealthResponse;
+import org.opensearch.common.Nullable;
+
+/**
+ * The last local cluster health response, reused until the local cluster state changes.
+ * <p>
+ * The health is computed from the local cluster state, hence it changes only when the cluster state changes.
+ * Except the number of pending tasks and the max waiting time of tasks which are read from the task queue
+ * of the cluster manager, these change without new cluster state. For that reason responses computed on the
+ * elected cluster manager node are never reused, nor are responses reporting pending tasks, in-flight shard
+ * fetches or a timeout.
+ */
+final class ClusterHealthCache {
+
+    private volatile Entry entry;
+
+    /**
+     * @param clusterStateVersion Version of the local cluster state
+     * @param level Level of the requested health
+     * @param clusterManager True if the local node is the elected cluster manager
+     * @return The cached response computed from the same cluster state version and at the same level, null if none
+     */
+    @Nullable
+    ClusterHealthResponse get(long clusterStateVersion, ClusterHealthRequest.Level level, boolean clusterManager) {
+        Entry cached = entry;
+        if (clusterManager || cached == null || cached.clusterStateVersion != clusterStateVersion || cached.level != level) {
+            return null;
+        }
+        return cached.response;
+    }
+
+    /**
+     * Cache the response if it can be reused.
+     * @param clusterStateVersion Version of the local cluster state read before the health was requested.
+     *                            The response was computed from this or newer version, keyed by the older
+     *                            version it is only reused less often.
+     * @param level Level of the requested health
+     * @param clusterManager True if the local node is the elected cluster manager
+     * @param response The response
+     */
+    void put(long clusterStateVersion, ClusterHealthRequest.Level level, boolean clusterManager, ClusterHealthResponse response) {
+        if (clusterManager == false && response.isTimedOut() == false && response.getNumberOfPendingTasks() == 0
+                && response.getNumberOfInFlightFetch() == 0) {
+            entry = new Entry(clusterStateVersion, level, response);
+        }
+    }
+
+    /**
+     * Cluster health response computed from specific version of the local cluster state.
+     */
+    private static class Entry {
+        private final long clusterStateVersion;
+        private final ClusterHealthRequest.Level level;
+        private final ClusterHealthResponse response;
+
+        private Entry(long clusterStateVersion, ClusterHealthRequest.Level level, ClusterHealthResponse response) {
+            this.clusterStateVersion = clusterStateVersion;
+            this.level = level;
+            this.response = response;
+        }
+    }
+}
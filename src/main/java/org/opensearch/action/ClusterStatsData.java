@@ -19,7 +19,6 @@ package org.opensearch.action;
 import static org.opensearch.cluster.routing.allocation.DiskThresholdSettings.*;
 
 import org.opensearch.OpenSearchParseException;
-import org.opensearch.action.admin.cluster.state.ClusterStateResponse;
 import org.opensearch.cluster.metadata.Metadata;
 import org.opensearch.common.Nullable;
 import org.opensearch.core.action.ActionResponse;
@@ -87,9 +86,8 @@ public class ClusterStatsData extends ActionResponse {
     }
 
     @SuppressWarnings({"checkstyle:LineLength"})
-    ClusterStatsData(ClusterStateResponse clusterStateResponse, Settings settings, ClusterSettings clusterSettings) {
+    ClusterStatsData(Metadata m, Settings settings, ClusterSettings clusterSettings) {
 
-        Metadata m = clusterStateResponse.getState().getMetadata();
         // There are several layers of cluster settings in Elasticsearch each having different priority.
         // We need to traverse them from the top priority down to find relevant value of each setting.
         // See https://www.elastic.co/guide/en/elasticsearch/reference/master/cluster-update-settings.html#_order_of_precedence
@@ -17,8 +17,10 @@
 
 package org.opensearch.action;
 
+import org.compuscene.metrics.prometheus.MetricSelection;
 import org.opensearch.action.support.clustermanager.ClusterManagerNodeReadRequest;
 import org.opensearch.core.common.io.stream.StreamInput;
+import org.opensearch.core.common.io.stream.StreamOutput;
 
 import java.io.IOException;
 
@@ -27,11 +29,22 @@ import java.io.IOException;
  */
 public class NodePrometheusMetricsRequest extends ClusterManagerNodeReadRequest<NodePrometheusMetricsRequest> {
 
+    private final MetricSelection selection;
+
     /**
      * A constructor.
      */
     public NodePrometheusMetricsRequest() {
+        this(MetricSelection.ALL);
+    }
+
+    /**
+     * A constructor.
+     * @param selection Sections of metrics to collect
+     */
+    public NodePrometheusMetricsRequest(MetricSelection selection) {
         super();
+        this.selection = selection;
     }
 
     /**
@@ -41,6 +54,20 @@ public class NodePrometheusMetricsRequest extends ClusterManagerNodeReadRequest<
      */
     public NodePrometheusMetricsRequest(StreamInput in) throws IOException {
         super(in);
+        selection = new MetricSelection(in);
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        selection.writeTo(out);
+    }
+
+    /**
+     * @return Sections of metrics to collect
+     */
+    public MetricSelection getSelection() {
+        return selection;
     }
 
     /**
@@ -18,19 +18,17 @@
 package org.opensearch.action;
 
 import org.opensearch.action.admin.cluster.health.ClusterHealthResponse;
-import org.opensearch.action.admin.cluster.node.info.NodesInfoResponse;
 import org.opensearch.action.admin.cluster.node.stats.NodeStats;
-import org.opensearch.action.admin.cluster.state.ClusterStateResponse;
 import org.opensearch.action.admin.indices.stats.IndicesStatsResponse;
 import org.opensearch.action.admin.indices.stats.PackageAccessHelper;
 import org.opensearch.common.Nullable;
 import org.opensearch.core.action.ActionResponse;
 import org.opensearch.core.common.io.stream.StreamInput;
 import org.opensearch.core.common.io.stream.StreamOutput;
-import org.opensearch.common.settings.ClusterSettings;
-import org.opensearch.common.settings.Settings;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Action response class for Prometheus Exporter plugin.
@@ -38,11 +36,13 @@ import java.io.IOException;
  * prepare all data for wire transport by writing it into outputStream.
  */
 public class NodePrometheusMetricsResponse extends ActionResponse {
-    private final ClusterHealthResponse clusterHealth;
-    private final NodesInfoResponse nodesInfoResponse;
+    @Nullable private final ClusterHealthResponse clusterHealth;
     private final NodeStats[] nodeStats;
     @Nullable private final IndicesStatsResponse indicesStats;
     private ClusterStatsData clusterStatsData = null;
+    private final Map<String, Long> stageTookNanos;
+    private final List<String> failedStages;
+    private final List<String> unavailableNodes;
 
     /**
      * A constructor that materialize the instance from inputStream.
@@ -51,53 +51,50 @@ public class NodePrometheusMetricsResponse extends ActionResponse {
      */
     public NodePrometheusMetricsResponse(StreamInput in) throws IOException {
         super(in);
-        clusterHealth = new ClusterHealthResponse(in);
-        nodesInfoResponse = new NodesInfoResponse(in);
+        clusterHealth = in.readOptionalWriteable(ClusterHealthResponse::new);
         nodeStats = in.readArray(NodeStats::new, NodeStats[]::new);
         indicesStats = PackageAccessHelper.createIndicesStatsResponse(in);
-        clusterStatsData = new ClusterStatsData(in);
+        clusterStatsData = in.readOptionalWriteable(ClusterStatsData::new);
+        stageTookNanos = in.readMap(StreamInput::readString, StreamInput::readVLong);
+        failedStages = in.readStringList();
+        unavailableNodes = in.readStringList();
     }
 
     /**
      * A constructor.
      * @param clusterHealth ClusterHealthResponse
-     * @param localNodesInfoResponse NodesInfoResponse
      * @param nodesStats NodesStats
      * @param indicesStats IndicesStats
-     * @param clusterStateResponse ClusterStateResponse
-     * @param settings Settings
-     * @param clusterSettings ClusterSettings
+     * @param clusterStatsData ClusterStatsData
+     * @param stageTookNanos Duration of individual collection stages in nanoseconds, keyed by stage name
+     * @param failedStages Names of the collection stages that failed
+     * @param unavailableNodes IDs of the nodes that failed to return their nodes stats
      */
-    public NodePrometheusMetricsResponse(ClusterHealthResponse clusterHealth,
-                                         NodesInfoResponse localNodesInfoResponse,
+    public NodePrometheusMetricsResponse(@Nullable ClusterHealthResponse clusterHealth,
                                          NodeStats[] nodesStats,
                                          @Nullable IndicesStatsResponse indicesStats,
-                                         @Nullable ClusterStateResponse clusterStateResponse,
-                                         Settings settings,
-                                         ClusterSettings clusterSettings) {
+                                         @Nullable ClusterStatsData clusterStatsData,
+                                         Map<String, Long> stageTookNanos,
+                                         List<String> failedStages,
+                                         List<String> unavailableNodes) {
         this.clusterHealth = clusterHealth;
-        this.nodesInfoResponse = localNodesInfoResponse;
         this.nodeStats = nodesStats;
         this.indicesStats = indicesStats;
-        if (clusterStateResponse != null) {
-            this.clusterStatsData = new ClusterStatsData(clusterStateResponse, settings, clusterSettings);
-        }
+        this.clusterStatsData = clusterStatsData;
+        this.stageTookNanos = stageTookNanos;
+        this.failedStages = failedStages;
+        this.unavailableNodes = unavailableNodes;
     }
 
     /**
      * Get internal {@link ClusterHealthResponse} object.
-     * @return ClusterHealthResponse object
+     * @return ClusterHealthResponse object, null if the request failed
      */
+    @Nullable
     public ClusterHealthResponse getClusterHealth() {
         return this.clusterHealth;
     }
 
-    /**
-     * Get internal {@link NodesInfoResponse} object.
-     * @return NodesInfoResponse object
-     */
-    public NodesInfoResponse getLocalNodesInfoResponse() { return this.nodesInfoResponse; }
-
     /**
      * Get internal {@link NodeStats} array.
      * @return NodeStats array
@@ -124,12 +121,38 @@ public class NodePrometheusMetricsResponse extends ActionResponse {
         return this.clusterStatsData;
     }
 
+    /**
+     * Get duration of individual collection stages (requests within the cluster and building of this response).
+     * @return Duration in nanoseconds keyed by stage name
+     */
+    public Map<String, Long> getStageTookNanos() {
+        return this.stageTookNanos;
+    }
+
+    /**
+     * Get names of the collection stages that failed (or timed out), the metrics are built without their responses.
+     * @return List of stage names
+     */
+    public List<String> getFailedStages() {
+        return this.failedStages;
+    }
+
+    /**
+     * Get IDs of the nodes that failed to return their nodes stats (or did not return them in time).
+     * @return List of node IDs
+     */
+    public List<String> getUnavailableNodes() {
+        return this.unavailableNodes;
+    }
+
     @Override
     public void writeTo(StreamOutput out) throws IOException {
-        clusterHealth.writeTo(out);
-        nodesInfoResponse.writeTo(out);
+        out.writeOptionalWriteable(clusterHealth);
         out.writeArray(nodeStats);
         out.writeOptionalWriteable(indicesStats);
-        clusterStatsData.writeTo(out);
+        out.writeOptionalWriteable(clusterStatsData);
+        out.writeMap(stageTookNanos, StreamOutput::writeString, StreamOutput::writeVLong);
+        out.writeStringCollection(failedStages);
+        out.writeStringCollection(unavailableNodes);
     }
 }
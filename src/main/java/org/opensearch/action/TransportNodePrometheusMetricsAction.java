@@ -19,37 +19,55 @@ package org.opensearch.action;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.compuscene.metrics.prometheus.MetricGroup;
+import org.compuscene.metrics.prometheus.MetricSelection;
 import org.compuscene.metrics.prometheus.PrometheusSettings;
-import org.opensearch.OpenSearchException;
 import org.opensearch.action.admin.cluster.health.ClusterHealthRequest;
 import org.opensearch.action.admin.cluster.health.ClusterHealthResponse;
-import org.opensearch.action.admin.cluster.node.info.NodesInfoRequest;
-import org.opensearch.action.admin.cluster.node.info.NodesInfoResponse;
 import org.opensearch.action.admin.cluster.node.stats.NodeStats;
 import org.opensearch.action.admin.cluster.node.stats.NodesStatsRequest;
 import org.opensearch.action.admin.cluster.node.stats.NodesStatsResponse;
-import org.opensearch.action.admin.cluster.state.ClusterStateRequest;
-import org.opensearch.action.admin.cluster.state.ClusterStateResponse;
 import org.opensearch.action.admin.indices.stats.IndicesStatsRequest;
 import org.opensearch.action.admin.indices.stats.IndicesStatsResponse;
 import org.opensearch.action.support.ActionFilters;
 import org.opensearch.action.support.HandledTransportAction;
+import org.opensearch.action.support.IndicesOptions;
+import org.opensearch.action.support.ListenerTimeouts;
 import org.opensearch.client.Client;
 import org.opensearch.client.Requests;
+import org.opensearch.cluster.ClusterState;
+import org.opensearch.cluster.metadata.IndexNameExpressionResolver;
+import org.opensearch.cluster.metadata.Metadata;
+import org.opensearch.cluster.node.DiscoveryNode;
+import org.opensearch.cluster.routing.IndexRoutingTable;
+import org.opensearch.cluster.routing.ShardRouting;
+import org.opensearch.cluster.service.ClusterService;
 import org.opensearch.common.Nullable;
 import org.opensearch.common.inject.Inject;
 import org.opensearch.common.settings.ClusterSettings;
 import org.opensearch.common.settings.Settings;
+import org.opensearch.common.unit.TimeValue;
 import org.opensearch.core.action.ActionListener;
 import org.opensearch.tasks.Task;
+import org.opensearch.threadpool.ThreadPool;
 import org.opensearch.transport.TransportService;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
 /**
  * Transport action class for Prometheus Exporter plugin.
  *
- * It performs several requests within the cluster to gather "cluster health", "local nodes info", "nodes stats", "indices stats"
- * and "cluster state" (i.e. cluster settings) info. Some of those requests are optional depending on plugin
- * settings.
+ * It performs several requests within the cluster to gather "cluster health", "nodes stats" and "indices stats"
+ * info. Some of those requests are optional depending on plugin settings and on the sections of metrics selected
+ * by the request. Cluster settings are read from the local cluster state.
  */
 public class TransportNodePrometheusMetricsAction extends HandledTransportAction<NodePrometheusMetricsRequest,
         NodePrometheusMetricsResponse> {
@@ -57,8 +75,16 @@ public class TransportNodePrometheusMetricsAction extends HandledTransportAction
     private final Settings settings;
     private final ClusterSettings clusterSettings;
     private final PrometheusSettings prometheusSettings;
+    private final ClusterService clusterService;
+    private final IndexNameExpressionResolver indexNameExpressionResolver;
+    private final ThreadPool threadPool;
     private final Logger logger = LogManager.getLogger(getClass());
 
+    // The last cluster health response, reused until the local cluster state changes.
+    private final ClusterHealthCache clusterHealthCache = new ClusterHealthCache();
+    // Selected cluster settings, recomputed only when the metadata of the local cluster state changes.
+    private volatile CachedClusterStatsData cachedClusterStatsData;
+
     /**
      * A constructor.
      * @param settings Settings
@@ -66,23 +92,84 @@ public class TransportNodePrometheusMetricsAction extends HandledTransportAction
      * @param transportService Transport service
      * @param actionFilters Action filters
      * @param clusterSettings Cluster settings
+     * @param clusterService Cluster service
+     * @param indexNameExpressionResolver Index name expression resolver
      */
     @Inject
     public TransportNodePrometheusMetricsAction(Settings settings, Client client,
                                                 TransportService transportService, ActionFilters actionFilters,
-                                                ClusterSettings clusterSettings) {
+                                                ClusterSettings clusterSettings, ClusterService clusterService,
+                                                IndexNameExpressionResolver indexNameExpressionResolver) {
         super(NodePrometheusMetricsAction.NAME, transportService, actionFilters,
                 NodePrometheusMetricsRequest::new);
         this.client = client;
         this.settings = settings;
         this.clusterSettings = clusterSettings;
         this.prometheusSettings = new PrometheusSettings(settings, clusterSettings);
+        this.clusterService = clusterService;
+        this.indexNameExpressionResolver = indexNameExpressionResolver;
+        this.threadPool = transportService.getThreadPool();
+    }
+
+    /**
+     * Cluster settings data computed from specific version of the local cluster state metadata.
+     */
+    private static class CachedClusterStatsData {
+        private final long metadataVersion;
+        private final ClusterStatsData data;
+
+        private CachedClusterStatsData(long metadataVersion, ClusterStatsData data) {
+            this.metadataVersion = metadataVersion;
+            this.data = data;
+        }
+    }
+
+    // Indices whose per-index metrics are exported by given node if the metrics are partitioned across nodes:
+    // the node holding the primary of shard 0 owns the index. If the primary is not assigned (or the index has no
+    // routing table, e.g. it is closed) then the owner is picked by hash of the index name over all cluster nodes.
+    // Every node computes the ownership from its own cluster state, nodes agree once they apply the same state.
+    static List<String> ownedIndices(ClusterState state, String nodeId, String[] concreteIndices) {
+        List<String> nodeIds = new ArrayList<>();
+        for (DiscoveryNode node : state.nodes()) {
+            nodeIds.add(node.getId());
+        }
+        Collections.sort(nodeIds);
+        List<String> owned = new ArrayList<>();
+        for (String index : concreteIndices) {
+            String ownerId = null;
+            IndexRoutingTable indexRoutingTable = state.routingTable().index(index);
+            if (indexRoutingTable != null && indexRoutingTable.shard(0) != null) {
+                ShardRouting primary = indexRoutingTable.shard(0).primaryShard();
+                if (primary != null && primary.assignedToNode()) {
+                    ownerId = primary.currentNodeId();
+                }
+            }
+            if (ownerId == null) {
+                ownerId = nodeIds.get(Math.floorMod(index.hashCode(), nodeIds.size()));
+            }
+            if (ownerId.equals(nodeId)) {
+                owned.add(index);
+            }
+        }
+        return owned;
+    }
+
+    // Cluster settings are part of the metadata that every node holds in its applied cluster state. Reading them
+    // locally avoids sending a request to the cluster manager node that serializes the whole metadata.
+    private ClusterStatsData clusterStatsData() {
+        Metadata metadata = clusterService.state().metadata();
+        CachedClusterStatsData cached = cachedClusterStatsData;
+        if (cached == null || cached.metadataVersion != metadata.version()) {
+            cached = new CachedClusterStatsData(metadata.version(), new ClusterStatsData(metadata, settings, clusterSettings));
+            cachedClusterStatsData = cached;
+        }
+        return cached.data;
     }
 
     @Override
     protected void doExecute(Task task, NodePrometheusMetricsRequest request,
                              ActionListener<NodePrometheusMetricsResponse> listener) {
-        new AsyncAction(listener).start();
+        new AsyncAction(request.getSelection(), listener).start();
     }
 
     private class AsyncAction {
@@ -90,162 +177,259 @@ public class TransportNodePrometheusMetricsAction extends HandledTransportAction
         private final ActionListener<NodePrometheusMetricsResponse> listener;
 
         private final ClusterHealthRequest healthRequest;
-        private final NodesInfoRequest localNodesInfoRequest;
         private final NodesStatsRequest nodesStatsRequest;
-        private final IndicesStatsRequest indicesStatsRequest;
-        private final ClusterStateRequest clusterStateRequest;
+        private final boolean isClusterHealth;
+        private final boolean isNodesStats;
+
+        private volatile ClusterHealthResponse clusterHealthResponse = null;
+        private volatile NodesStatsResponse nodesStatsResponse = null;
+        private volatile IndicesStatsResponse indicesStatsResponse = null;
 
-        private ClusterHealthResponse clusterHealthResponse = null;
-        private NodesInfoResponse localNodesInfoResponse = null;
-        private NodesStatsResponse nodesStatsResponse = null;
-        private IndicesStatsResponse indicesStatsResponse = null;
-        private ClusterStateResponse clusterStateResponse = null;
+        // Duration of individual requests (including deserialization of their responses), keyed by stage name
+        private final Map<String, Long> stageTookNanos = new ConcurrentHashMap<>();
+        // Names of the stages whose requests failed (or timed out)
+        private final Set<String> failedStages = ConcurrentHashMap.newKeySet();
 
         // read the state of prometheus dynamic settings only once at the beginning of the async request
-        private final boolean isPrometheusIndices = prometheusSettings.getPrometheusIndices();
-        private final boolean isPrometheusClusterSettings = prometheusSettings.getPrometheusClusterSettings();
+        private final boolean isPrometheusIndices;
+        private final boolean isPrometheusClusterSettings;
         private final String prometheusNodesFilter = prometheusSettings.getNodesFilter();
+        private final boolean isPrometheusParallelRequests = prometheusSettings.getPrometheusParallelRequests();
+        private final Set<MetricGroup> prometheusMetricGroups;
+        private final boolean isPrometheusIndicesStatsPartitioned = prometheusSettings.getPrometheusIndicesStatsPartitioned();
+        private final TimeValue requestsTimeout = prometheusSettings.getPrometheusRequestsTimeout();
 
-        // All the requests are executed in sequential non-blocking order.
+        // By default, all the requests are executed in sequential non-blocking order.
         // It is implemented by wrapping each individual request with ActionListener
         // and chaining all of them into a sequence. The last member of the chain call method that gathers
         // all the responses from previous requests and pass them to outer listener (i.e. calling client).
         // Optional requests are skipped.
         //
-        // In the future we might consider executing all the requests in parallel if needed (CountDownLatch?),
-        // however, some of the requests can impact cluster performance (especially if the cluster is already overloaded)
+        // Some of the requests can impact cluster performance (especially if the cluster is already overloaded)
         // and in this situation it is better to run all requests in predictable order so that collected metrics
-        // stay consistent.
-        private AsyncAction(ActionListener<NodePrometheusMetricsResponse> listener) {
+        // stay consistent. If the total latency matters more, the requests (they do not depend on each other)
+        // can be executed in parallel and joined once all of them complete, see startParallel().
+        //
+        // Requests for metrics which are not selected by the request are not sent at all.
+        private AsyncAction(MetricSelection selection, ActionListener<NodePrometheusMetricsResponse> listener) {
             this.listener = listener;
+            this.isPrometheusIndices = prometheusSettings.getPrometheusIndices() && selection.includes(MetricSelection.INDEX);
+            this.isPrometheusClusterSettings = prometheusSettings.getPrometheusClusterSettings()
+                    && selection.includes(MetricSelection.CLUSTER_SETTINGS);
+            this.prometheusMetricGroups = selection.nodeGroups(prometheusSettings.getPrometheusMetricGroups());
+            this.isClusterHealth = selection.includes(MetricSelection.CLUSTER) || isPrometheusIndices;
+            // Basic node info (e.g. node roles) is exported along with any group of node level metrics.
+            this.isNodesStats = selection.includesNodeGroups();
 
             // Note: when using ClusterHealthRequest in Java, it pulls data at the shards level, according to ES source
             // code comment this is "so it is backward compatible with the transport client behaviour".
             // hence we are explicit about ClusterHealthRequest level and do not rely on defaults.
             // https://www.elastic.co/guide/en/elasticsearch/reference/6.4/cluster-health.html#request-params
+            // Shards level health is never exported, index level health is needed only by per-index metrics.
             this.healthRequest = Requests.clusterHealthRequest().local(true);
-            this.healthRequest.level(ClusterHealthRequest.Level.SHARDS);
+            this.healthRequest.level(isPrometheusIndices ? ClusterHealthRequest.Level.INDICES : ClusterHealthRequest.Level.CLUSTER);
 
-            // We want to get only the most minimal static info from local node (cluster name, node name and nodeID).
-            this.localNodesInfoRequest = Requests.nodesInfoRequest("_local").clear();
-
-            this.nodesStatsRequest = Requests.nodesStatsRequest(prometheusNodesFilter).clear().all();
-
-            // Indices stats request is not "node-specific", it does not support any "_local" notion
-            // it is broad-casted to all cluster nodes.
-            if (isPrometheusIndices) {
-                IndicesStatsRequest indicesStatsRequest = new IndicesStatsRequest();
-                indicesStatsRequest.indices(prometheusSettings.getPrometheusSelectedIndices());
-                indicesStatsRequest.indicesOptions(prometheusSettings.getIndicesOptions());
-                this.indicesStatsRequest = indicesStatsRequest;
-            } else {
-                this.indicesStatsRequest = null;
+            // Request only the stats sections of enabled metric groups, every section costs the nodes CPU
+            // and memory to compute and serialize.
+            this.nodesStatsRequest = Requests.nodesStatsRequest(prometheusNodesFilter).clear();
+            if (requestsTimeout.nanos() > 0) {
+                // Nodes that do not respond in time are reported as failures, stats of other nodes are still exported.
+                this.nodesStatsRequest.timeout(requestsTimeout);
+            }
+            for (MetricGroup group : prometheusMetricGroups) {
+                if (group.nodesStatsMetric() != null) {
+                    this.nodesStatsRequest.addMetric(group.nodesStatsMetric().metricName());
+                }
+            }
+            if (prometheusMetricGroups.contains(MetricGroup.INDICES)) {
+                this.nodesStatsRequest.indices(MetricGroup.nodeIndicesStatsFlags());
             }
-
-            // Cluster settings are get via ClusterStateRequest (see elasticsearch RestClusterGetSettingsAction for details)
-            // We prefer to send it to master node (hence local=false; it should be set by default but we want to be sure).
-            this.clusterStateRequest = isPrometheusClusterSettings ? Requests.clusterStateRequest()
-                    .clear().metadata(true).local(false) : null;
         }
 
-        private void gatherRequests() {
-            listener.onResponse(buildResponse(clusterHealthResponse, localNodesInfoResponse, nodesStatsResponse, indicesStatsResponse,
-                    clusterStateResponse));
+        // Indices stats request is not "node-specific", it does not support any "_local" notion
+        // it is broad-casted to all cluster nodes. If the metrics are partitioned, the request is limited
+        // to indices owned by the local node, it is not sent at all if the node owns no index.
+        // The indices are resolved within the stage, failure to resolve them (e.g. a missing index with strict
+        // indices options) fails the stage only.
+        private void indicesStats(ActionListener<IndicesStatsResponse> statsListener) {
+            IndicesStatsRequest indicesStatsRequest = new IndicesStatsRequest();
+            try {
+                String[] indices = prometheusSettings.getPrometheusSelectedIndices();
+                IndicesOptions indicesOptions = prometheusSettings.getIndicesOptions();
+                if (isPrometheusIndicesStatsPartitioned) {
+                    ClusterState state = clusterService.state();
+                    String[] concreteIndices = indexNameExpressionResolver.concreteIndexNames(state, indicesOptions, indices);
+                    indices = ownedIndices(state, state.nodes().getLocalNodeId(), concreteIndices).toArray(new String[0]);
+                    indicesOptions = IndicesOptions.lenientExpandHidden();
+                    if (indices.length == 0) {
+                        statsListener.onResponse(null);
+                        return;
+                    }
+                }
+                indicesStatsRequest.indices(indices);
+                indicesStatsRequest.indicesOptions(indicesOptions);
+                // Shards compute (and send) only the stats which are exported.
+                indicesStatsRequest.flags(prometheusSettings.getPrometheusIndicesStatsFlags());
+            } catch (Exception e) {
+                statsListener.onFailure(e);
+                return;
+            }
+            client.admin().indices().stats(indicesStatsRequest, statsListener);
         }
 
-        private final ActionListener<ClusterStateResponse> clusterStateResponseActionListener =
-            new ActionListener<ClusterStateResponse>() {
+        // The health is computed from the local cluster state (the request is local), see ClusterHealthCache
+        // for the responses which are reused.
+        private void clusterHealth(ActionListener<ClusterHealthResponse> healthListener) {
+            ClusterState state = clusterService.state();
+            long clusterStateVersion = state.version();
+            boolean clusterManager = state.nodes().isLocalNodeElectedClusterManager();
+            ClusterHealthRequest.Level level = healthRequest.level();
+            ClusterHealthResponse cached = clusterHealthCache.get(clusterStateVersion, level, clusterManager);
+            if (cached != null) {
+                healthListener.onResponse(cached);
+                return;
+            }
+            client.admin().cluster().health(healthRequest, new ActionListener<ClusterHealthResponse>() {
                 @Override
-                public void onResponse(ClusterStateResponse response) {
-                    clusterStateResponse = response;
-                    gatherRequests();
+                public void onResponse(ClusterHealthResponse response) {
+                    clusterHealthCache.put(clusterStateVersion, level, clusterManager, response);
+                    healthListener.onResponse(response);
                 }
 
                 @Override
                 public void onFailure(Exception e) {
-                    listener.onFailure(new OpenSearchException("Cluster state request failed", e));
+                    healthListener.onFailure(e);
                 }
-            };
+            });
+        }
+
+        private void gatherRequests() {
+            listener.onResponse(buildResponse(clusterHealthResponse, nodesStatsResponse, indicesStatsResponse,
+                    isPrometheusClusterSettings ? clusterStatsData() : null));
+        }
 
-        private final ActionListener<IndicesStatsResponse> indicesStatsResponseActionListener =
-            new ActionListener<IndicesStatsResponse>() {
+        // Wrap the listener of request which is about to be sent and measure how long it takes to get the response.
+        // A failed (or timed out) request does not fail the whole collection, the consumer gets null response and
+        // the metrics are built from the requests that succeeded.
+        private <T> ActionListener<T> stage(String stage, Consumer<T> consumer) {
+            long startNanos = System.nanoTime();
+            ActionListener<T> stageListener = new ActionListener<T>() {
                 @Override
-                public void onResponse(IndicesStatsResponse response) {
-                    indicesStatsResponse = response;
-                    if (isPrometheusClusterSettings) {
-                        client.admin().cluster().state(clusterStateRequest, clusterStateResponseActionListener);
-                    } else {
-                        gatherRequests();
-                    }
+                public void onResponse(T response) {
+                    stageTookNanos.put(stage, System.nanoTime() - startNanos);
+                    proceed(response);
                 }
 
                 @Override
                 public void onFailure(Exception e) {
-                    listener.onFailure(new OpenSearchException("Indices stats request failed", e));
+                    stageTookNanos.put(stage, System.nanoTime() - startNanos);
+                    failedStages.add(stage);
+                    logger.debug(() -> new ParameterizedMessage("Collection stage [{}] failed", stage), e);
+                    proceed(null);
                 }
-            };
 
-        private final ActionListener<NodesStatsResponse> nodesStatsResponseActionListener =
-            new ActionListener<NodesStatsResponse>() {
-                @Override
-                public void onResponse(NodesStatsResponse nodeStats) {
-                    nodesStatsResponse = nodeStats;
-                    if (isPrometheusIndices) {
-                        client.admin().indices().stats(indicesStatsRequest, indicesStatsResponseActionListener);
-                    } else {
-                        indicesStatsResponseActionListener.onResponse(null);
+                private void proceed(@Nullable T response) {
+                    try {
+                        consumer.accept(response);
+                    } catch (Exception e) {
+                        listener.onFailure(e);
                     }
                 }
-
-                @Override
-                public void onFailure(Exception e) {
-                    listener.onFailure(new OpenSearchException("Nodes stats request failed", e));
-                }
             };
+            if (requestsTimeout.nanos() > 0) {
+                // The late response (if any) is ignored.
+                return ListenerTimeouts.wrapWithTimeout(threadPool, stageListener, requestsTimeout,
+                        ThreadPool.Names.GENERIC, stage);
+            }
+            return stageListener;
+        }
 
-        private final ActionListener<NodesInfoResponse> localNodesInfoResponseActionListener =
-            new ActionListener<NodesInfoResponse>() {
-                @Override
-                public void onResponse(NodesInfoResponse nodesInfoResponse) {
-                    localNodesInfoResponse = nodesInfoResponse;
-                    client.admin().cluster().nodesStats(nodesStatsRequest, nodesStatsResponseActionListener);
-                }
-
-                @Override
-                public void onFailure(Exception e) {
-                    listener.onFailure(new OpenSearchException("Nodes info request failed for local node", e));
-                }
-            };
+        private void onClusterHealth(@Nullable ClusterHealthResponse response) {
+            clusterHealthResponse = response;
+            if (isNodesStats) {
+                client.admin().cluster().nodesStats(nodesStatsRequest, stage("nodes_stats", this::onNodesStats));
+            } else {
+                onNodesStats(null);
+            }
+        }
 
-        private final ActionListener<ClusterHealthResponse> clusterHealthResponseActionListener =
-            new ActionListener<ClusterHealthResponse>() {
-                @Override
-                public void onResponse(ClusterHealthResponse response) {
-                    clusterHealthResponse = response;
-                    client.admin().cluster().nodesInfo(localNodesInfoRequest, localNodesInfoResponseActionListener);
-                }
+        private void onNodesStats(@Nullable NodesStatsResponse response) {
+            nodesStatsResponse = response;
+            if (isPrometheusIndices) {
+                indicesStats(stage("indices_stats", this::onIndicesStats));
+            } else {
+                onIndicesStats(null);
+            }
+        }
 
-                @Override
-                public void onFailure(Exception e) {
-                    listener.onFailure(new OpenSearchException("Cluster health request failed", e));
-                }
-            };
+        private void onIndicesStats(@Nullable IndicesStatsResponse response) {
+            indicesStatsResponse = response;
+            gatherRequests();
+        }
 
         private void start() {
-            client.admin().cluster().health(healthRequest, clusterHealthResponseActionListener);
+            if (isPrometheusParallelRequests) {
+                startParallel();
+            } else if (isClusterHealth) {
+                clusterHealth(stage("cluster_health", this::onClusterHealth));
+            } else {
+                onClusterHealth(null);
+            }
         }
 
-        protected NodePrometheusMetricsResponse buildResponse(ClusterHealthResponse clusterHealth,
-                                                              NodesInfoResponse localNodesInfoResponse,
-                                                              NodesStatsResponse nodesStats,
+        private void startParallel() {
+            int requests = (isClusterHealth ? 1 : 0) + (isNodesStats ? 1 : 0) + (isPrometheusIndices ? 1 : 0);
+            if (requests == 0) {
+                gatherRequests();
+                return;
+            }
+            AtomicInteger pending = new AtomicInteger(requests);
+            // The responses are published to the thread gathering them by the countdown.
+            if (isClusterHealth) {
+                clusterHealth(stage("cluster_health", response -> {
+                    clusterHealthResponse = response;
+                    if (pending.decrementAndGet() == 0) {
+                        gatherRequests();
+                    }
+                }));
+            }
+            if (isNodesStats) {
+                client.admin().cluster().nodesStats(nodesStatsRequest, stage("nodes_stats", response -> {
+                    nodesStatsResponse = response;
+                    if (pending.decrementAndGet() == 0) {
+                        gatherRequests();
+                    }
+                }));
+            }
+            if (isPrometheusIndices) {
+                indicesStats(stage("indices_stats", response -> {
+                    indicesStatsResponse = response;
+                    if (pending.decrementAndGet() == 0) {
+                        gatherRequests();
+                    }
+                }));
+            }
+        }
+
+        protected NodePrometheusMetricsResponse buildResponse(@Nullable ClusterHealthResponse clusterHealth,
+                                                              @Nullable NodesStatsResponse nodesStats,
                                                               @Nullable IndicesStatsResponse indicesStats,
-                                                              @Nullable ClusterStateResponse clusterStateResponse) {
+                                                              @Nullable ClusterStatsData clusterStatsData) {
+            long startNanos = System.nanoTime();
+            NodeStats[] nodeStats = new NodeStats[0];
+            List<String> unavailableNodes = new ArrayList<>();
+            if (nodesStats != null) {
+                nodeStats = nodesStats.getNodes().toArray(nodeStats);
+                for (FailedNodeException failure : nodesStats.failures()) {
+                    logger.debug(() -> new ParameterizedMessage("Nodes stats of node [{}] failed", failure.nodeId()), failure);
+                    unavailableNodes.add(failure.nodeId());
+                }
+            }
             NodePrometheusMetricsResponse response = new NodePrometheusMetricsResponse(
-                    clusterHealth,
-                    localNodesInfoResponse,
-                    nodesStats.getNodes().toArray(new NodeStats[0]),
-                    indicesStats, clusterStateResponse,
-                    settings, clusterSettings);
+                    clusterHealth, nodeStats, indicesStats, clusterStatsData, stageTookNanos,
+                    new ArrayList<>(failedStages), unavailableNodes);
+            // The response holds the map, building the response is the last stage.
+            stageTookNanos.put("build_response", System.nanoTime() - startNanos);
             if (logger.isTraceEnabled()) {
                 logger.trace("Return response: [{}]", response);
             }
@@ -16,9 +16,11 @@
  */
 package org.opensearch.action.admin.indices.stats;
 
+import org.opensearch.core.action.support.DefaultShardOperationFailedException;
 import org.opensearch.core.common.io.stream.StreamInput;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Utility methods.
@@ -34,4 +36,19 @@ public class PackageAccessHelper {
     public static IndicesStatsResponse createIndicesStatsResponse(StreamInput in) throws IOException {
         return in.readOptionalWriteable(IndicesStatsResponse::new);
     }
+
+    /**
+     * Shortcut to IndicesStatsResponse constructor which has package access restriction.
+     * @param shards Shard level statistics
+     * @param totalShards Total number of shards
+     * @param successfulShards Number of shards the statistics were collected from
+     * @param failedShards Number of failed shards
+     * @param shardFailures Shard failures
+     * @return IndicesStatsResponse
+     */
+    public static IndicesStatsResponse createIndicesStatsResponse(ShardStats[] shards, int totalShards, int successfulShards,
+                                                                  int failedShards,
+                                                                  List<DefaultShardOperationFailedException> shardFailures) {
+        return new IndicesStatsResponse(shards, totalShards, successfulShards, failedShards, shardFailures);
+    }
 }
@@ -21,23 +21,44 @@ import static java.util.Collections.singletonList;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.compuscene.metrics.prometheus.MetricSelection;
+import org.compuscene.metrics.prometheus.PrometheusMetricsCatalog;
+import org.compuscene.metrics.prometheus.PrometheusMetricsCollector;
 import org.compuscene.metrics.prometheus.PrometheusSettings;
 import org.opensearch.action.ActionRequest;
+import org.opensearch.client.Client;
+import org.opensearch.cluster.service.ClusterService;
 import org.opensearch.core.action.ActionResponse;
 import org.opensearch.action.NodePrometheusMetricsAction;
 import org.opensearch.action.TransportNodePrometheusMetricsAction;
 import org.opensearch.cluster.metadata.IndexNameExpressionResolver;
 import org.opensearch.cluster.node.DiscoveryNodes;
 import org.opensearch.common.settings.*;
+import org.opensearch.common.util.concurrent.OpenSearchExecutors;
+import org.opensearch.core.common.io.stream.NamedWriteableRegistry;
+import org.opensearch.core.xcontent.NamedXContentRegistry;
+import org.opensearch.env.Environment;
+import org.opensearch.env.NodeEnvironment;
 import org.opensearch.plugins.ActionPlugin;
 import org.opensearch.plugins.Plugin;
+import org.opensearch.repositories.RepositoriesService;
 import org.opensearch.rest.RestController;
 import org.opensearch.rest.RestHandler;
+import org.opensearch.rest.prometheus.MetricsSnapshotCache;
 import org.opensearch.rest.prometheus.RestPrometheusMetricsAction;
+import org.opensearch.script.ScriptService;
+import org.opensearch.threadpool.ExecutorBuilder;
+import org.opensearch.threadpool.FixedExecutorBuilder;
+import org.opensearch.threadpool.ThreadPool;
+import org.opensearch.watcher.ResourceWatcherService;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 /**
@@ -46,6 +67,29 @@ import java.util.function.Supplier;
 public class PrometheusExporterPlugin extends Plugin implements ActionPlugin {
     private static final Logger logger = LogManager.getLogger(PrometheusExporterPlugin.class);
 
+    /**
+     * Name of the thread pool populating node level metrics of large clusters in parallel.
+     */
+    public static final String POPULATION_EXECUTOR = "prometheus_exporter_population";
+
+    // Every distinct selection of metrics sections gets its own catalog, only the recently used ones are kept.
+    private static final int MAX_SELECTIONS = 16;
+
+    // Long-lived metrics collector (and catalog) behind the snapshot cache, created once at node startup
+    // and reused by every scrape.
+    private PrometheusSettings prometheusSettings;
+    private MetricsSnapshotCache cache;
+    // Caches of requests selecting only some sections of the metrics, created on the first request. The least
+    // recently used cache is evicted once there are too many of them, requests already holding it still complete.
+    private final Map<MetricSelection, MetricsSnapshotCache> selectionCaches =
+            new LinkedHashMap<MetricSelection, MetricsSnapshotCache>(MAX_SELECTIONS + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<MetricSelection, MetricsSnapshotCache> eldest) {
+                    return size() > MAX_SELECTIONS;
+                }
+            };
+    private Function<MetricSelection, MetricsSnapshotCache> selectionCacheFactory;
+
     /**
      * A constructor.
      */
@@ -53,6 +97,37 @@ public class PrometheusExporterPlugin extends Plugin implements ActionPlugin {
         logger.info("starting Prometheus exporter plugin");
     }
 
+    @Override
+    public Collection<Object> createComponents(Client client, ClusterService clusterService, ThreadPool threadPool,
+                                               ResourceWatcherService resourceWatcherService, ScriptService scriptService,
+                                               NamedXContentRegistry xContentRegistry, Environment environment,
+                                               NodeEnvironment nodeEnvironment, NamedWriteableRegistry namedWriteableRegistry,
+                                               IndexNameExpressionResolver indexNameExpressionResolver,
+                                               Supplier<RepositoriesService> repositoriesServiceSupplier) {
+        Settings settings = environment.settings();
+        String metricPrefix = RestPrometheusMetricsAction.METRIC_PREFIX.get(settings);
+        if (logger.isTraceEnabled()) {
+            logger.trace("Prometheus metric prefix set to [{}]", metricPrefix);
+        }
+        prometheusSettings = new PrometheusSettings(settings, clusterService.getClusterSettings());
+        // Every thread of the population pool (and the calling thread) gets its own shard of the catalog.
+        int shardCount = threadPool.info(POPULATION_EXECUTOR).getMax() + 1;
+        String clusterName = clusterService.getClusterName().value();
+        selectionCacheFactory = selection -> {
+            PrometheusMetricsCatalog catalog = new PrometheusMetricsCatalog(clusterName, metricPrefix, shardCount);
+            PrometheusMetricsCollector collector = new PrometheusMetricsCollector(
+                    catalog, prometheusSettings, threadPool.executor(POPULATION_EXECUTOR), selection);
+            // Metric families, label names and help strings never change, register them only once.
+            collector.registerMetrics();
+            return new MetricsSnapshotCache(prometheusSettings, collector, clusterService::localNode, selection.isAll(),
+                    threadPool, PrometheusMetricsScheduler.EXECUTOR);
+        };
+        cache = selectionCacheFactory.apply(MetricSelection.ALL);
+        // The scheduler is a lifecycle component, the node starts and stops it.
+        return Collections.singletonList(new PrometheusMetricsScheduler(
+                client, threadPool, clusterService.getClusterSettings(), prometheusSettings, cache));
+    }
+
     @Override
     public List<ActionHandler<? extends ActionRequest, ? extends ActionResponse>> getActions() {
         return singletonList(
@@ -66,7 +141,33 @@ public class PrometheusExporterPlugin extends Plugin implements ActionPlugin {
                                              IndexNameExpressionResolver indexNameExpressionResolver,
                                              Supplier<DiscoveryNodes> nodesInCluster) {
         return singletonList(
-                new RestPrometheusMetricsAction(settings, clusterSettings)
+                new RestPrometheusMetricsAction(prometheusSettings, this::cache)
+        );
+    }
+
+    // Cache of the metrics snapshot holding given sections of the metrics.
+    private MetricsSnapshotCache cache(MetricSelection selection) {
+        if (selection.isAll()) {
+            return cache;
+        }
+        synchronized (selectionCaches) {
+            return selectionCaches.computeIfAbsent(selection, selectionCacheFactory);
+        }
+    }
+
+    @Override
+    public List<ExecutorBuilder<?>> getExecutorBuilders(Settings settings) {
+        // There is at most one collection in flight per catalog (the one refreshed in the background and those of
+        // the selections), a couple of threads populate them. Population of large catalogs fans out to the population
+        // pool which is bounded to a few threads so that it does not compete with search and indexing.
+        int allocatedProcessors = OpenSearchExecutors.allocatedProcessors(settings);
+        int exporterThreads = Math.max(1, Math.min(2, allocatedProcessors / 2));
+        int populationThreads = Math.max(1, Math.min(3, allocatedProcessors - 1));
+        return Arrays.asList(
+                new FixedExecutorBuilder(settings, PrometheusMetricsScheduler.EXECUTOR, exporterThreads, 1000,
+                        "thread_pool." + PrometheusMetricsScheduler.EXECUTOR),
+                new FixedExecutorBuilder(settings, POPULATION_EXECUTOR, populationThreads, 100,
+                        "thread_pool." + POPULATION_EXECUTOR)
         );
     }
 
@@ -78,6 +179,22 @@ public class PrometheusExporterPlugin extends Plugin implements ActionPlugin {
                 PrometheusSettings.PROMETHEUS_NODES_FILTER,
                 PrometheusSettings.PROMETHEUS_SELECTED_INDICES,
                 PrometheusSettings.PROMETHEUS_SELECTED_OPTION,
+                PrometheusSettings.PROMETHEUS_RESPONSE_COMPRESSION,
+                PrometheusSettings.PROMETHEUS_CACHE_TTL,
+                PrometheusSettings.PROMETHEUS_PARALLEL_REQUESTS,
+                PrometheusSettings.PROMETHEUS_REQUESTS_TIMEOUT,
+                PrometheusSettings.PROMETHEUS_SERIES_LIMIT,
+                PrometheusSettings.PROMETHEUS_SERIES_FAMILY_LIMIT,
+                PrometheusSettings.PROMETHEUS_COLLECTION_INTERVAL,
+                PrometheusSettings.PROMETHEUS_METRIC_GROUPS,
+                PrometheusSettings.PROMETHEUS_INDICES_STATS_GROUPS,
+                PrometheusSettings.PROMETHEUS_INDICES_STATS_CONTEXTS,
+                PrometheusSettings.PROMETHEUS_INDICES_STATS_PARTITIONED,
+                PrometheusSettings.PROMETHEUS_INDICES_STATS_TOP_K,
+                PrometheusSettings.PROMETHEUS_INDICES_STATS_TOP_K_BY,
+                PrometheusSettings.PROMETHEUS_INDEX_GROUPS_PATTERNS,
+                PrometheusSettings.PROMETHEUS_INDEX_GROUPS_STRIP_DATE_SUFFIX,
+                PrometheusSettings.PROMETHEUS_INDEX_GROUPS_SUPPRESS_INDICES,
                 RestPrometheusMetricsAction.METRIC_PREFIX
         );
         return Collections.unmodifiableList(settings);
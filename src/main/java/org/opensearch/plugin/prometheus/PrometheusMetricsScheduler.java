@@ -0,0 +1,113 @@
+/*
+ * Copyright [2016] [Vincent VAN HOLLEBEKE]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.opensearch.plugin.prometheus;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.compuscene.metrics.prometheus.PrometheusSettings;
+import org.opensearch.action.NodePrometheusMetricsAction;
+import org.opensearch.action.NodePrometheusMetricsRequest;
+import org.opensearch.client.Client;
+import org.opensearch.common.lifecycle.AbstractLifecycleComponent;
+import org.opensearch.common.settings.ClusterSettings;
+import org.opensearch.common.unit.TimeValue;
+import org.opensearch.core.action.ActionListener;
+import org.opensearch.rest.prometheus.MetricsSnapshotCache;
+import org.opensearch.threadpool.Scheduler;
+import org.opensearch.threadpool.ThreadPool;
+
+/**
+ * Collects the metrics in the background at fixed interval (see {@link PrometheusSettings#PROMETHEUS_COLLECTION_INTERVAL})
+ * so that requests are served from the last snapshot and do not wait for the collection.
+ * <p>
+ * The collection and population of the catalog run on dedicated {@link #EXECUTOR} thread pool.
+ */
+public class PrometheusMetricsScheduler extends AbstractLifecycleComponent {
+
+    /**
+     * Name of the thread pool used for background collection. It also populates the catalog (and renders it)
+     * for the requests, see {@link MetricsSnapshotCache}.
+     */
+    public static final String EXECUTOR = "prometheus_exporter";
+
+    private static final Logger logger = LogManager.getLogger(PrometheusMetricsScheduler.class);
+
+    private final Client client;
+    private final ThreadPool threadPool;
+    private final PrometheusSettings prometheusSettings;
+    private final MetricsSnapshotCache cache;
+
+    // Guarded by this
+    private boolean running = false;
+    private Scheduler.Cancellable scheduled;
+
+    /**
+     * A constructor.
+     * @param client Node client
+     * @param threadPool Thread pool
+     * @param clusterSettings Cluster settings
+     * @param prometheusSettings Prometheus settings
+     * @param cache Cache of the metrics snapshot refreshed by this scheduler
+     */
+    public PrometheusMetricsScheduler(Client client, ThreadPool threadPool, ClusterSettings clusterSettings,
+                                      PrometheusSettings prometheusSettings, MetricsSnapshotCache cache) {
+        this.client = client;
+        this.threadPool = threadPool;
+        this.prometheusSettings = prometheusSettings;
+        this.cache = cache;
+        clusterSettings.addSettingsUpdateConsumer(PrometheusSettings.PROMETHEUS_COLLECTION_INTERVAL, this::reschedule);
+    }
+
+    @Override
+    protected synchronized void doStart() {
+        running = true;
+        reschedule(prometheusSettings.getPrometheusCollectionInterval());
+    }
+
+    @Override
+    protected synchronized void doStop() {
+        running = false;
+        reschedule(TimeValue.ZERO);
+    }
+
+    @Override
+    protected void doClose() {
+    }
+
+    private synchronized void reschedule(TimeValue interval) {
+        if (scheduled != null) {
+            scheduled.cancel();
+            scheduled = null;
+        }
+        if (running && interval.nanos() > 0) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Collecting Prometheus metrics in the background every [{}]", interval);
+            }
+            scheduled = threadPool.scheduleWithFixedDelay(this::collect, interval, EXECUTOR);
+        }
+    }
+
+    private void collect() {
+        cache.refresh(
+                // The cache populates and pre-renders the snapshot on the EXECUTOR thread pool.
+                listener -> client.execute(NodePrometheusMetricsAction.INSTANCE, new NodePrometheusMetricsRequest(), listener),
+                ActionListener.wrap(
+                        collected -> logger.trace("Prometheus metrics collected in the background"),
+                        e -> logger.warn("Background collection of Prometheus metrics failed", e)));
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright [2016] [Vincent VAN HOLLEBEKE]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.opensearch.rest.prometheus;
+
+import org.opensearch.common.Nullable;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content encodings (compression) of the metrics response negotiated by the REST action itself,
+ * independently of the node wide {@code http.compression} setting.
+ * <p>
+ * When the response carries the {@code Content-Encoding} header the HTTP layer does not compress it again.
+ */
+public enum ContentEncoding {
+
+    /**
+     * No compression.
+     */
+    IDENTITY("identity"),
+
+    /**
+     * Gzip compression.
+     */
+    GZIP("gzip"),
+
+    /**
+     * Zlib (deflate) compression.
+     */
+    DEFLATE("deflate");
+
+    // Metrics text is very repetitive, the fastest compression level already yields high ratio
+    // and keeps the CPU cost of the scrape low.
+    private static final int COMPRESSION_LEVEL = Deflater.BEST_SPEED;
+    private static final int BUFFER_SIZE = 8192;
+
+    private final String headerValue;
+
+    ContentEncoding(String headerValue) {
+        this.headerValue = headerValue;
+    }
+
+    /**
+     * @return Value of the Content-Encoding response header
+     */
+    public String headerValue() {
+        return headerValue;
+    }
+
+    /**
+     * Wrap given output stream with a stream compressing the data on the fly.
+     * Closing the returned stream finishes the compression and releases the compressor, but it does not close
+     * the wrapped stream (it is typically a recycled buffer owned by the REST channel).
+     * @param out Output stream to write the compressed data into
+     * @return Output stream to write the uncompressed data into
+     * @throws IOException If the stream can not be created
+     */
+    public OutputStream wrap(OutputStream out) throws IOException {
+        OutputStream target = new NonClosingOutputStream(out);
+        switch (this) {
+            case GZIP:
+                return new GZIPOutputStream(target, BUFFER_SIZE) {
+                    {
+                        def.setLevel(COMPRESSION_LEVEL);
+                    }
+                };
+            case DEFLATE:
+                Deflater deflater = new Deflater(COMPRESSION_LEVEL);
+                return new DeflaterOutputStream(target, deflater, BUFFER_SIZE) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            // custom deflater is not released by DeflaterOutputStream
+                            deflater.end();
+                        }
+                    }
+                };
+            default:
+                return target;
+        }
+    }
+
+    /**
+     * Pick the content encoding based on the value of HTTP {@code Accept-Encoding} request header.
+     * Codings are weighted by their quality ({@code q}) parameter, the first listed coding wins when the qualities
+     * are equal. Codings that are not listed get the quality of {@code *}, unsupported codings are ignored.
+     * Compression is preferred unless {@code identity} is listed with higher quality. If no supported compression
+     * is acceptable then the response is not compressed, even if {@code identity} is refused as well.
+     * @param acceptEncoding Value of the Accept-Encoding header
+     * @return Negotiated content encoding, {@link #IDENTITY} if nothing else is acceptable
+     */
+    public static ContentEncoding fromAcceptEncodingHeader(@Nullable String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return IDENTITY;
+        }
+        // Quality of every encoding (-1 if not listed) and position of the coding that listed it
+        double[] qualities = new double[values().length];
+        Arrays.fill(qualities, -1);
+        int[] positions = new int[qualities.length];
+        double anyQuality = -1;
+        int anyPosition = 0;
+        String[] codings = acceptEncoding.split(",");
+        for (int position = 0; position < codings.length; position++) {
+            String[] parts = codings[position].split(";");
+            String name = parts[0].trim().toLowerCase(Locale.ROOT);
+            double quality = 1.0;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            ContentEncoding encoding;
+            switch (name) {
+                case "gzip":
+                case "x-gzip":
+                    encoding = GZIP;
+                    break;
+                case "deflate":
+                    encoding = DEFLATE;
+                    break;
+                case "identity":
+                    encoding = IDENTITY;
+                    break;
+                case "*":
+                    anyQuality = quality;
+                    anyPosition = position;
+                    continue;
+                default:
+                    continue;
+            }
+            qualities[encoding.ordinal()] = quality;
+            positions[encoding.ordinal()] = position;
+        }
+        ContentEncoding best = null;
+        for (ContentEncoding encoding : new ContentEncoding[] {GZIP, DEFLATE}) {
+            if (qualities[encoding.ordinal()] < 0) {
+                qualities[encoding.ordinal()] = anyQuality;
+                positions[encoding.ordinal()] = anyPosition;
+            }
+            double quality = qualities[encoding.ordinal()];
+            if (quality > 0 && (best == null || quality > qualities[best.ordinal()]
+                    || (quality == qualities[best.ordinal()] && positions[encoding.ordinal()] < positions[best.ordinal()]))) {
+                best = encoding;
+            }
+        }
+        if (best == null || qualities[IDENTITY.ordinal()] > qualities[best.ordinal()]) {
+            return IDENTITY;
+        }
+        return best;
+    }
+
+    /**
+     * Output stream that flushes instead of closing the wrapped stream.
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,446 @@
+/*
+ * Copyright [2016] [Vincent VAN HOLLEBEKE]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.opensearch.rest.prometheus;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.compuscene.metrics.prometheus.ExpositionFormat;
+import org.compuscene.metrics.prometheus.PrometheusMetricsCollector;
+import org.compuscene.metrics.prometheus.PrometheusSettings;
+import org.opensearch.action.NodePrometheusMetricsResponse;
+import org.opensearch.action.support.ThreadedActionListener;
+import org.opensearch.cluster.node.DiscoveryNode;
+import org.opensearch.common.Nullable;
+import org.opensearch.common.collect.Tuple;
+import org.opensearch.common.io.stream.BytesStreamOutput;
+import org.opensearch.common.util.concurrent.AbstractRunnable;
+import org.opensearch.core.action.ActionListener;
+import org.opensearch.core.common.bytes.BytesReference;
+import org.opensearch.threadpool.ThreadPool;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Node local cache of the last metrics snapshot.
+ * <p>
+ * Concurrent scrapes are coalesced onto a single in-flight collection, every scrape that arrives while
+ * the collection is running waits for its result. If {@link PrometheusSettings#PROMETHEUS_CACHE_TTL} is
+ * positive then the snapshot is also reused by scrapes arriving within the TTL. Rendered (and compressed)
+ * output of a shared snapshot is memoized per exposition format and content encoding.
+ * <p>
+ * The snapshot does not hold a copy of the metrics, it is stamped with the generation of the catalog it was
+ * collected into. Variants that are not memoized yet are rendered from the catalog only as long as the catalog
+ * still holds the same generation, otherwise the scrape is served from the newer snapshot (or collects it).
+ * <p>
+ * If the metrics are collected in the background (see {@link PrometheusSettings#PROMETHEUS_COLLECTION_INTERVAL})
+ * then the snapshot is refreshed by the scheduler and scrapes are served from it as long as it is not older
+ * than twice the collection interval. The variants rendered from the previous snapshot are pre-rendered
+ * off the request path before the new snapshot is published. Caches of requests selecting only some sections
+ * of the metrics (see {@link org.compuscene.metrics.prometheus.MetricSelection}) are not refreshed in the background,
+ * they are refreshed by the scrapes.
+ * <p>
+ * The collected response is handed over to a dedicated executor before the catalog is populated, the catalog is
+ * rendered by the same executor. Neither the transport nor the HTTP threads wait for the population or rendering
+ * (which may fan out to other threads for large catalogs), the rendered content is only sent by them.
+ */
+public final class MetricsSnapshotCache {
+
+    private static final Logger logger = LogManager.getLogger(MetricsSnapshotCache.class);
+
+    private final PrometheusSettings prometheusSettings;
+    private final PrometheusMetricsCollector collector;
+    private final Supplier<DiscoveryNode> localNode;
+    private final boolean scheduled;
+    private final ThreadPool threadPool;
+    private final String executor;
+
+    // Guarded by the collector, incremented whenever the catalog is updated
+    private long catalogGeneration;
+
+    // Guarded by this
+    private Snapshot current;
+    private List<Request> inFlight;
+
+    /**
+     * A constructor.
+     * @param prometheusSettings Prometheus settings
+     * @param collector Long-lived metrics collector owned by the plugin
+     * @param localNode Supplier of the local node, used to label the metrics of the exporter itself
+     * @param scheduled True if the snapshot is refreshed by the background collection
+     * @param threadPool Thread pool
+     * @param executor Name of the executor populating and rendering the catalog
+     */
+    public MetricsSnapshotCache(PrometheusSettings prometheusSettings, PrometheusMetricsCollector collector,
+                                Supplier<DiscoveryNode> localNode, boolean scheduled,
+                                ThreadPool threadPool, String executor) {
+        this.prometheusSettings = prometheusSettings;
+        this.collector = collector;
+        this.localNode = localNode;
+        this.scheduled = scheduled;
+        this.threadPool = threadPool;
+        this.executor = executor;
+    }
+
+    /**
+     * Get the metrics rendered in given format and content encoding. Either the cached snapshot is rendered,
+     * or the request joins the collection in progress, or a new collection is started. This is meant to serve
+     * requests for metrics, the outcome and duration of the request are recorded.
+     * @param collect Starts collection of the metrics, the result must be passed to given listener
+     * @param format Exposition format
+     * @param encoding Content encoding
+     * @param channelOutput Buffer of the REST channel, used if the output is not going to be memoized
+     * @param listener Listener to notify once the metrics are rendered
+     */
+    public void get(Consumer<ActionListener<NodePrometheusMetricsResponse>> collect, ExpositionFormat format,
+                    ContentEncoding encoding, Supplier<BytesStreamOutput> channelOutput,
+                    ActionListener<BytesReference> listener) {
+        acquire(new Request(collect, format, encoding, channelOutput, listener, true));
+    }
+
+    /**
+     * Collect a new metrics snapshot no matter if the cached one is still valid (unless a collection is
+     * already in progress, the listener joins it then).
+     * @param collect Starts collection of the metrics, the result must be passed to given listener
+     * @param listener Listener to notify once the snapshot is collected
+     */
+    public void refresh(Consumer<ActionListener<NodePrometheusMetricsResponse>> collect, ActionListener<Void> listener) {
+        acquire(new Request(collect, null, null, null, ActionListener.map(listener, content -> null), false));
+    }
+
+    private void acquire(Request request) {
+        Snapshot cached = null;
+        synchronized (this) {
+            long validityNanos = validityNanos();
+            if (request.scrape && current != null && validityNanos > 0 && System.nanoTime() - current.createdNanos < validityNanos) {
+                cached = current;
+            } else if (inFlight != null) {
+                request.outcome = "coalesced";
+                inFlight.add(request);
+                return;
+            } else {
+                request.outcome = "collected";
+                inFlight = new ArrayList<>();
+                inFlight.add(request);
+            }
+        }
+        if (cached != null) {
+            request.outcome = "cached";
+            serve(cached, request);
+            return;
+        }
+        try {
+            // Population of the catalog is done off the transport threads.
+            request.collect.accept(new ThreadedActionListener<>(logger, threadPool, executor,
+                    new ActionListener<NodePrometheusMetricsResponse>() {
+                        @Override
+                        public void onResponse(NodePrometheusMetricsResponse response) {
+                            onCollected(response);
+                        }
+
+                        @Override
+                        public void onFailure(Exception e) {
+                            onCollectionFailed(e);
+                        }
+                    }, false));
+        } catch (Exception e) {
+            onCollectionFailed(e);
+        }
+    }
+
+    // Serve the request from the cached snapshot, the snapshot is rendered by the executor unless it is memoized.
+    private void serve(Snapshot snapshot, Request request) {
+        BytesReference memoized = snapshot.memoized(request.format, request.encoding);
+        if (memoized != null) {
+            request.onResponse(memoized);
+            return;
+        }
+        threadPool.executor(executor).execute(new AbstractRunnable() {
+            @Override
+            protected void doRun() throws Exception {
+                BytesReference content = snapshot.render(request.format, request.encoding, request.channelOutput);
+                if (content == null) {
+                    // The catalog was updated meanwhile, the snapshot can not be rendered anymore.
+                    acquire(request);
+                } else {
+                    request.onResponse(content);
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                request.onFailure(e);
+            }
+        });
+    }
+
+    private void observeScrape(String outcome, long startNanos) {
+        long tookNanos = System.nanoTime() - startNanos;
+        synchronized (collector) {
+            collector.observeScrape(localNodeInfo(), outcome, tookNanos);
+        }
+    }
+
+    private Tuple<String, String> localNodeInfo() {
+        DiscoveryNode node = localNode.get();
+        return new Tuple<>(node.getName(), node.getId());
+    }
+
+    private long validityNanos() {
+        long ttlNanos = prometheusSettings.getPrometheusCacheTtl().nanos();
+        long intervalNanos = scheduled ? prometheusSettings.getPrometheusCollectionInterval().nanos() : 0;
+        return Math.max(ttlNanos, 2 * intervalNanos);
+    }
+
+    private void onCollected(NodePrometheusMetricsResponse response) {
+        DiscoveryNode node = localNode.get();
+        String nodeName = node.getName();
+        String nodeId = node.getId();
+
+        if (logger.isTraceEnabled()) {
+            logger.trace("Preparing metrics output on node: [{}], [{}]", nodeName, nodeId);
+        }
+        boolean cacheable = validityNanos() > 0;
+        Exception failure = null;
+        List<Request> waiting;
+        BytesReference[] contents;
+        Exception[] failures;
+        // The collector is shared by concurrent requests. Updating and rendering the catalog must not interleave
+        // otherwise one request could expose partially populated catalog. The new snapshot is published and
+        // rendered for the waiting requests before the catalog can be updated again.
+        synchronized (collector) {
+            // From now on the previous snapshot serves only the variants memoized so far.
+            catalogGeneration++;
+            try {
+                collector.updateMetrics(
+                        nodeName, nodeId, response.getClusterHealth(), response.getNodeStats(),
+                        response.getIndicesStats(), response.getClusterStatsData());
+                collector.updateCollectionStages(nodeName, nodeId, response.getStageTookNanos());
+                collector.updateCollectionFailures(nodeName, nodeId, response.getStageTookNanos().keySet(),
+                        response.getFailedStages(), response.getUnavailableNodes(), response.getIndicesStats());
+            } catch (Exception ex) {
+                // We use try-catch block to catch exception from Prometheus catalog and collector processing
+                // and dump it into the log, otherwise client needs to know how to configure logging to output
+                // exceptions that are thrown from the REST listener.
+                // See https://github.com/aiven/prometheus-exporter-plugin-for-opensearch/issues/11
+                logger.debug("Prometheus metric catalog processing failed", ex);
+                failure = ex;
+            }
+
+            Snapshot previous;
+            Snapshot snapshot;
+            synchronized (this) {
+                previous = current;
+                waiting = inFlight;
+                inFlight = null;
+                snapshot = new Snapshot(catalogGeneration, System.nanoTime(), cacheable || waiting.size() > 1);
+                // The catalog may be partially updated if the population failed, nothing can be rendered
+                // from it until the next collection.
+                current = cacheable && failure == null ? snapshot : null;
+            }
+            contents = new BytesReference[waiting.size()];
+            failures = new Exception[waiting.size()];
+            if (failure != null) {
+                Arrays.fill(failures, failure);
+            } else {
+                if (cacheable && previous != null) {
+                    try {
+                        snapshot.prerender(previous);
+                    } catch (Exception ex) {
+                        // Scrapes render the variant on their own then.
+                        logger.debug("Pre-rendering Prometheus metrics failed", ex);
+                    }
+                }
+                // Already on the executor, render for the waiting requests right away.
+                for (int i = 0; i < waiting.size(); i++) {
+                    Request request = waiting.get(i);
+                    if (request.format == null) {
+                        continue;
+                    }
+                    try {
+                        contents[i] = snapshot.render(request.format, request.encoding, request.channelOutput);
+                    } catch (Exception ex) {
+                        failures[i] = ex;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < waiting.size(); i++) {
+            if (failures[i] != null) {
+                waiting.get(i).onFailure(failures[i]);
+            } else {
+                waiting.get(i).onResponse(contents[i]);
+            }
+        }
+    }
+
+    private void onCollectionFailed(Exception e) {
+        List<Request> waiting;
+        synchronized (this) {
+            waiting = inFlight;
+            inFlight = null;
+        }
+        for (Request request : waiting) {
+            request.onFailure(e);
+        }
+    }
+
+    /**
+     * Request for the metrics in given variant, or a refresh of the snapshot (no variant).
+     * Outcome and duration of the scrapes are recorded once they are served.
+     */
+    private final class Request {
+        private final Consumer<ActionListener<NodePrometheusMetricsResponse>> collect;
+        @Nullable private final ExpositionFormat format;
+        @Nullable private final ContentEncoding encoding;
+        @Nullable private final Supplier<BytesStreamOutput> channelOutput;
+        private final ActionListener<BytesReference> listener;
+        private final boolean scrape;
+        private final long startNanos = System.nanoTime();
+        // Guarded by the cache until the request is served
+        private String outcome;
+
+        private Request(Consumer<ActionListener<NodePrometheusMetricsResponse>> collect,
+                        @Nullable ExpositionFormat format, @Nullable ContentEncoding encoding,
+                        @Nullable Supplier<BytesStreamOutput> channelOutput, ActionListener<BytesReference> listener,
+                        boolean scrape) {
+            this.collect = collect;
+            this.format = format;
+            this.encoding = encoding;
+            this.channelOutput = channelOutput;
+            this.listener = listener;
+            this.scrape = scrape;
+        }
+
+        private void onResponse(@Nullable BytesReference content) {
+            try {
+                listener.onResponse(content);
+            } finally {
+                if (scrape) {
+                    observeScrape(outcome, startNanos);
+                }
+            }
+        }
+
+        private void onFailure(Exception e) {
+            try {
+                listener.onFailure(e);
+            } finally {
+                if (scrape) {
+                    observeScrape("failed", startNanos);
+                }
+            }
+        }
+    }
+
+    /**
+     * Metrics collected into the catalog by a single collection round.
+     * <p>
+     * Locks are always taken in the order collector, snapshot. The snapshot lock guards only the memoized variants.
+     */
+    private final class Snapshot {
+
+        private final long generation;
+        private final long createdNanos;
+        // Shared snapshot can be rendered for multiple requests, the output is memoized then
+        private final boolean shared;
+        // Guarded by this, indexed by exposition format and content encoding ordinals
+        private final BytesReference[][] variants;
+
+        private Snapshot(long generation, long createdNanos, boolean shared) {
+            this.generation = generation;
+            this.createdNanos = createdNanos;
+            this.shared = shared;
+            this.variants = shared ? new BytesReference[ExpositionFormat.values().length][ContentEncoding.values().length] : null;
+        }
+
+        // Memoized content of given variant, null if it is not rendered yet (or it is not a variant at all)
+        @Nullable
+        private synchronized BytesReference memoized(@Nullable ExpositionFormat format, @Nullable ContentEncoding encoding) {
+            if (shared == false || format == null) {
+                return null;
+            }
+            return variants[format.ordinal()][encoding.ordinal()];
+        }
+
+        private synchronized void memoize(ExpositionFormat format, ContentEncoding encoding, BytesReference bytes) {
+            variants[format.ordinal()][encoding.ordinal()] = bytes;
+        }
+
+        // Render the snapshot in given format and content encoding, null if the catalog holds newer generation.
+        // Unless the snapshot is shared, it is streamed directly into the buffer of the REST channel.
+        @Nullable
+        private BytesReference render(ExpositionFormat format, ContentEncoding encoding,
+                                      @Nullable Supplier<BytesStreamOutput> channelOutput) throws IOException {
+            BytesReference bytes = memoized(format, encoding);
+            if (bytes != null) {
+                return bytes;
+            }
+            synchronized (collector) {
+                if (generation != catalogGeneration) {
+                    return null;
+                }
+                if (shared == false) {
+                    return write(format, encoding, channelOutput.get());
+                }
+                // Rendered by another request meanwhile?
+                bytes = memoized(format, encoding);
+                if (bytes == null) {
+                    // The channel buffer is released once the response is sent, memoized output needs its own buffer.
+                    bytes = write(format, encoding, new BytesStreamOutput());
+                    memoize(format, encoding, bytes);
+                }
+                return bytes;
+            }
+        }
+
+        // Render all the variants that were rendered from given snapshot.
+        private void prerender(Snapshot previous) throws IOException {
+            if (previous.shared == false) {
+                return;
+            }
+            for (ExpositionFormat format : ExpositionFormat.values()) {
+                for (ContentEncoding encoding : ContentEncoding.values()) {
+                    if (previous.memoized(format, encoding) != null) {
+                        render(format, encoding, null);
+                    }
+                }
+            }
+        }
+
+        // Must be called under the collector lock.
+        private BytesReference write(ExpositionFormat format, ContentEncoding encoding, BytesStreamOutput out) throws IOException {
+            long startNanos = System.nanoTime();
+            // Closing the encoding stream finishes the compression, the buffer stays open.
+            try (OutputStream encoded = encoding.wrap(out)) {
+                collector.writeContent(format, encoded);
+            } catch (IOException | RuntimeException ex) {
+                logger.debug("Prometheus metric catalog processing failed", ex);
+                throw ex;
+            }
+            long tookNanos = System.nanoTime() - startNanos;
+            collector.observeRender(localNodeInfo(), format, encoding.headerValue(), tookNanos, out.size());
+            return out.bytes();
+        }
+    }
+}
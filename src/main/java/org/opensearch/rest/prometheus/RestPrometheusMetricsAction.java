@@ -22,22 +22,22 @@ import static org.opensearch.rest.RestRequest.Method.GET;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.compuscene.metrics.prometheus.PrometheusMetricsCatalog;
-import org.compuscene.metrics.prometheus.PrometheusMetricsCollector;
+import org.compuscene.metrics.prometheus.ExpositionFormat;
+import org.compuscene.metrics.prometheus.MetricSelection;
 import org.compuscene.metrics.prometheus.PrometheusSettings;
 import org.opensearch.action.NodePrometheusMetricsRequest;
-import org.opensearch.action.NodePrometheusMetricsResponse;
 import org.opensearch.client.node.NodeClient;
 import org.opensearch.common.network.NetworkAddress;
-import org.opensearch.common.settings.ClusterSettings;
 import org.opensearch.common.settings.Setting;
-import org.opensearch.common.settings.Settings;
+import org.opensearch.core.common.Strings;
+import org.opensearch.core.common.bytes.BytesReference;
 import org.opensearch.core.rest.RestStatus;
 import org.opensearch.rest.*;
 import org.opensearch.rest.action.RestResponseListener;
 
 import java.util.List;
 import java.util.Locale;
+import java.util.function.Function;
 
 import static java.util.Arrays.asList;
 import static java.util.Collections.unmodifiableList;
@@ -62,27 +62,27 @@ public class RestPrometheusMetricsAction extends BaseRestHandler {
     public static final Setting<String> METRIC_PREFIX = Setting.simpleString(METRIC_PREFIX_KEY, "opensearch_", indexPrefixValidator, Setting.Property.NodeScope);
 
 
-    private final String metricPrefix;
     private final PrometheusSettings prometheusSettings;
+    private final Function<MetricSelection, MetricsSnapshotCache> caches;
     private final Logger logger = LogManager.getLogger(getClass());
 
     /**
      * A constructor.
-     * @param settings Settings
-     * @param clusterSettings Cluster settings
+     * @param prometheusSettings Prometheus settings
+     * @param caches Caches of the metrics snapshots owned by the plugin, by selection of metrics sections.
+     *               Every cache is shared by all the requests selecting the same sections.
      */
-    public RestPrometheusMetricsAction(Settings settings, ClusterSettings clusterSettings) {
-        this.prometheusSettings = new PrometheusSettings(settings, clusterSettings);
-        this.metricPrefix = METRIC_PREFIX.get(settings);
-        if (logger.isTraceEnabled()) {
-            logger.trace("Prometheus metric prefix set to [{}]", this.metricPrefix);
-        }
+    public RestPrometheusMetricsAction(PrometheusSettings prometheusSettings,
+                                       Function<MetricSelection, MetricsSnapshotCache> caches) {
+        this.prometheusSettings = prometheusSettings;
+        this.caches = caches;
     }
 
     @Override
     public List<Route> routes() {
         return unmodifiableList(asList(
-            new Route(GET, "/_prometheus/metrics"))
+            new Route(GET, "/_prometheus/metrics"),
+            new Route(GET, "/_prometheus/metrics/{scope}"))
         );
     }
 
@@ -91,8 +91,7 @@ public class RestPrometheusMetricsAction extends BaseRestHandler {
         return "prometheus_metrics_action";
     }
 
-     // This method does not throw any IOException because there are no request parameters to be parsed
-     // and processed. This may change in the future.
+    // This method does not throw any IOException, invalid request parameters fail with IllegalArgumentException.
     @Override
     protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) {
         if (logger.isTraceEnabled()) {
@@ -101,53 +100,43 @@ public class RestPrometheusMetricsAction extends BaseRestHandler {
                     remoteAddress));
         }
 
-        NodePrometheusMetricsRequest metricsRequest = new NodePrometheusMetricsRequest();
-
-        return channel -> client.execute(INSTANCE, metricsRequest,
-                new RestResponseListener<NodePrometheusMetricsResponse>(channel) {
+        // Sections of metrics which are not selected are neither collected nor exposed.
+        MetricSelection selection = MetricSelection.of(
+                request.paramAsStringArray("include", Strings.EMPTY_ARRAY),
+                request.paramAsStringArray("exclude", Strings.EMPTY_ARRAY));
+        // Scoped routes (e.g. /_prometheus/metrics/node) narrow the selection down to the sections of the scope.
+        String scope = request.param("scope");
+        if (scope != null) {
+            selection = MetricSelection.ofScope(scope).intersect(selection);
+        }
+        MetricsSnapshotCache cache = caches.apply(selection);
+        NodePrometheusMetricsRequest metricsRequest = new NodePrometheusMetricsRequest(selection);
+        // Honor the Accept header, Prometheus asks for OpenMetrics or protobuf format when it supports it.
+        ExpositionFormat format = ExpositionFormat.fromAcceptHeader(request.header("Accept"));
+        // Compress the response on our own, it does not depend on node wide http.compression setting then.
+        ContentEncoding encoding = prometheusSettings.getPrometheusResponseCompression()
+                ? ContentEncoding.fromAcceptEncodingHeader(request.header("Accept-Encoding"))
+                : ContentEncoding.IDENTITY;
+
+        // The metrics are rendered on the exporter thread pool, the HTTP thread only sends the rendered content.
+        // Unless the snapshot is shared by several requests it is streamed directly into the recycled (paged)
+        // buffer of the channel that is released once the response is sent.
+        return channel -> cache.get(
+                collect -> client.execute(INSTANCE, metricsRequest, collect),
+                format, encoding, channel::bytesOutput,
+                new RestResponseListener<BytesReference>(channel) {
 
                     @Override
-                    public RestResponse buildResponse(NodePrometheusMetricsResponse response) throws Exception {
-
-                        String clusterName = response.getLocalNodesInfoResponse().getClusterName().value();
-                        assert response.getLocalNodesInfoResponse().getNodes().size() == 1;
-                        String nodeName = response.getLocalNodesInfoResponse().getNodes().get(0).getNode().getName();
-                        String nodeId = response.getLocalNodesInfoResponse().getNodes().get(0).getNode().getId();
-
-                        if (logger.isTraceEnabled()) {
-                            logger.trace("Preparing metrics output on node: [{}], [{}]", nodeName, nodeId);
-                        }
-                        PrometheusMetricsCollector collector;
-                        String textContent;
-                        try {
-//                            PrometheusMetricsCatalog catalog = new PrometheusMetricsCatalog(clusterName, nodeName, nodeId, metricPrefix);
-                            PrometheusMetricsCatalog catalog = new PrometheusMetricsCatalog(clusterName, metricPrefix);
-                            collector = new PrometheusMetricsCollector(
-                                    catalog,
-                                    prometheusSettings.getPrometheusIndices(),
-                                    prometheusSettings.getPrometheusClusterSettings()
-                            );
-                            collector.registerMetrics();
-                            collector.updateMetrics(
-                                    nodeName, nodeId, response.getClusterHealth(), response.getNodeStats(),
-                                    response.getIndicesStats(), response.getClusterStatsData());
-                            textContent = collector.getTextContent();
-                        } catch (Exception ex) {
-                            // We use try-catch block to catch exception from Prometheus catalog and collector processing
-                            // and dump it into the log, otherwise client needs to know how to configure logging to output
-                            // exceptions that are thrown from
-                            // "RestResponseListener.buildResponse(Response response) throws Exception".
-                            // This is useful when metric_prefix value is not valid or when metric collector fails
-                            // generating text content. We may be able to get rid of this try-catch pattern
-                            // once we implement robust verification of custom metric prefix.
-                            // See https://github.com/aiven/prometheus-exporter-plugin-for-opensearch/issues/11
-                            logger.debug("Prometheus metric catalog processing failed", ex);
-                            throw ex;
-                        }
+                    public RestResponse buildResponse(BytesReference content) throws Exception {
                         // Prometheus' metrics are exposed similarly the Pushgateway example except no real gateway
                         // is used and the metrics are exposed directly via OpenSearch HTTP API instead.
                         // See https://github.com/prometheus/client_java#exporting-to-a-pushgateway
-                        return new BytesRestResponse(RestStatus.OK, textContent);
+                        BytesRestResponse restResponse = new BytesRestResponse(RestStatus.OK, format.contentType(), content);
+                        if (encoding != ContentEncoding.IDENTITY) {
+                            restResponse.addHeader("Content-Encoding", encoding.headerValue());
+                        }
+                        restResponse.addHeader("Vary", "Accept, Accept-Encoding");
+                        return restResponse;
                     }
                 });
     }
@@ -0,0 +1,158 @@
+/*
+ * Copyright [2016] [Vincent VAN HOLLEBEKE]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.compuscene.metrics.prometheus;
+
+import org.opensearch.test.OpenSearchTestCase;
+
+public class MetricFamilyTests extends OpenSearchTestCase {
+
+    private static final String[] NO_LABELS = new String[0];
+
+    private static MetricFamily clusterGauge(String... labelNames) {
+        String[] names = new String[labelNames.length + 1];
+        names[0] = "cluster";
+        System.arraycopy(labelNames, 0, names, 1, labelNames.length);
+        return new MetricFamily(0, "test_gauge", "Test gauge", MetricFamily.Type.GAUGE, names, 0);
+    }
+
+    public void testInsertAndLookup() {
+        MetricFamily family = clusterGauge("index", "context");
+        assertEquals(-1, family.find(null, null, new String[] {"a", "total"}));
+
+        int slot = family.slot(null, null, new String[] {"a", "total"});
+        assertEquals(0, slot);
+        assertEquals(slot, family.slot(null, null, new String[] {"a", "total"}));
+        assertEquals(slot, family.find(null, null, new String[] {"a", "total"}));
+        assertArrayEquals(new String[] {"a", "total"}, family.tuple(slot));
+
+        int other = family.slot(null, null, new String[] {"a", "primaries"});
+        assertEquals(1, other);
+        assertEquals(2, family.size());
+        assertEquals(-1, family.find(null, null, new String[] {"b", "total"}));
+    }
+
+    public void testNodeScopeLabels() {
+        MetricFamily family = new MetricFamily(0, "test_gauge", "Test gauge", MetricFamily.Type.GAUGE,
+                new String[] {"cluster", "node", "nodeid", "name"}, 2);
+        int slot = family.slot("node-1", "id-1", new String[] {"search"});
+        assertArrayEquals(new String[] {"node-1", "id-1", "search"}, family.tuple(slot));
+        assertEquals(-1, family.find("node-2", "id-2", new String[] {"search"}));
+        assertNotEquals(slot, family.slot("node-2", "id-2", new String[] {"search"}));
+
+        expectThrows(IllegalArgumentException.class, () -> family.slot("node-1", "id-1", NO_LABELS));
+        expectThrows(IllegalArgumentException.class, () -> family.slot("node-1", "id-1", new String[] {"a", "b"}));
+        expectThrows(IllegalArgumentException.class, () -> family.slot("node-1", "id-1", new String[] {null}));
+    }
+
+    public void testGrowth() {
+        MetricFamily family = clusterGauge("index");
+        int series = randomIntBetween(100, 5000);
+        for (int i = 0; i < series; i++) {
+            family.set(family.slot(null, null, new String[] {"index-" + i}), i, 0);
+        }
+        assertEquals(series, family.size());
+        for (int i = 0; i < series; i++) {
+            int slot = family.find(null, null, new String[] {"index-" + i});
+            assertEquals(i, slot);
+            assertEquals(i, family.value(slot), 0);
+            assertTrue(family.isLive(slot, 0));
+        }
+    }
+
+    public void testCompactDropsStaleSeries() {
+        MetricFamily family = clusterGauge("index");
+        int series = randomIntBetween(10, 500);
+        for (int i = 0; i < series; i++) {
+            family.set(family.slot(null, null, new String[] {"index-" + i}), i, 0);
+        }
+        assertEquals(0, family.compact(0, Integer.MAX_VALUE));
+
+        // Only every other series is updated in the next generation.
+        for (int i = 0; i < series; i += 2) {
+            int slot = family.slot(null, null, new String[] {"index-" + i});
+            assertFalse(family.isLive(slot, 1));
+            family.set(slot, -i, 1);
+            assertTrue(family.isLive(slot, 1));
+        }
+        assertEquals(series / 2, family.compact(1, Integer.MAX_VALUE));
+        assertEquals((series + 1) / 2, family.size());
+        for (int i = 0; i < series; i++) {
+            int slot = family.find(null, null, new String[] {"index-" + i});
+            if (i % 2 == 0) {
+                // Remaining series keep their order
+                assertEquals(i / 2, slot);
+                assertEquals(-i, family.value(slot), 0);
+                assertArrayEquals(new String[] {"index-" + i}, family.tuple(slot));
+            } else {
+                assertEquals(-1, slot);
+            }
+        }
+
+        // Dropped series get new slots once they come back.
+        int slot = family.slot(null, null, new String[] {"index-1"});
+        assertEquals((series + 1) / 2, slot);
+        assertEquals(0, family.value(slot), 0);
+    }
+
+    public void testCompactKeepsFirstStoredSeries() {
+        MetricFamily family = clusterGauge("index");
+        for (int i = 0; i < 10; i++) {
+            family.set(family.slot(null, null, new String[] {"index-" + i}), i, 0);
+        }
+        assertEquals(6, family.compact(0, 4));
+        assertEquals(4, family.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i < 4 ? i : -1, family.find(null, null, new String[] {"index-" + i}));
+        }
+    }
+
+    public void testSummaryColumns() {
+        MetricFamily family = new MetricFamily(0, "test_seconds", "Test summary", MetricFamily.Type.SUMMARY,
+                new String[] {"cluster", "node", "nodeid"}, 2);
+        double before = System.currentTimeMillis() / 1000.0;
+        int slot = family.slot("node-1", "id-1", NO_LABELS);
+        family.observe(slot, 0.5, 0);
+        family.observe(slot, 1.25, 0);
+        assertEquals(2, family.count(slot), 0);
+        assertEquals(1.75, family.value(slot), 0);
+        assertTrue(family.created(slot) >= Math.floor(before));
+        assertTrue(family.created(slot) <= System.currentTimeMillis() / 1000.0);
+
+        // Observations accumulate over the generations, summaries are never dropped.
+        assertTrue(family.isLive(slot, 5));
+        assertEquals(0, family.compact(5, 0));
+        assertEquals(slot, family.find("node-1", "id-1", NO_LABELS));
+        family.observe(slot, 1, 6);
+        assertEquals(3, family.count(slot), 0);
+        assertEquals(2.75, family.value(slot), 0);
+    }
+
+    public void testShards() {
+        MetricFamily family = new MetricFamily(0, "test_gauge", "Test gauge", MetricFamily.Type.GAUGE,
+                new String[] {"cluster", "node", "nodeid"}, 2);
+        family.createShards(3);
+        assertEquals(4, family.storeCount());
+        assertSame(family, family.store(0));
+        family.set(family.slot("node-0", "id-0", NO_LABELS), 1, 0);
+        for (int i = 0; i < 3; i++) {
+            MetricFamily shard = family.shard(i);
+            assertSame(shard, family.store(i + 1));
+            shard.set(shard.slot("node-" + (i + 1), "id-" + (i + 1), NO_LABELS), i, 0);
+        }
+        assertEquals(4, family.totalSize());
+    }
+}
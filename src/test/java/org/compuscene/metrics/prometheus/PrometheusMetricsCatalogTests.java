@@ -0,0 +1,203 @@
+/*
+ * Copyright [2016] [Vincent VAN HOLLEBEKE]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.compuscene.metrics.prometheus;
+
+import org.opensearch.common.collect.Tuple;
+import org.opensearch.test.OpenSearchTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.exporter.common.TextFormat;
+
+public class PrometheusMetricsCatalogTests extends OpenSearchTestCase {
+
+    /**
+     * Populate the catalog with cluster gauges, node gauges spread over all the shards and summaries.
+     */
+    static void populate(PrometheusMetricsCatalog catalog, int nodes, int indices) {
+        for (int i = 0; i < nodes; i++) {
+            Tuple<String, String> nodeInfo = new Tuple<>("node-" + i, "node-id-" + i);
+            PrometheusMetricsCatalog.Shard shard = catalog.shard(catalog.shardOf(nodeInfo.v2()));
+            shard.setNodeGauge(nodeInfo, "jvm_uptime_seconds", 1000.5 * i);
+            for (String pool : new String[] {"search", "write", "get"}) {
+                shard.setNodeGauge(nodeInfo, "threadpool_threads_number", i, pool, "active");
+                shard.setNodeGauge(nodeInfo, "threadpool_threads_number", 2 * i, pool, "queue");
+            }
+            catalog.observeSummaryTimer(nodeInfo, "metrics_generate_time_seconds", 0.25 * i);
+        }
+        for (int i = 0; i < indices; i++) {
+            catalog.setClusterGauge("index_doc_number", 10_000_000.0 * i, "index-" + i, "total");
+            catalog.setClusterGauge("index_size_bytes", i / 3.0, "index-" + i, "primaries");
+        }
+        catalog.setClusterGauge("cluster_nodes_number", nodes);
+    }
+
+    static PrometheusMetricsCatalog catalog(int shards) {
+        PrometheusMetricsCatalog catalog = new PrometheusMetricsCatalog("test", "opensearch_", shards);
+        catalog.registerClusterGauge("cluster_nodes_number", "Number of nodes in the cluster");
+        catalog.registerNodeGauge("jvm_uptime_seconds", "JVM uptime");
+        catalog.registerClusterGauge("index_doc_number", "Count of documents", "index", "context");
+        catalog.registerNodeGauge("threadpool_threads_number", "Number of threads in thread pool", "name", "type");
+        catalog.registerSummaryTimer("metrics_generate_time_seconds", "Time spent while generating metrics");
+        catalog.registerClusterGauge("index_size_bytes", "Size of the index", "index", "context");
+        return catalog;
+    }
+
+    static byte[] write(PrometheusMetricsCatalog catalog, ExpositionFormat format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        catalog.write(format, out);
+        return out.toByteArray();
+    }
+
+    public void testChunkedOutputIsIdenticalToSerialOutput() throws Exception {
+        int shards = randomIntBetween(2, 5);
+        PrometheusMetricsCatalog catalog = catalog(shards);
+        catalog.setParallelRenderThreshold(1);
+        ExecutorService executor = Executors.newFixedThreadPool(shards - 1);
+        try {
+            // Rendered repeatedly, the chunk buffers are sized by the previous rounds.
+            for (int round = 0; round < 3; round++) {
+                catalog.clearGauges();
+                populate(catalog, randomIntBetween(1, 30), randomIntBetween(0, 100));
+                for (ExpositionFormat format : ExpositionFormat.values()) {
+                    ByteArrayOutputStream chunked = new ByteArrayOutputStream();
+                    catalog.write(format, chunked, executor);
+                    assertArrayEquals(format.name(), write(catalog, format), chunked.toByteArray());
+                }
+            }
+        } finally {
+            terminate(executor);
+        }
+    }
+
+    public void testSmallCatalogIsRenderedByCallingThread() throws Exception {
+        PrometheusMetricsCatalog catalog = catalog(randomIntBetween(2, 5));
+        populate(catalog, 3, 3);
+        // Any attempt to submit a chunk fails the test.
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        catalog.write(ExpositionFormat.TEXT_004, out, command -> fail("Catalog below the threshold is rendered in parallel"));
+        assertArrayEquals(write(catalog, ExpositionFormat.TEXT_004), out.toByteArray());
+    }
+
+    /**
+     * The catalog renders the same output as simpleclient renders from equivalent registry: families in the order
+     * of registration, series in the order of insertion (except those dropped in the previous rounds).
+     */
+    public void testOutputIsIdenticalToSimpleclient() throws IOException {
+        String help = "Help with \\ backslash, \"quotes\"\nand new line";
+        PrometheusMetricsCatalog catalog = new PrometheusMetricsCatalog("test \"cluster\"", "opensearch_");
+        catalog.registerClusterGauge("cluster_nodes_number", "Number of nodes");
+        catalog.registerSummary("metrics_payload_size_bytes", "Size of the payload", "format");
+        catalog.registerNodeGauge("fs_path_bytes", help, "path", "type");
+        catalog.registerClusterGauge("cluster_empty_number", "Gauge without series");
+        // Registered after the other summary but its _created samples are listed first by the 0.0.4 text format.
+        catalog.registerSummaryTimer("metrics_generate_time_seconds", "Time spent");
+        Tuple<String, String> node = new Tuple<>("node-1", "id-1");
+
+        // Stale series of the first round must not be exposed.
+        catalog.clearGauges();
+        catalog.setClusterGauge("cluster_nodes_number", 4);
+        catalog.setNodeGauge(node, "fs_path_bytes", 1, "/stale", "total");
+        catalog.setNodeGauge(node, "fs_path_bytes", 2, "/data\\0", "total");
+        catalog.observeSummary(node, "metrics_payload_size_bytes", 1024, "text");
+
+        catalog.clearGauges();
+        catalog.setClusterGauge("cluster_nodes_number", 3);
+        double[] values = {9_999_999, 1e7, 0.1, -0.0, 0, -12.5, Double.NaN, Double.POSITIVE_INFINITY};
+        for (int i = 0; i < values.length; i++) {
+            catalog.setNodeGauge(node, "fs_path_bytes", values[i], "/data\\0", "\"type\"\n" + i);
+        }
+        catalog.setNodeGauge(node, "fs_path_bytes", 2, "/data\\0", "total");
+        catalog.observeSummary(node, "metrics_payload_size_bytes", 2048.5, "text");
+        catalog.observeSummary(node, "metrics_payload_size_bytes", 10, "openmetrics");
+        catalog.observeSummaryTimer(node, "metrics_generate_time_seconds", 0.125);
+
+        List<Collector.MetricFamilySamples> expected = new ArrayList<>();
+        expected.add(gauge("opensearch_cluster_nodes_number", "Number of nodes",
+                sample("opensearch_cluster_nodes_number", List.of("cluster"), List.of("test \"cluster\""), 3)));
+        expected.add(summary(catalog, "metrics_payload_size_bytes", "Size of the payload", node,
+                "format", "text", "openmetrics"));
+        List<Collector.MetricFamilySamples.Sample> fsSamples = new ArrayList<>();
+        List<String> fsLabels = List.of("cluster", "node", "nodeid", "path", "type");
+        for (int i = 0; i < values.length; i++) {
+            fsSamples.add(sample("opensearch_fs_path_bytes", fsLabels,
+                    List.of("test \"cluster\"", "node-1", "id-1", "/data\\0", "\"type\"\n" + i), values[i]));
+        }
+        fsSamples.add(0, sample("opensearch_fs_path_bytes", fsLabels,
+                List.of("test \"cluster\"", "node-1", "id-1", "/data\\0", "total"), 2));
+        expected.add(new Collector.MetricFamilySamples(
+                "opensearch_fs_path_bytes", Collector.Type.GAUGE, help, fsSamples));
+        expected.add(gauge("opensearch_cluster_empty_number", "Gauge without series"));
+        expected.add(summary(catalog, "metrics_generate_time_seconds", "Time spent", node, null));
+
+        StringWriter text = new StringWriter();
+        TextFormat.write004(text, Collections.enumeration(expected));
+        assertEquals(text.toString(), new String(write(catalog, ExpositionFormat.TEXT_004), StandardCharsets.UTF_8));
+
+        StringWriter openMetrics = new StringWriter();
+        TextFormat.writeOpenMetrics100(openMetrics, Collections.enumeration(expected));
+        assertEquals(openMetrics.toString(),
+                new String(write(catalog, ExpositionFormat.OPENMETRICS_100), StandardCharsets.UTF_8));
+    }
+
+    private static Collector.MetricFamilySamples.Sample sample(String name, List<String> labelNames,
+                                                               List<String> labelValues, double value) {
+        return new Collector.MetricFamilySamples.Sample(name, labelNames, labelValues, value);
+    }
+
+    private static Collector.MetricFamilySamples gauge(String name, String help,
+                                                       Collector.MetricFamilySamples.Sample... samples) {
+        return new Collector.MetricFamilySamples(name, Collector.Type.GAUGE, help, List.of(samples));
+    }
+
+    // Samples of the summary series in the order simpleclient Summary lists them: _count, _sum and _created
+    private static Collector.MetricFamilySamples summary(PrometheusMetricsCatalog catalog, String metric, String help,
+                                                         Tuple<String, String> node, String labelName,
+                                                         String... labelValues) {
+        MetricFamily family = catalog.family(metric);
+        List<Collector.MetricFamilySamples.Sample> samples = new ArrayList<>();
+        List<String> labelNames = new ArrayList<>(List.of("cluster", "node", "nodeid"));
+        if (labelName != null) {
+            labelNames.add(labelName);
+        }
+        List<String[]> series = new ArrayList<>();
+        if (labelValues.length == 0) {
+            series.add(new String[0]);
+        }
+        for (String labelValue : labelValues) {
+            series.add(new String[] {labelValue});
+        }
+        for (String[] values : series) {
+            int slot = family.find(node.v1(), node.v2(), values);
+            List<String> allValues = new ArrayList<>(List.of("test \"cluster\"", node.v1(), node.v2()));
+            allValues.addAll(List.of(values));
+            samples.add(sample(family.name() + "_count", labelNames, allValues, family.count(slot)));
+            samples.add(sample(family.name() + "_sum", labelNames, allValues, family.value(slot)));
+            samples.add(sample(family.name() + "_created", labelNames, allValues, family.created(slot)));
+        }
+        return new Collector.MetricFamilySamples(family.name(), Collector.Type.SUMMARY, help, samples);
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright [2016] [Vincent VAN HOLLEBEKE]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.compuscene.metrics.prometheus;
+
+import org.opensearch.Version;
+import org.opensearch.action.admin.cluster.health.ClusterHealthResponse;
+import org.opensearch.action.admin.cluster.node.stats.NodeStats;
+import org.opensearch.action.admin.indices.stats.IndexStats;
+import org.opensearch.action.admin.indices.stats.IndicesStatsResponse;
+import org.opensearch.action.admin.indices.stats.ShardStats;
+import org.opensearch.cluster.ClusterName;
+import org.opensearch.cluster.ClusterState;
+import org.opensearch.cluster.metadata.IndexMetadata;
+import org.opensearch.cluster.metadata.Metadata;
+import org.opensearch.cluster.node.DiscoveryNode;
+import org.opensearch.cluster.node.DiscoveryNodeRole;
+import org.opensearch.cluster.routing.RoutingTable;
+import org.opensearch.common.settings.ClusterSettings;
+import org.opensearch.common.settings.Setting;
+import org.opensearch.common.settings.Settings;
+import org.opensearch.common.unit.TimeValue;
+import org.opensearch.core.indices.breaker.AllCircuitBreakerStats;
+import org.opensearch.core.indices.breaker.CircuitBreakerStats;
+import org.opensearch.monitor.jvm.JvmStats;
+import org.opensearch.monitor.process.ProcessStats;
+import org.opensearch.plugin.prometheus.PrometheusExporterPlugin;
+import org.opensearch.test.OpenSearchTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PrometheusMetricsCollectorTests extends OpenSearchTestCase {
+
+    static PrometheusSettings prometheusSettings(Settings settings) {
+        Set<Setting<?>> registered = new HashSet<>(new PrometheusExporterPlugin().getSettings());
+        return new PrometheusSettings(settings, new ClusterSettings(settings, registered));
+    }
+
+    /**
+     * @param nodes Number of nodes
+     * @return Stats of given number of nodes, only some of the stats are set
+     */
+    static NodeStats[] nodeStats(int nodes) {
+        JvmStats jvmStats = JvmStats.jvmStats();
+        NodeStats[] stats = new NodeStats[nodes];
+        for (int i = 0; i < nodes; i++) {
+            DiscoveryNode node = new DiscoveryNode("node-" + i, "node-id-" + i, buildNewFakeTransportAddress(),
+                    Collections.emptyMap(), DiscoveryNodeRole.BUILT_IN_ROLES, Version.CURRENT);
+            ProcessStats processStats = new ProcessStats(i, i, 65536,
+                    new ProcessStats.Cpu((short) i, 1000L * i), new ProcessStats.Mem((1L << 30) + i));
+            AllCircuitBreakerStats breakerStats = new AllCircuitBreakerStats(new CircuitBreakerStats[] {
+                new CircuitBreakerStats("parent", 1L << 30, i, 1.0, 0),
+                new CircuitBreakerStats("request", 1L << 29, 2L * i, 1.0, i)
+            });
+            NodeStats nodeStats = mock(NodeStats.class);
+            when(nodeStats.getNode()).thenReturn(node);
+            when(nodeStats.getJvm()).thenReturn(jvmStats);
+            when(nodeStats.getProcess()).thenReturn(processStats);
+            when(nodeStats.getBreaker()).thenReturn(breakerStats);
+            stats[i] = nodeStats;
+        }
+        return stats;
+    }
+
+    /**
+     * Render the catalog, samples of the summaries observing durations are left out.
+     */
+    static String render(PrometheusMetricsCollector collector, ExpositionFormat format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        collector.getCatalog().write(format, out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8).lines()
+                .filter(line -> line.startsWith("opensearch_metrics_generate_time_seconds") == false)
+                .collect(Collectors.joining("\n"));
+    }
+
+    public void testParallelPopulationExposesTheSameMetricsAsSerialPopulation() throws Exception {
+        PrometheusSettings settings = prometheusSettings(Settings.EMPTY);
+        int shards = randomIntBetween(2, 5);
+        PrometheusMetricsCollector serial = new PrometheusMetricsCollector(
+                new PrometheusMetricsCatalog("test", "opensearch_", shards), settings);
+        ExecutorService executor = Executors.newFixedThreadPool(shards - 1);
+        try {
+            PrometheusMetricsCollector parallel = new PrometheusMetricsCollector(
+                    new PrometheusMetricsCatalog("test", "opensearch_", shards), settings, executor);
+            parallel.setParallelNodesThreshold(1);
+            serial.registerMetrics();
+            parallel.registerMetrics();
+            // Nodes leave the cluster between the rounds, their series must not be exposed anymore.
+            NodeStats[] nodeStats = nodeStats(randomIntBetween(2, 40));
+            for (int round = 0; round < 3; round++) {
+                serial.updateMetrics("node-0", "node-id-0", null, nodeStats, null, null);
+                parallel.updateMetrics("node-0", "node-id-0", null, nodeStats, null, null);
+                for (ExpositionFormat format : ExpositionFormat.values()) {
+                    if (format != ExpositionFormat.PROTOBUF_DELIMITED) {
+                        assertEquals(render(serial, format), render(parallel, format));
+                    }
+                }
+                assertTrue(render(parallel, ExpositionFormat.TEXT_004).contains("node-id-" + (nodeStats.length - 1)));
+                nodeStats = Arrays.copyOf(nodeStats, Math.max(1, nodeStats.length - randomIntBetween(0, 5)));
+            }
+        } finally {
+            terminate(executor);
+        }
+    }
+
+    public void testIndicesWithoutHealthAreCountedOnce() throws Exception {
+        // Per-index metrics of grouped indices are exported too, the health of every index is looked up twice.
+        PrometheusSettings settings = prometheusSettings(Settings.builder()
+                .put(PrometheusSettings.PROMETHEUS_INDEX_GROUPS_STRIP_DATE_SUFFIX_KEY, true)
+                .put(PrometheusSettings.PROMETHEUS_INDEX_GROUPS_SUPPRESS_INDICES_KEY, false)
+                .put(PrometheusSettings.PROMETHEUS_INDICES_STATS_TOP_K_KEY, randomFrom(0, 1, 10))
+                .build());
+        PrometheusMetricsCollector collector = new PrometheusMetricsCollector(
+                new PrometheusMetricsCatalog("test", "opensearch_", 1), settings);
+        collector.registerMetrics();
+
+        // Only the first index has health, the others were created after the health was requested.
+        String[] healthy = {"logs-2024.01.31"};
+        String[] indices = {"logs-2024.01.31", "logs-2024.02.01", "plain"};
+        Metadata.Builder metadata = Metadata.builder();
+        RoutingTable.Builder routingTable = RoutingTable.builder();
+        IndexMetadata indexMetadata = IndexMetadata.builder(healthy[0])
+                .settings(settings(Version.CURRENT))
+                .numberOfShards(1)
+                .numberOfReplicas(0)
+                .build();
+        metadata.put(indexMetadata, false);
+        routingTable.addAsNew(indexMetadata);
+        ClusterState state = ClusterState.builder(new ClusterName("test"))
+                .metadata(metadata)
+                .routingTable(routingTable.build())
+                .build();
+        ClusterHealthResponse health = new ClusterHealthResponse("test", healthy, state, 0, 0, 0, TimeValue.ZERO);
+
+        Map<String, IndexStats> stats = new HashMap<>();
+        for (String index : indices) {
+            stats.put(index, new IndexStats(index, "_na_", new ShardStats[0]));
+        }
+        IndicesStatsResponse indicesStats = mock(IndicesStatsResponse.class);
+        when(indicesStats.getIndices()).thenReturn(stats);
+
+        for (int round = 0; round < 2; round++) {
+            collector.updateMetrics("node-0", "node-id-0", health, new NodeStats[0], indicesStats, null);
+            collector.updateCollectionFailures("node-0", "node-id-0", Collections.emptyList(), Collections.emptyList(),
+                    Collections.emptyList(), indicesStats);
+            String output = render(collector, ExpositionFormat.TEXT_004);
+            assertTrue(output, output.contains("opensearch_metrics_collection_indices_without_health_number"
+                    + "{cluster=\"test\",node=\"node-0\",nodeid=\"node-id-0\",} 2.0"));
+            assertTrue(output, output.contains("opensearch_index_group_indices_number"
+                    + "{cluster=\"test\",index_group=\"logs\",} 2.0"));
+        }
+    }
+
+    public void testIndexGroupNameWithoutDateSuffix() {
+        List<Pattern> noPatterns = Collections.emptyList();
+        // Daily indices
+        assertEquals("logs", PrometheusMetricsCollector.indexGroupName("logs-2024.01.31", noPatterns, true));
+        assertEquals("logs", PrometheusMetricsCollector.indexGroupName("logs-2024.02.01", noPatterns, true));
+        assertEquals("logs-app", PrometheusMetricsCollector.indexGroupName("logs-app-2024-01-31", noPatterns, true));
+        assertEquals("metrics", PrometheusMetricsCollector.indexGroupName("metrics_202401", noPatterns, true));
+        // Rolled over indices
+        assertEquals("logs-app", PrometheusMetricsCollector.indexGroupName("logs-app-000001", noPatterns, true));
+        assertEquals("logs-app", PrometheusMetricsCollector.indexGroupName("logs-app-2024.01.31-000001", noPatterns, true));
+        // Backing indices of data streams
+        assertEquals("logs-app", PrometheusMetricsCollector.indexGroupName(".ds-logs-app-000002", noPatterns, true));
+        assertEquals("logs-app", PrometheusMetricsCollector.indexGroupName(".ds-logs-app-2024.01.31-000001", noPatterns, true));
+        // Indices without any suffix do not belong to any group
+        assertEquals("", PrometheusMetricsCollector.indexGroupName("plain", noPatterns, true));
+        assertEquals("", PrometheusMetricsCollector.indexGroupName(".kibana_1", noPatterns, true));
+        assertEquals("", PrometheusMetricsCollector.indexGroupName("logs-2024.01.31", noPatterns, false));
+    }
+
+    public void testIndexGroupNameKeepsNumericSuffixesThatAreNotDates() {
+        List<Pattern> noPatterns = Collections.emptyList();
+        assertEquals("logs", PrometheusMetricsCollector.indexGroupName("logs-2024", noPatterns, true));
+        assertEquals("logs", PrometheusMetricsCollector.indexGroupName("logs-2024.01", noPatterns, true));
+        assertEquals("logs", PrometheusMetricsCollector.indexGroupName("logs-20240131", noPatterns, true));
+        assertEquals("app", PrometheusMetricsCollector.indexGroupName("app_2024_12_31", noPatterns, true));
+        // Numbered indices are not merged into one group
+        assertEquals("", PrometheusMetricsCollector.indexGroupName("customer-1234", noPatterns, true));
+        assertEquals("", PrometheusMetricsCollector.indexGroupName("customer-123", noPatterns, true));
+        assertEquals("", PrometheusMetricsCollector.indexGroupName("app-1234-5678", noPatterns, true));
+        assertEquals("", PrometheusMetricsCollector.indexGroupName("build_12345678", noPatterns, true));
+        // Implausible years, months and days, mixed separators
+        assertEquals("", PrometheusMetricsCollector.indexGroupName("logs-1899.01.01", noPatterns, true));
+        assertEquals("", PrometheusMetricsCollector.indexGroupName("logs-2024.13.01", noPatterns, true));
+        assertEquals("", PrometheusMetricsCollector.indexGroupName("logs-2024.01.32", noPatterns, true));
+        assertEquals("", PrometheusMetricsCollector.indexGroupName("logs-20241301", noPatterns, true));
+        assertEquals("", PrometheusMetricsCollector.indexGroupName("logs-2024.01-31", noPatterns, true));
+    }
+
+    public void testIndexGroupNameByPatterns() {
+        List<Pattern> patterns = List.of(Pattern.compile("(logs-app)-.*"), Pattern.compile("metrics-.*"));
+        assertEquals("logs-app", PrometheusMetricsCollector.indexGroupName("logs-app-2024.01.31", patterns, true));
+        assertEquals("metrics-.*", PrometheusMetricsCollector.indexGroupName("metrics-2024.01.31", patterns, false));
+        // Indices not matching any pattern are grouped by the name without date suffix (if enabled)
+        assertEquals("logs", PrometheusMetricsCollector.indexGroupName("logs-2024.01.31", patterns, true));
+        assertEquals("", PrometheusMetricsCollector.indexGroupName("logs-2024.01.31", patterns, false));
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright [2016] [Vincent VAN HOLLEBEKE]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.compuscene.metrics.prometheus;
+
+import org.opensearch.test.OpenSearchTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ProtobufFormatTests extends OpenSearchTestCase {
+
+    private static final String CLUSTER = "test cluster é";
+
+    private static final String[] LABEL_VALUES = {
+        "plain", "", "unicode é中", "surrogate pair 😀", "unpaired \uD800 surrogate"
+    };
+
+    public void testFamiliesAreEncodedAsDelimitedMessages() throws IOException {
+        MetricFamily gauge = new MetricFamily(0, "test_gauge", "Gauge é", MetricFamily.Type.GAUGE,
+                new String[] {"cluster", "name"}, 0);
+        // Label values longer than the encoder buffer
+        String longValue = randomAlphaOfLength(randomIntBetween(8192, 20000));
+        List<String> values = new ArrayList<>(List.of(LABEL_VALUES));
+        values.add(longValue);
+        for (int i = 0; i < values.size(); i++) {
+            gauge.set(gauge.slot(null, null, new String[] {values.get(i)}), i - 1.5, 1);
+        }
+        // Stale series are not exported
+        gauge.set(gauge.slot(null, null, new String[] {"stale"}), 0, 0);
+        MetricFamily summary = new MetricFamily(1, "test_summary", "Summary", MetricFamily.Type.SUMMARY,
+                new String[] {"cluster"}, 0);
+        int slot = summary.slot(null, null, new String[0]);
+        summary.observe(slot, 2.5, 1);
+        summary.observe(slot, 0.5, 1);
+        MetricFamily empty = new MetricFamily(2, "test_empty", "Empty", MetricFamily.Type.GAUGE,
+                new String[] {"cluster"}, 0);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ProtobufFormat encoder = new ProtobufFormat(new BlockOnlyOutputStream(bytes), CLUSTER);
+        encoder.writeFamily(gauge, 1);
+        encoder.writeFamily(empty, 1);
+        encoder.writeFamily(summary, 1);
+        encoder.flush();
+
+        ByteBuffer in = ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer family = delimited(in);
+        assertField(family, 1, 2);
+        assertEquals("test_gauge", string(family));
+        assertField(family, 2, 2);
+        assertEquals("Gauge é", string(family));
+        assertField(family, 3, 0);
+        assertEquals(1, varint(family));
+        for (int i = 0; i < values.size(); i++) {
+            assertField(family, 4, 2);
+            ByteBuffer metric = delimited(family);
+            assertLabel(metric, "cluster", CLUSTER);
+            // Unpaired surrogates are replaced like String#getBytes does
+            String expected = new String(values.get(i).getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+            assertLabel(metric, "name", expected);
+            assertField(metric, 2, 2);
+            ByteBuffer value = delimited(metric);
+            assertField(value, 1, 1);
+            assertEquals(i - 1.5, value.getDouble(), 0);
+            assertFalse(value.hasRemaining());
+            assertFalse(metric.hasRemaining());
+        }
+        assertFalse(family.hasRemaining());
+
+        family = delimited(in);
+        assertField(family, 1, 2);
+        assertEquals("test_summary", string(family));
+        assertField(family, 2, 2);
+        assertEquals("Summary", string(family));
+        assertField(family, 3, 0);
+        assertEquals(2, varint(family));
+        assertField(family, 4, 2);
+        ByteBuffer metric = delimited(family);
+        assertLabel(metric, "cluster", CLUSTER);
+        assertField(metric, 4, 2);
+        ByteBuffer value = delimited(metric);
+        assertField(value, 1, 0);
+        assertEquals(2, varint(value));
+        assertField(value, 2, 1);
+        assertEquals(3.0, value.getDouble(), 0);
+        assertFalse(value.hasRemaining());
+        assertFalse(metric.hasRemaining());
+        assertFalse(family.hasRemaining());
+        assertFalse("The empty family is skipped", in.hasRemaining());
+    }
+
+    private static void assertLabel(ByteBuffer metric, String name, String value) {
+        assertField(metric, 1, 2);
+        ByteBuffer label = delimited(metric);
+        assertField(label, 1, 2);
+        assertEquals(name, string(label));
+        assertField(label, 2, 2);
+        assertEquals(value, string(label));
+        assertFalse(label.hasRemaining());
+    }
+
+    private static void assertField(ByteBuffer in, int field, int wireType) {
+        assertEquals((field << 3) | wireType, varint(in));
+    }
+
+    private static String string(ByteBuffer in) {
+        ByteBuffer bytes = delimited(in);
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+
+    private static ByteBuffer delimited(ByteBuffer in) {
+        int length = (int) varint(in);
+        ByteBuffer message = in.slice().order(ByteOrder.LITTLE_ENDIAN);
+        message.limit(length);
+        in.position(in.position() + length);
+        return message;
+    }
+
+    private static long varint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Fails on single byte writes, these are expensive on compressing streams.
+     */
+    private static class BlockOnlyOutputStream extends OutputStream {
+        private final OutputStream out;
+
+        BlockOnlyOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) {
+            throw new AssertionError("single byte write");
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+    }
+}
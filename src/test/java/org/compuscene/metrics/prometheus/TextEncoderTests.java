@@ -0,0 +1,137 @@
+/*
+ * Copyright [2016] [Vincent VAN HOLLEBEKE]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.compuscene.metrics.prometheus;
+
+import org.opensearch.test.OpenSearchTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.exporter.common.TextFormat;
+
+public class TextEncoderTests extends OpenSearchTestCase {
+
+    private static final String CLUSTER = "test \"cluster\"\n\\";
+    private static final String HELP = "Help with \\ backslash, \"quotes\"\nand new line";
+
+    private static final double[] VALUES = {
+        0, -0.0, 1, -1, 42, 9_999_999, -9_999_999, 1e7, -1e7, 12_345_678, 1e15, 0.1, -0.5, 1.0 / 3, 123456.789,
+        1e-3, 1e-10, Double.MIN_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, Long.MAX_VALUE,
+        Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY
+    };
+
+    private static final String[] LABEL_VALUES = {
+        "plain", "", "with \"quotes\"", "with \\ backslash", "with\nnew line", "\\\"\n", "unicode é中"
+    };
+
+    public void testValuesAreFormattedLikeSimpleclient() throws IOException {
+        List<double[]> values = new ArrayList<>();
+        for (double value : VALUES) {
+            values.add(new double[] {value});
+        }
+        // Random values, both integral and fractional
+        for (int i = 0; i < 100; i++) {
+            double value = randomBoolean() ? randomIntBetween(-20_000_000, 20_000_000) : randomDouble() * randomLong();
+            values.add(new double[] {value});
+        }
+        for (boolean openMetrics : new boolean[] {false, true}) {
+            MetricFamily family = family("test_values", HELP, "value");
+            List<Collector.MetricFamilySamples.Sample> samples = new ArrayList<>();
+            for (int i = 0; i < values.size(); i++) {
+                double value = values.get(i)[0];
+                int slot = family.slot(null, null, new String[] {Integer.toString(i)});
+                family.set(slot, value, 0);
+                samples.add(new Collector.MetricFamilySamples.Sample("test_values",
+                        List.of("cluster", "value"), List.of(CLUSTER, Integer.toString(i)), value));
+            }
+            assertEncoded(openMetrics, family,
+                    new Collector.MetricFamilySamples("test_values", Collector.Type.GAUGE, HELP, samples));
+        }
+    }
+
+    public void testLabelsAndHelpAreEscapedLikeSimpleclient() throws IOException {
+        for (boolean openMetrics : new boolean[] {false, true}) {
+            MetricFamily family = family("test_labels", HELP, "first", "second");
+            List<Collector.MetricFamilySamples.Sample> samples = new ArrayList<>();
+            for (String first : LABEL_VALUES) {
+                for (String second : LABEL_VALUES) {
+                    int slot = family.slot(null, null, new String[] {first, second});
+                    family.set(slot, slot, 0);
+                    samples.add(new Collector.MetricFamilySamples.Sample("test_labels",
+                            List.of("cluster", "first", "second"), List.of(CLUSTER, first, second), slot));
+                }
+            }
+            assertEncoded(openMetrics, family,
+                    new Collector.MetricFamilySamples("test_labels", Collector.Type.GAUGE, HELP, samples));
+        }
+    }
+
+    public void testOutputLargerThanBuffer() throws IOException {
+        for (boolean openMetrics : new boolean[] {false, true}) {
+            MetricFamily family = family("test_large", "Large family", "index");
+            List<Collector.MetricFamilySamples.Sample> samples = new ArrayList<>();
+            // Long label values are written bypassing the encoder buffer.
+            String longValue = randomAlphaOfLength(10_000);
+            for (int i = 0; i < 2_000; i++) {
+                String index = i % 100 == 0 ? longValue + i : "index-" + i;
+                int slot = family.slot(null, null, new String[] {index});
+                family.set(slot, i * 1.5, 0);
+                samples.add(new Collector.MetricFamilySamples.Sample("test_large",
+                        List.of("cluster", "index"), List.of(CLUSTER, index), i * 1.5));
+            }
+            assertEncoded(openMetrics, family,
+                    new Collector.MetricFamilySamples("test_large", Collector.Type.GAUGE, "Large family", samples));
+        }
+    }
+
+    private static MetricFamily family(String name, String help, String... labelNames) {
+        String[] names = new String[labelNames.length + 1];
+        names[0] = "cluster";
+        System.arraycopy(labelNames, 0, names, 1, labelNames.length);
+        return new MetricFamily(0, name, help, MetricFamily.Type.GAUGE, names, 0);
+    }
+
+    // The family is encoded twice, the second time from the cached header, names and labels.
+    private static void assertEncoded(boolean openMetrics, MetricFamily family,
+                                      Collector.MetricFamilySamples expected) throws IOException {
+        StringWriter writer = new StringWriter();
+        if (openMetrics) {
+            TextFormat.writeOpenMetrics100(writer, Collections.enumeration(List.of(expected)));
+        } else {
+            TextFormat.write004(writer, Collections.enumeration(List.of(expected)));
+        }
+        for (int round = 0; round < 2; round++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            TextEncoder encoder = new TextEncoder(out, CLUSTER, openMetrics);
+            encoder.writeHeader(family);
+            for (int slot = 0; slot < family.size(); slot++) {
+                encoder.writeSample(family, TextEncoder.Suffix.NONE, slot, family.value(slot));
+            }
+            if (openMetrics) {
+                encoder.writeEof();
+            }
+            encoder.flush();
+            assertEquals(writer.toString(), new String(out.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+}
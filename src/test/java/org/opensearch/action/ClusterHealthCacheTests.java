@@ -0,0 +1,84 @@
+/*
+ * Copyright [2016] [Vincent VAN HOLLEBEKE]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.opensearch.action;
+
+import org.opensearch.action.admin.cluster.health.ClusterHealthRequest;
+import org.opensearch.action.admin.cluster.health.ClusterHealthResponse;
+import org.opensearch.cluster.ClusterName;
+import org.opensearch.cluster.ClusterState;
+import org.opensearch.common.unit.TimeValue;
+import org.opensearch.test.OpenSearchTestCase;
+
+public class ClusterHealthCacheTests extends OpenSearchTestCase {
+
+    private static final ClusterHealthRequest.Level LEVEL = ClusterHealthRequest.Level.CLUSTER;
+
+    public void testCacheHit() {
+        ClusterHealthCache cache = new ClusterHealthCache();
+        assertNull(cache.get(1, LEVEL, false));
+        ClusterHealthResponse response = health(0, 0);
+        cache.put(1, LEVEL, false, response);
+        assertSame(response, cache.get(1, LEVEL, false));
+        assertSame(response, cache.get(1, LEVEL, false));
+    }
+
+    public void testMissAfterClusterStateVersionBump() {
+        ClusterHealthCache cache = new ClusterHealthCache();
+        cache.put(1, LEVEL, false, health(0, 0));
+        assertNull(cache.get(2, LEVEL, false));
+
+        ClusterHealthResponse response = health(0, 0);
+        cache.put(2, LEVEL, false, response);
+        assertSame(response, cache.get(2, LEVEL, false));
+        assertNull(cache.get(1, LEVEL, false));
+    }
+
+    public void testMissOnOtherLevel() {
+        ClusterHealthCache cache = new ClusterHealthCache();
+        cache.put(1, LEVEL, false, health(0, 0));
+        assertNull(cache.get(1, ClusterHealthRequest.Level.INDICES, false));
+    }
+
+    public void testNonCacheableResponses() {
+        ClusterHealthCache cache = new ClusterHealthCache();
+        cache.put(1, LEVEL, false, health(randomIntBetween(1, 10), 0));
+        assertNull("pending tasks", cache.get(1, LEVEL, false));
+
+        cache.put(1, LEVEL, false, health(0, randomIntBetween(1, 10)));
+        assertNull("in-flight fetches", cache.get(1, LEVEL, false));
+
+        ClusterHealthResponse timedOut = health(0, 0);
+        timedOut.setTimedOut(true);
+        cache.put(1, LEVEL, false, timedOut);
+        assertNull("timed out", cache.get(1, LEVEL, false));
+    }
+
+    public void testNeverReusedOnClusterManager() {
+        ClusterHealthCache cache = new ClusterHealthCache();
+        // Pending tasks of the cluster manager change without new cluster state.
+        cache.put(1, LEVEL, true, health(0, 0));
+        assertNull(cache.get(1, LEVEL, false));
+
+        cache.put(1, LEVEL, false, health(0, 0));
+        assertNull(cache.get(1, LEVEL, true));
+    }
+
+    private static ClusterHealthResponse health(int pendingTasks, int inFlightFetches) {
+        ClusterState state = ClusterState.builder(new ClusterName("test")).build();
+        return new ClusterHealthResponse("test", new String[0], state, pendingTasks, inFlightFetches, 0, TimeValue.ZERO);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright [2016] [Vincent VAN HOLLEBEKE]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.opensearch.action;
+
+import org.opensearch.Version;
+import org.opensearch.cluster.ClusterName;
+import org.opensearch.cluster.ClusterState;
+import org.opensearch.cluster.metadata.IndexMetadata;
+import org.opensearch.cluster.metadata.Metadata;
+import org.opensearch.cluster.node.DiscoveryNode;
+import org.opensearch.cluster.node.DiscoveryNodes;
+import org.opensearch.cluster.routing.IndexRoutingTable;
+import org.opensearch.cluster.routing.IndexShardRoutingTable;
+import org.opensearch.cluster.routing.RoutingTable;
+import org.opensearch.cluster.routing.ShardRoutingState;
+import org.opensearch.cluster.routing.TestShardRouting;
+import org.opensearch.core.index.shard.ShardId;
+import org.opensearch.test.OpenSearchTestCase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class OwnedIndicesTests extends OpenSearchTestCase {
+
+    /**
+     * Every index is exported by exactly one node: indices with assigned primary, with unassigned primary
+     * and without routing table (closed indices).
+     */
+    public void testEveryIndexIsOwnedByExactlyOneNode() {
+        int nodes = randomIntBetween(1, 7);
+        DiscoveryNodes.Builder discoveryNodes = DiscoveryNodes.builder();
+        List<String> nodeIds = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) {
+            DiscoveryNode node = new DiscoveryNode("node_" + i, buildNewFakeTransportAddress(), Version.CURRENT);
+            discoveryNodes.add(node);
+            nodeIds.add(node.getId());
+        }
+        discoveryNodes.localNodeId(nodeIds.get(0));
+
+        Metadata.Builder metadata = Metadata.builder();
+        RoutingTable.Builder routingTable = RoutingTable.builder();
+        Map<String, String> primaryNodes = new HashMap<>();
+        List<String> indices = new ArrayList<>();
+        int indexCount = randomIntBetween(1, 50);
+        for (int i = 0; i < indexCount; i++) {
+            IndexMetadata indexMetadata = IndexMetadata.builder("index-" + i)
+                    .settings(settings(Version.CURRENT))
+                    .numberOfShards(1)
+                    .numberOfReplicas(0)
+                    .build();
+            metadata.put(indexMetadata, false);
+            indices.add(indexMetadata.getIndex().getName());
+            switch (randomIntBetween(0, 2)) {
+                case 0:
+                    String nodeId = randomFrom(nodeIds);
+                    ShardId shardId = new ShardId(indexMetadata.getIndex(), 0);
+                    IndexShardRoutingTable.Builder shard = new IndexShardRoutingTable.Builder(shardId);
+                    shard.addShard(TestShardRouting.newShardRouting(shardId, nodeId, true, ShardRoutingState.STARTED));
+                    routingTable.add(IndexRoutingTable.builder(indexMetadata.getIndex()).addIndexShard(shard.build()));
+                    primaryNodes.put(indexMetadata.getIndex().getName(), nodeId);
+                    break;
+                case 1:
+                    routingTable.addAsNew(indexMetadata);
+                    break;
+                default:
+                    // No routing table, e.g. a closed index
+            }
+        }
+        ClusterState state = ClusterState.builder(new ClusterName("test"))
+                .nodes(discoveryNodes)
+                .metadata(metadata)
+                .routingTable(routingTable.build())
+                .build();
+
+        String[] concreteIndices = indices.toArray(new String[0]);
+        Map<String, String> owners = new HashMap<>();
+        for (String nodeId : nodeIds) {
+            for (String index : TransportNodePrometheusMetricsAction.ownedIndices(state, nodeId, concreteIndices)) {
+                String previous = owners.put(index, nodeId);
+                assertNull("Index [" + index + "] is owned by both [" + previous + "] and [" + nodeId + "]", previous);
+            }
+        }
+        assertEquals(indices.size(), owners.size());
+        for (Map.Entry<String, String> primary : primaryNodes.entrySet()) {
+            assertEquals("Index is owned by the node holding its primary", primary.getValue(), owners.get(primary.getKey()));
+        }
+    }
+
+    public void testUnknownNodeOwnsNothing() {
+        DiscoveryNode node = new DiscoveryNode("node_0", buildNewFakeTransportAddress(), Version.CURRENT);
+        ClusterState state = ClusterState.builder(new ClusterName("test"))
+                .nodes(DiscoveryNodes.builder().add(node).localNodeId(node.getId()))
+                .build();
+        String[] indices = {"a", "b", "c"};
+        assertEquals(List.of(indices), TransportNodePrometheusMetricsAction.ownedIndices(state, node.getId(), indices));
+        assertTrue(TransportNodePrometheusMetricsAction.ownedIndices(state, "unknown", indices).isEmpty());
+    }
+}
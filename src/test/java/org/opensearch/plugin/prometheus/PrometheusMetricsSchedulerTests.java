@@ -0,0 +1,176 @@
+/*
+ * Copyright [2016] [Vincent VAN HOLLEBEKE]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.opensearch.plugin.prometheus;
+
+import org.compuscene.metrics.prometheus.ExpositionFormat;
+import org.compuscene.metrics.prometheus.PrometheusMetricsCatalog;
+import org.compuscene.metrics.prometheus.PrometheusMetricsCollector;
+import org.compuscene.metrics.prometheus.PrometheusSettings;
+import org.opensearch.Version;
+import org.opensearch.action.NodePrometheusMetricsAction;
+import org.opensearch.action.NodePrometheusMetricsRequest;
+import org.opensearch.action.NodePrometheusMetricsResponse;
+import org.opensearch.action.admin.cluster.node.stats.NodeStats;
+import org.opensearch.action.support.PlainActionFuture;
+import org.opensearch.client.Client;
+import org.opensearch.cluster.node.DiscoveryNode;
+import org.opensearch.common.io.stream.BytesStreamOutput;
+import org.opensearch.common.settings.ClusterSettings;
+import org.opensearch.common.settings.Setting;
+import org.opensearch.common.settings.Settings;
+import org.opensearch.common.unit.TimeValue;
+import org.opensearch.core.action.ActionListener;
+import org.opensearch.core.common.bytes.BytesReference;
+import org.opensearch.rest.prometheus.ContentEncoding;
+import org.opensearch.rest.prometheus.MetricsSnapshotCache;
+import org.opensearch.test.OpenSearchTestCase;
+import org.opensearch.threadpool.FixedExecutorBuilder;
+import org.opensearch.threadpool.Scheduler;
+import org.opensearch.threadpool.TestThreadPool;
+import org.opensearch.threadpool.ThreadPool;
+import org.junit.After;
+import org.junit.Before;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PrometheusMetricsSchedulerTests extends OpenSearchTestCase {
+
+    // Renders the snapshots, the scheduling itself is done by the mocked thread pool
+    private ThreadPool renderingThreadPool;
+    private ThreadPool threadPool;
+    private Client client;
+    private Scheduler.Cancellable cancellable;
+    // Cache refreshed by the last created scheduler
+    private MetricsSnapshotCache cache;
+
+    @Before
+    public void setUpMocks() {
+        renderingThreadPool = new TestThreadPool(getTestName(), new FixedExecutorBuilder(Settings.EMPTY,
+                PrometheusMetricsScheduler.EXECUTOR, 2, 1000, "thread_pool." + PrometheusMetricsScheduler.EXECUTOR));
+        threadPool = mock(ThreadPool.class);
+        cancellable = mock(Scheduler.Cancellable.class);
+        when(threadPool.scheduleWithFixedDelay(any(Runnable.class), any(TimeValue.class),
+                eq(PrometheusMetricsScheduler.EXECUTOR))).thenReturn(cancellable);
+        client = mock(Client.class);
+    }
+
+    @After
+    public void tearDownThreadPool() {
+        terminate(renderingThreadPool);
+    }
+
+    private static ClusterSettings clusterSettings(Settings settings) {
+        Set<Setting<?>> registered = new HashSet<>(new PrometheusExporterPlugin().getSettings());
+        return new ClusterSettings(settings, registered);
+    }
+
+    private PrometheusMetricsScheduler scheduler(Settings settings, ClusterSettings clusterSettings) {
+        PrometheusSettings prometheusSettings = new PrometheusSettings(settings, clusterSettings);
+        PrometheusMetricsCollector collector = new PrometheusMetricsCollector(
+                new PrometheusMetricsCatalog("test", "opensearch_"), prometheusSettings);
+        collector.registerMetrics();
+        DiscoveryNode localNode = new DiscoveryNode("node", buildNewFakeTransportAddress(), Version.CURRENT);
+        cache = new MetricsSnapshotCache(prometheusSettings, collector, () -> localNode, true,
+                renderingThreadPool, PrometheusMetricsScheduler.EXECUTOR);
+        return new PrometheusMetricsScheduler(client, threadPool, clusterSettings, prometheusSettings, cache);
+    }
+
+    public void testNotScheduledWithoutInterval() {
+        PrometheusMetricsScheduler scheduler = scheduler(Settings.EMPTY, clusterSettings(Settings.EMPTY));
+        scheduler.start();
+        scheduler.stop();
+        verify(threadPool, never()).scheduleWithFixedDelay(any(Runnable.class), any(TimeValue.class), any(String.class));
+    }
+
+    public void testScheduledWhileStarted() {
+        Settings settings = Settings.builder().put("prometheus.collection.interval", "10s").build();
+        PrometheusMetricsScheduler scheduler = scheduler(settings, clusterSettings(settings));
+        verify(threadPool, never()).scheduleWithFixedDelay(any(Runnable.class), any(TimeValue.class), any(String.class));
+
+        scheduler.start();
+        verify(threadPool).scheduleWithFixedDelay(any(Runnable.class), eq(TimeValue.timeValueSeconds(10)),
+                eq(PrometheusMetricsScheduler.EXECUTOR));
+
+        scheduler.stop();
+        verify(cancellable).cancel();
+    }
+
+    public void testRescheduledOnIntervalChange() {
+        ClusterSettings clusterSettings = clusterSettings(Settings.EMPTY);
+        PrometheusMetricsScheduler scheduler = scheduler(Settings.EMPTY, clusterSettings);
+        scheduler.start();
+
+        clusterSettings.applySettings(Settings.builder().put("prometheus.collection.interval", "5s").build());
+        verify(threadPool).scheduleWithFixedDelay(any(Runnable.class), eq(TimeValue.timeValueSeconds(5)),
+                eq(PrometheusMetricsScheduler.EXECUTOR));
+
+        clusterSettings.applySettings(Settings.builder().put("prometheus.collection.interval", "7s").build());
+        verify(cancellable, times(1)).cancel();
+        verify(threadPool).scheduleWithFixedDelay(any(Runnable.class), eq(TimeValue.timeValueSeconds(7)),
+                eq(PrometheusMetricsScheduler.EXECUTOR));
+
+        // Disabled background collection
+        clusterSettings.applySettings(Settings.EMPTY);
+        verify(cancellable, times(2)).cancel();
+
+        // Stopped scheduler does not schedule anything even if the interval changes.
+        scheduler.stop();
+        clusterSettings.applySettings(Settings.builder().put("prometheus.collection.interval", "3s").build());
+        verify(threadPool, never()).scheduleWithFixedDelay(any(Runnable.class), eq(TimeValue.timeValueSeconds(3)),
+                any(String.class));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void testBackgroundCollectionRefreshesSnapshot() {
+        Settings settings = Settings.builder().put("prometheus.collection.interval", "1h").build();
+        PrometheusMetricsScheduler scheduler = scheduler(settings, clusterSettings(settings));
+        scheduler.start();
+
+        ArgumentCaptor<Runnable> collection = ArgumentCaptor.forClass(Runnable.class);
+        verify(threadPool).scheduleWithFixedDelay(collection.capture(), any(TimeValue.class), any(String.class));
+        collection.getValue().run();
+
+        ArgumentCaptor<ActionListener<NodePrometheusMetricsResponse>> collected =
+                ArgumentCaptor.forClass((Class) ActionListener.class);
+        verify(client).execute(eq(NodePrometheusMetricsAction.INSTANCE), any(NodePrometheusMetricsRequest.class),
+                collected.capture());
+        collected.getValue().onResponse(new NodePrometheusMetricsResponse(null, new NodeStats[0],
+                null, null, Collections.emptyMap(), Collections.emptyList(), Collections.emptyList()));
+
+        // Scrapes either join the background collection or are served from the refreshed snapshot,
+        // they do not collect on their own.
+        for (int i = 0; i < 2; i++) {
+            PlainActionFuture<BytesReference> scrape = PlainActionFuture.newFuture();
+            cache.get(listener -> fail("The snapshot was not refreshed"), ExpositionFormat.TEXT_004,
+                    ContentEncoding.IDENTITY, BytesStreamOutput::new, scrape);
+            assertTrue(scrape.actionGet(10, TimeUnit.SECONDS).length() > 0);
+        }
+        scheduler.stop();
+    }
+}
@@ -23,15 +23,23 @@ import org.opensearch.action.admin.cluster.node.info.NodeInfo;
 import org.opensearch.action.admin.cluster.node.info.NodesInfoResponse;
 import org.opensearch.action.admin.cluster.node.info.PluginsAndModules;
 import org.opensearch.client.Request;
+import org.opensearch.client.RequestOptions;
 import org.opensearch.client.Response;
 import org.opensearch.client.RestClient;
+import org.opensearch.common.settings.Settings;
+import org.opensearch.http.HttpTransportSettings;
 import org.opensearch.plugins.Plugin;
 import org.opensearch.test.OpenSearchIntegTestCase;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.stream.Collectors;
+import java.util.zip.InflaterInputStream;
 
 @ThreadLeakScope(ThreadLeakScope.Scope.NONE)
 @OpenSearchIntegTestCase.ClusterScope(scope = OpenSearchIntegTestCase.Scope.SUITE, numDataNodes = 2, numClientNodes = 0, supportsDedicatedMasters = false)
@@ -42,6 +50,15 @@ public class PrometheusPluginIT extends OpenSearchIntegTestCase {
         return Arrays.asList(PrometheusExporterPlugin.class);
     }
 
+    @Override
+    protected Settings nodeSettings(int nodeOrdinal) {
+        // Responses are compressed only by the plugin, not by the HTTP layer.
+        return Settings.builder()
+                .put(super.nodeSettings(nodeOrdinal))
+                .put(HttpTransportSettings.SETTING_HTTP_COMPRESSION.getKey(), false)
+                .build();
+    }
+
     /**
      * Plugin must be installed on every cluster node.
      */
@@ -69,4 +86,64 @@ public class PrometheusPluginIT extends OpenSearchIntegTestCase {
         String body = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
         assertTrue(body.startsWith("# HELP"));
     }
+
+    /**
+     * Compressed responses hold the same metrics as the identity response, they are compressed by the plugin
+     * unless {@code prometheus.response.compression} is disabled.
+     */
+    public void testResponseCompression() throws IOException {
+        NodesInfoResponse nodesInfo = client().admin().cluster().prepareNodesInfo().clear().setHttp(true).get();
+        // Every node has its own snapshot cache, all the requests go to the same node and are served from one snapshot.
+        client().admin().cluster().prepareUpdateSettings()
+                .setTransientSettings(Settings.builder().put("prometheus.cache.ttl", "1h")).get();
+        try (RestClient rc = createRestClient(Collections.singletonList(nodesInfo.getNodes().get(0)), null, "http")) {
+            Response identity = metrics(rc, null);
+            assertNull(identity.getHeader("Content-Encoding"));
+            assertEquals("Accept, Accept-Encoding", identity.getHeader("Vary"));
+            String expected = withoutExporterSamples(EntityUtils.toByteArray(identity.getEntity()));
+
+            // The client decompresses gzip on its own (and drops the Content-Encoding header).
+            Response gzip = metrics(rc, "gzip");
+            assertEquals("Accept, Accept-Encoding", gzip.getHeader("Vary"));
+            assertEquals(expected, withoutExporterSamples(EntityUtils.toByteArray(gzip.getEntity())));
+
+            Response deflate = metrics(rc, "gzip;q=0.5, deflate");
+            assertEquals("deflate", deflate.getHeader("Content-Encoding"));
+            assertEquals("Accept, Accept-Encoding", deflate.getHeader("Vary"));
+            byte[] deflated = EntityUtils.toByteArray(deflate.getEntity());
+            try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(deflated))) {
+                assertEquals(expected, withoutExporterSamples(in.readAllBytes()));
+            }
+
+            client().admin().cluster().prepareUpdateSettings()
+                    .setTransientSettings(Settings.builder().put("prometheus.response.compression", false)).get();
+            Response disabled = metrics(rc, "deflate");
+            assertNull(disabled.getHeader("Content-Encoding"));
+            assertEquals(expected, withoutExporterSamples(EntityUtils.toByteArray(disabled.getEntity())));
+        } finally {
+            client().admin().cluster().prepareUpdateSettings()
+                    .setTransientSettings(Settings.builder()
+                            .putNull("prometheus.cache.ttl")
+                            .putNull("prometheus.response.compression")).get();
+        }
+    }
+
+    private static Response metrics(RestClient rc, String acceptEncoding) throws IOException {
+        Request request = new Request("GET", "_prometheus/metrics");
+        if (acceptEncoding != null) {
+            request.setOptions(RequestOptions.DEFAULT.toBuilder().addHeader("Accept-Encoding", acceptEncoding));
+        }
+        Response response = rc.performRequest(request);
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        return response;
+    }
+
+    // Samples of the exporter's own render and scrape summaries change with every request.
+    private static String withoutExporterSamples(byte[] body) {
+        return new String(body, StandardCharsets.UTF_8).lines()
+                .filter(line -> !line.startsWith("opensearch_metrics_render_time_seconds")
+                        && !line.startsWith("opensearch_metrics_payload_size_bytes")
+                        && !line.startsWith("opensearch_metrics_scrape_time_seconds"))
+                .collect(Collectors.joining("\n"));
+    }
 }
@@ -0,0 +1,127 @@
+/*
+ * Copyright [2016] [Vincent VAN HOLLEBEKE]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.opensearch.rest.prometheus;
+
+import org.opensearch.test.OpenSearchTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.opensearch.rest.prometheus.ContentEncoding.DEFLATE;
+import static org.opensearch.rest.prometheus.ContentEncoding.GZIP;
+import static org.opensearch.rest.prometheus.ContentEncoding.IDENTITY;
+import static org.opensearch.rest.prometheus.ContentEncoding.fromAcceptEncodingHeader;
+
+public class ContentEncodingTests extends OpenSearchTestCase {
+
+    public void testNoAcceptEncoding() {
+        assertEquals(IDENTITY, fromAcceptEncodingHeader(null));
+        assertEquals(IDENTITY, fromAcceptEncodingHeader(""));
+        assertEquals(IDENTITY, fromAcceptEncodingHeader("br, zstd"));
+    }
+
+    public void testSingleCoding() {
+        assertEquals(GZIP, fromAcceptEncodingHeader("gzip"));
+        assertEquals(GZIP, fromAcceptEncodingHeader("GZIP"));
+        assertEquals(GZIP, fromAcceptEncodingHeader("x-gzip"));
+        assertEquals(DEFLATE, fromAcceptEncodingHeader("deflate"));
+        assertEquals(IDENTITY, fromAcceptEncodingHeader("identity"));
+    }
+
+    public void testQualityValues() {
+        assertEquals(DEFLATE, fromAcceptEncodingHeader("gzip;q=0.5, deflate;q=0.8"));
+        assertEquals(GZIP, fromAcceptEncodingHeader("gzip;q=0.8, deflate;q=0.5"));
+        assertEquals(DEFLATE, fromAcceptEncodingHeader(" deflate ; q=0.9 ,gzip; q=0.1"));
+        // The first listed coding wins when the qualities are equal
+        assertEquals(GZIP, fromAcceptEncodingHeader("gzip, deflate"));
+        assertEquals(DEFLATE, fromAcceptEncodingHeader("deflate, gzip"));
+        assertEquals(DEFLATE, fromAcceptEncodingHeader("deflate;q=0.5, gzip;q=0.5"));
+        // Refused codings
+        assertEquals(IDENTITY, fromAcceptEncodingHeader("gzip;q=0"));
+        assertEquals(DEFLATE, fromAcceptEncodingHeader("gzip;q=0, deflate;q=0.1"));
+        // Malformed quality refuses the coding
+        assertEquals(DEFLATE, fromAcceptEncodingHeader("gzip;q=high, deflate;q=0.1"));
+    }
+
+    public void testWildcard() {
+        assertEquals(GZIP, fromAcceptEncodingHeader("*"));
+        assertEquals(IDENTITY, fromAcceptEncodingHeader("*;q=0"));
+        // Listed codings are not affected by the wildcard
+        assertEquals(DEFLATE, fromAcceptEncodingHeader("gzip;q=0, *"));
+        assertEquals(DEFLATE, fromAcceptEncodingHeader("gzip;q=0.2, *;q=0.5"));
+        assertEquals(GZIP, fromAcceptEncodingHeader("gzip, *;q=0"));
+    }
+
+    public void testIdentity() {
+        // Compression is preferred unless identity has higher quality.
+        assertEquals(GZIP, fromAcceptEncodingHeader("identity;q=0.5, gzip"));
+        assertEquals(GZIP, fromAcceptEncodingHeader("identity, gzip"));
+        assertEquals(IDENTITY, fromAcceptEncodingHeader("identity, gzip;q=0.5"));
+        assertEquals(DEFLATE, fromAcceptEncodingHeader("identity;q=0, deflate;q=0.1"));
+        // Nothing acceptable, the response is not compressed anyway.
+        assertEquals(IDENTITY, fromAcceptEncodingHeader("identity;q=0"));
+        assertEquals(IDENTITY, fromAcceptEncodingHeader("identity;q=0, gzip;q=0"));
+    }
+
+    public void testWrap() throws IOException {
+        byte[] content = randomRealisticUnicodeOfLengthBetween(0, 100_000).getBytes(StandardCharsets.UTF_8);
+        for (ContentEncoding encoding : ContentEncoding.values()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            boolean[] closed = {false};
+            OutputStream target = new OutputStream() {
+                @Override
+                public void write(int b) {
+                    out.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() {
+                    closed[0] = true;
+                }
+            };
+            try (OutputStream encoded = encoding.wrap(target)) {
+                encoded.write(content);
+            }
+            assertFalse("The wrapped stream must stay open", closed[0]);
+
+            InputStream in = new ByteArrayInputStream(out.toByteArray());
+            switch (encoding) {
+                case GZIP:
+                    in = new GZIPInputStream(in);
+                    break;
+                case DEFLATE:
+                    in = new InflaterInputStream(in);
+                    break;
+                default:
+            }
+            try (InputStream decoded = in) {
+                assertArrayEquals(encoding.name(), content, decoded.readAllBytes());
+            }
+        }
+    }
+}
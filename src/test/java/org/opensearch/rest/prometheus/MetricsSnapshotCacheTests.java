@@ -0,0 +1,180 @@
+/*
+ * Copyright [2016] [Vincent VAN HOLLEBEKE]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.opensearch.rest.prometheus;
+
+import org.compuscene.metrics.prometheus.ExpositionFormat;
+import org.compuscene.metrics.prometheus.PrometheusMetricsCatalog;
+import org.compuscene.metrics.prometheus.PrometheusMetricsCollector;
+import org.compuscene.metrics.prometheus.PrometheusSettings;
+import org.opensearch.Version;
+import org.opensearch.action.NodePrometheusMetricsResponse;
+import org.opensearch.action.admin.cluster.node.stats.NodeStats;
+import org.opensearch.action.support.PlainActionFuture;
+import org.opensearch.cluster.node.DiscoveryNode;
+import org.opensearch.common.io.stream.BytesStreamOutput;
+import org.opensearch.common.settings.ClusterSettings;
+import org.opensearch.common.settings.Setting;
+import org.opensearch.common.settings.Settings;
+import org.opensearch.core.action.ActionListener;
+import org.opensearch.core.common.bytes.BytesReference;
+import org.opensearch.plugin.prometheus.PrometheusExporterPlugin;
+import org.opensearch.plugin.prometheus.PrometheusMetricsScheduler;
+import org.opensearch.test.OpenSearchTestCase;
+import org.opensearch.threadpool.FixedExecutorBuilder;
+import org.opensearch.threadpool.TestThreadPool;
+import org.opensearch.threadpool.ThreadPool;
+import org.junit.After;
+import org.junit.Before;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+public class MetricsSnapshotCacheTests extends OpenSearchTestCase {
+
+    private ThreadPool threadPool;
+    private DiscoveryNode localNode;
+    // Listeners of the collections started by the cache, completed by the tests
+    private final List<ActionListener<NodePrometheusMetricsResponse>> collections = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUpThreadPool() {
+        threadPool = new TestThreadPool(getTestName(), new FixedExecutorBuilder(Settings.EMPTY,
+                PrometheusMetricsScheduler.EXECUTOR, 2, 1000, "thread_pool." + PrometheusMetricsScheduler.EXECUTOR));
+        localNode = new DiscoveryNode("node", buildNewFakeTransportAddress(), Version.CURRENT);
+    }
+
+    @After
+    public void tearDownThreadPool() {
+        terminate(threadPool);
+    }
+
+    private MetricsSnapshotCache cache(Settings settings, boolean scheduled) {
+        Set<Setting<?>> registered = new HashSet<>(new PrometheusExporterPlugin().getSettings());
+        PrometheusSettings prometheusSettings = new PrometheusSettings(settings, new ClusterSettings(settings, registered));
+        PrometheusMetricsCollector collector = new PrometheusMetricsCollector(
+                new PrometheusMetricsCatalog("test", "opensearch_"), prometheusSettings);
+        collector.registerMetrics();
+        return new MetricsSnapshotCache(prometheusSettings, collector, () -> localNode, scheduled,
+                threadPool, PrometheusMetricsScheduler.EXECUTOR);
+    }
+
+    private PlainActionFuture<BytesReference> get(MetricsSnapshotCache cache, ExpositionFormat format) {
+        PlainActionFuture<BytesReference> future = PlainActionFuture.newFuture();
+        cache.get(collections::add, format, ContentEncoding.IDENTITY, BytesStreamOutput::new, future);
+        return future;
+    }
+
+    private PlainActionFuture<Void> refresh(MetricsSnapshotCache cache) {
+        PlainActionFuture<Void> future = PlainActionFuture.newFuture();
+        cache.refresh(collections::add, future);
+        return future;
+    }
+
+    // Complete the last started collection.
+    private void collected() {
+        collections.get(collections.size() - 1).onResponse(new NodePrometheusMetricsResponse(null, new NodeStats[0],
+                null, null, Collections.emptyMap(), Collections.emptyList(), Collections.emptyList()));
+    }
+
+    private static BytesReference await(PlainActionFuture<BytesReference> future) {
+        return future.actionGet(10, TimeUnit.SECONDS);
+    }
+
+    public void testConcurrentScrapesAreCoalesced() {
+        MetricsSnapshotCache cache = cache(Settings.EMPTY, false);
+        PlainActionFuture<BytesReference> first = get(cache, ExpositionFormat.TEXT_004);
+        PlainActionFuture<BytesReference> second = get(cache, ExpositionFormat.TEXT_004);
+        PlainActionFuture<BytesReference> openMetrics = get(cache, ExpositionFormat.OPENMETRICS_100);
+        assertEquals(1, collections.size());
+
+        collected();
+        BytesReference content = await(first);
+        assertTrue(content.utf8ToString(), content.utf8ToString().contains("# TYPE opensearch_"));
+        // The variant is rendered once for all the scrapes of the collection.
+        assertSame(content, await(second));
+        assertTrue(await(openMetrics).utf8ToString().endsWith("# EOF\n"));
+
+        // No TTL, the next scrape collects again.
+        get(cache, ExpositionFormat.TEXT_004);
+        assertEquals(2, collections.size());
+    }
+
+    public void testSnapshotIsReusedWithinTtl() {
+        MetricsSnapshotCache cache = cache(Settings.builder().put("prometheus.cache.ttl", "1h").build(), false);
+        PlainActionFuture<BytesReference> first = get(cache, ExpositionFormat.TEXT_004);
+        collected();
+        BytesReference content = await(first);
+
+        // Served from the memoized variant.
+        assertSame(content, await(get(cache, ExpositionFormat.TEXT_004)));
+        // Other variants are rendered from the same snapshot and memoized too.
+        BytesReference openMetrics = await(get(cache, ExpositionFormat.OPENMETRICS_100));
+        assertSame(openMetrics, await(get(cache, ExpositionFormat.OPENMETRICS_100)));
+        assertEquals(1, collections.size());
+    }
+
+    public void testRefreshReplacesSnapshotAndPrerendersVariants() {
+        MetricsSnapshotCache cache = cache(Settings.builder().put("prometheus.cache.ttl", "1h").build(), false);
+        PlainActionFuture<BytesReference> first = get(cache, ExpositionFormat.TEXT_004);
+        collected();
+        BytesReference content = await(first);
+
+        PlainActionFuture<Void> refreshed = refresh(cache);
+        assertEquals(2, collections.size());
+        // Until the refresh completes scrapes are served from the previous snapshot.
+        assertSame(content, await(get(cache, ExpositionFormat.TEXT_004)));
+        collected();
+        refreshed.actionGet(10, TimeUnit.SECONDS);
+
+        // The variant was rendered from the new snapshot before it was published.
+        BytesReference refreshedContent = await(get(cache, ExpositionFormat.TEXT_004));
+        assertNotSame(content, refreshedContent);
+        assertSame(refreshedContent, await(get(cache, ExpositionFormat.TEXT_004)));
+        // Variants not rendered from the previous snapshot are rendered from the new one on demand.
+        assertTrue(await(get(cache, ExpositionFormat.OPENMETRICS_100)).utf8ToString().endsWith("# EOF\n"));
+        assertEquals(2, collections.size());
+    }
+
+    public void testScrapesDuringRefreshJoinIt() {
+        MetricsSnapshotCache cache = cache(Settings.EMPTY, true);
+        PlainActionFuture<Void> refreshed = refresh(cache);
+        PlainActionFuture<BytesReference> scrape = get(cache, ExpositionFormat.TEXT_004);
+        assertEquals(1, collections.size());
+        collected();
+        assertNull(refreshed.actionGet(10, TimeUnit.SECONDS));
+        assertTrue(await(scrape).length() > 0);
+    }
+
+    public void testFailedCollectionFailsAllWaitingScrapes() {
+        MetricsSnapshotCache cache = cache(Settings.builder().put("prometheus.cache.ttl", "1h").build(), false);
+        PlainActionFuture<BytesReference> first = get(cache, ExpositionFormat.TEXT_004);
+        PlainActionFuture<BytesReference> second = get(cache, ExpositionFormat.OPENMETRICS_100);
+        collections.get(0).onFailure(new IllegalStateException("collection failed"));
+        expectThrows(IllegalStateException.class, () -> await(first));
+        expectThrows(IllegalStateException.class, () -> await(second));
+
+        // Nothing is cached, the next scrape collects again.
+        PlainActionFuture<BytesReference> third = get(cache, ExpositionFormat.TEXT_004);
+        assertEquals(2, collections.size());
+        collected();
+        assertTrue(await(third).length() > 0);
+    }
+}